@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.alloc;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+
+/**
+ * Time and slot budget of a task (all the allocations run for one input
+ * file). The budget is bound to the thread running the task, allocators
+ * pick it up when a run starts and check it once per slot: a task that
+ * exceeds its budget, or whose thread is interrupted, stops at the next
+ * slot with a BudgetExceededException.
+ * @author roberto
+ *
+ */
+public final class Budget {
+	
+	// The clock and the interruption are checked every CHECK_MASK+1 slots
+	private static final int CHECK_MASK = 63;
+	
+	private static final ThreadLocal<Budget> current = new ThreadLocal<Budget>();
+	// Number of tasks that exceeded their budget
+	private static final LongAdder EXCEEDED = Metrics.counter("budget.exceeded");
+	
+	private long timeLimit;
+	private long slotLimit;
+	private long deadline;
+	private long slots;
+	private String exceeded;
+	
+	private Budget (long timeLimit, long slotLimit) {
+		this.timeLimit = timeLimit;
+		this.slotLimit = slotLimit;
+		this.deadline = (timeLimit > 0) ? System.nanoTime() + timeLimit * 1000000L : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Binds a new budget to the current thread
+	 * @param timeLimit Wall clock time in ms, 0 for no limit
+	 * @param slotLimit Number of slots allocated, 0 for no limit
+	 * @return
+	 */
+	public static Budget begin (long timeLimit, long slotLimit) {
+		Budget b = new Budget(timeLimit, slotLimit);
+		current.set(b);
+		return b;
+	}
+	
+	/**
+	 * Unbinds the budget of the current thread
+	 */
+	public static void end () {
+		current.remove();
+	}
+	
+	/**
+	 * Budget of the current thread
+	 * @return The budget or null when the task has none
+	 */
+	public static Budget current () {
+		return current.get();
+	}
+	
+	/**
+	 * Cancellation checkpoint, called for each slot allocated
+	 * @throws BudgetExceededException
+	 */
+	public void slot () throws BudgetExceededException {
+		slots++;
+		if (exceeded == null) {
+			if (slotLimit > 0 && slots > slotLimit)
+				exceeded = "slot budget of "+slotLimit+" exceeded";
+			else if ((slots & CHECK_MASK) == 0) {
+				if (System.nanoTime() > deadline)
+					exceeded = "time budget of "+timeLimit+" ms exceeded";
+				else if (Thread.currentThread().isInterrupted())
+					exceeded = "cancelled";
+			}
+			if (exceeded != null)
+				EXCEEDED.increment();
+		}
+		if (exceeded != null)
+			throw new BudgetExceededException("Budget: "+exceeded);
+	}
+	
+	/**
+	 * Number of tasks that exceeded their budget since the start
+	 * @return
+	 */
+	public static long getNbExceeded () {
+		return EXCEEDED.sum();
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public boolean isExceeded() {
+		return exceeded != null;
+	}
+
+	public long getSlots() {
+		return slots;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public long getSlotLimit() {
+		return slotLimit;
+	}
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.alloc;
+
+/**
+ * Thrown by the allocators when the budget of the task is exhausted or
+ * the task has been cancelled. It is not a verdict on the model.
+ * @author roberto
+ *
+ */
+public class BudgetExceededException extends SchedulingException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public BudgetExceededException (String message) {
+		super(message);
+	}
+
+}
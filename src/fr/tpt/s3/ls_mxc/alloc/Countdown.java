@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.alloc;
+
+import java.util.BitSet;
+
+import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.model.DAG;
+import fr.tpt.s3.ls_mxc.model.Edge;
+
+/**
+ * Dependency countdown used to activate actors during the allocation.
+ * Each actor keeps the number of actors it still waits for (predecessors
+ * when the table is built forward, successors when it is built backward)
+ * and a bit telling if it is in the ready list. When an actor completes,
+ * only its own edges need to be visited.
+ * @author roberto
+ *
+ */
+public class Countdown {
+	
+	private int deps[];
+	private int remaining[];
+	private BitSet ready;
+	
+	public Countdown (int size) {
+		deps = new int[size];
+		remaining = new int[size];
+		ready = new BitSet(size);
+	}
+	
+	/**
+	 * Countdown on the predecessors of each actor, indexed by actor id
+	 * @param d
+	 * @param hiOnly Only HI predecessors are counted
+	 * @return
+	 */
+	public static Countdown predecessors (DAG d, boolean hiOnly) {
+		Countdown cd = new Countdown(d.getNodes().size());
+		
+		for (Actor a : d.getNodes())
+			cd.reset(a.getId(), hiOnly ? countHI(a, false) : a.getRcvEdges().size());
+		return cd;
+	}
+	
+	/**
+	 * Countdown on the HI successors of each actor, indexed by actor id
+	 * @param d
+	 * @return
+	 */
+	public static Countdown successorsHI (DAG d) {
+		Countdown cd = new Countdown(d.getNodes().size());
+		
+		for (Actor a : d.getNodes())
+			cd.reset(a.getId(), countHI(a, true));
+		return cd;
+	}
+	
+	/**
+	 * Counts the HI neighbours of an actor
+	 * @param a
+	 * @param succ Successors if true, predecessors otherwise
+	 * @return
+	 */
+	public static int countHI (Actor a, boolean succ) {
+		int ret = 0;
+		
+		if (succ) {
+			for (Edge e : a.getSndEdges()) {
+				if (e.getDest().getCHI() != 0)
+					ret++;
+			}
+		} else {
+			for (Edge e : a.getRcvEdges()) {
+				if (e.getSrc().getCHI() != 0)
+					ret++;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Sets the number of dependencies of an actor, the ready bit is kept
+	 * @param i
+	 * @param deps
+	 */
+	public void reset (int i, int deps) {
+		this.deps[i] = deps;
+		remaining[i] = deps;
+	}
+	
+	/**
+	 * Waits again for all the dependencies of the actors from to to - 1
+	 * (new job of a DAG)
+	 * @param from
+	 * @param to
+	 */
+	public void restart (int from, int to) {
+		System.arraycopy(deps, from, remaining, from, to - from);
+	}
+	
+	/**
+	 * One dependency of the actor has completed
+	 * @param i
+	 * @return True if it was the last one and the actor is not ready yet
+	 */
+	public boolean complete (int i) {
+		remaining[i]--;
+		return remaining[i] == 0 && !ready.get(i);
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public int getRemaining (int i) {
+		return remaining[i];
+	}
+	
+	public boolean isReady (int i) {
+		return ready.get(i);
+	}
+	
+	public void setReady (int i, boolean r) {
+		ready.set(i, r);
+	}
+}
@@ -0,0 +1,613 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.alloc;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.model.DAG;
+import fr.tpt.s3.ls_mxc.model.Edge;
+
+/**
+ * What-if rescheduling on top of a LS allocation. Model deltas (budgets,
+ * new edges) are applied to the DAG, only the HLFET levels of the
+ * ancestors of the modified actors are recomputed and the tables are
+ * rebuilt from the first slot where an affected actor was ready: the
+ * slots before are replayed from the previous tables.
+ * The resulting tables are the ones a full AllocAll would give.
+ * @author roberto
+ *
+ */
+public class IncrementalLS {
+	
+	private static final Comparator<Actor> HI_ORDER = new Comparator<Actor>() {
+		@Override
+		public int compare(Actor n1, Actor n2) {
+			if (n2.getWeightHI()- n1.getWeightHI() != 0)
+				return n1.getWeightHI()- n2.getWeightHI();
+			else
+				return n1.getId() - n2.getId();
+		}
+	};
+	
+	private static final Comparator<Actor> LO_ORDER = new Comparator<Actor>() {
+		@Override
+		public int compare(Actor n1, Actor n2) {
+			if (n2.getWeightLO() - n1.getWeightLO() !=0)
+				return n2.getWeightLO() - n1.getWeightLO();
+			else
+				return n2.getId() - n1.getId();
+		}
+	};
+
+	private LS ls;
+	private DAG dag;
+	private int nbCores;
+	private int deadline;
+	private int nbActors;
+	
+	private Actor actors[];
+	private Map<String, Actor> byName;
+	
+	// HLFET levels of the current model
+	private int levelLO[];
+	private int levelHI[];
+	
+	/**
+	 * Constructor: the allocation of the LS has to be done
+	 * @param ls
+	 */
+	public IncrementalLS (LS ls) {
+		if (ls.getS_HI() == null || ls.getS_LO() == null)
+			throw new IllegalStateException("IncrementalLS: the DAG has not been allocated");
+		
+		this.setLs(ls);
+		dag = ls.getMxcDag();
+		nbCores = ls.getNbCores();
+		deadline = ls.getDeadline();
+		nbActors = dag.getNodes().size();
+		
+		actors = new Actor[nbActors];
+		byName = new HashMap<String, Actor>();
+		for (Actor a : dag.getNodes()) {
+			actors[a.getId()] = a;
+			byName.put(a.getName(), a);
+		}
+		
+		levelLO = new int[nbActors];
+		levelHI = new int[nbActors];
+		BitSet all = new BitSet(nbActors);
+		all.set(0, nbActors);
+		updateLevels(Actor.LO, all, new BitSet(nbActors));
+		updateLevels(Actor.HI, all, new BitSet(nbActors));
+	}
+	
+	/**
+	 * Applies one delta and reschedules
+	 * @param delta
+	 * @return
+	 * @throws SchedulingException
+	 */
+	public ScheduleDiff apply (ModelDelta delta) throws SchedulingException {
+		return apply(Collections.singletonList(delta));
+	}
+	
+	/**
+	 * Applies the deltas to the model and updates the tables of the LS.
+	 * If the new model is not schedulable (or a delta is not valid)
+	 * the model and the tables are left untouched.
+	 * @param deltas
+	 * @return The changes made to the tables
+	 * @throws SchedulingException
+	 */
+	public ScheduleDiff apply (List<ModelDelta> deltas) throws SchedulingException {
+		String[][] oldHI = ls.getS_HI();
+		String[][] oldLO = ls.getS_LO();
+		int[] oldStart = ls.getStart_HI();
+		
+		// Activation slots of the actors in the current tables
+		int[] actHI = new int[nbActors];
+		int[] actLO = new int[nbActors];
+		scheduleHI(oldHI, -1, null, new int[nbActors], actHI);
+		scheduleLO(oldLO, deadline, null, oldStart, actLO);
+		
+		// Undo information
+		int[] oldCLO = new int[nbActors];
+		int[] oldCHI = new int[nbActors];
+		for (Actor a : actors) {
+			oldCLO[a.getId()] = a.getCLO();
+			oldCHI[a.getId()] = a.getCHI();
+		}
+		int[] oldLevelLO = levelLO.clone();
+		int[] oldLevelHI = levelHI.clone();
+		LinkedList<Edge> newEdges = new LinkedList<Edge>();
+		LinkedList<Actor> oldOuts = new LinkedList<Actor>();
+		
+		BitSet seedLO = new BitSet(nbActors);
+		BitSet seedHI = new BitSet(nbActors);
+		BitSet affectedLO = new BitSet(nbActors);
+		BitSet affectedHI = new BitSet(nbActors);
+		boolean ok = false;
+		
+		try {
+			for (ModelDelta d : deltas) {
+				Actor a = getActor(d.getActor());
+				
+				switch (d.getType()) {
+				case ModelDelta.SET_CLO:
+					if (d.getValue() <= 0)
+						throw new IllegalArgumentException("IncrementalLS: invalid delta "+d);
+					a.setCLO(d.getValue());
+					seedLO.set(a.getId());
+					affectedLO.set(a.getId());
+					break;
+					
+				case ModelDelta.SET_CHI:
+					if (d.getValue() <= 0 || a.getCHI() == 0)
+						throw new IllegalArgumentException("IncrementalLS: changing the criticality of "+a.getName()+" needs a full allocation");
+					a.setCHI(d.getValue());
+					seedHI.set(a.getId());
+					affectedHI.set(a.getId());
+					break;
+					
+				case ModelDelta.ADD_EDGE:
+					Actor b = getActor(d.getDest());
+					if (a == b || reaches(b, a))
+						throw new IllegalArgumentException("IncrementalLS: "+d+" creates a cycle");
+					for (Edge e : a.getSndEdges()) {
+						if (e.getDest() == b)
+							throw new IllegalArgumentException("IncrementalLS: "+d+" already exists");
+					}
+					if (dag.getOuts() != null && dag.getOuts().contains(a))
+						oldOuts.add(a);
+					newEdges.add(new Edge(a, b));
+					refreshFlags(a);
+					refreshFlags(b);
+					
+					// b waits for a in LO mode, a waits for b in HI mode
+					seedLO.set(a.getId());
+					seedHI.set(a.getId());
+					affectedLO.set(b.getId());
+					if (a.getCHI() != 0)
+						affectedHI.set(a.getId());
+					// The activations done when b ends depend on the
+					// order of its received edges
+					if (b.getCHI() != 0)
+						affectedHI.set(b.getId());
+					break;
+				}
+			}
+			
+			updateLevels(Actor.LO, seedLO, affectedLO);
+			updateLevels(Actor.HI, seedHI, affectedHI);
+			ScheduleDiff diff = reschedule(oldHI, oldLO, oldStart, actHI, actLO, affectedHI, affectedLO);
+			ok = true;
+			return diff;
+		} finally {
+			if (!ok) {
+				// Roll back the model
+				ListIterator<Edge> ie = newEdges.listIterator(newEdges.size());
+				while (ie.hasPrevious()) {
+					Edge e = ie.previous();
+					e.getSrc().getSndEdges().remove(e);
+					e.getDest().getRcvEdges().remove(e);
+					refreshFlags(e.getSrc());
+					refreshFlags(e.getDest());
+				}
+				for (Actor a : oldOuts)
+					dag.getOuts().add(a);
+				for (Actor a : actors) {
+					a.setCLO(oldCLO[a.getId()]);
+					a.setCHI(oldCHI[a.getId()]);
+					a.setWeightLO(oldLevelLO[a.getId()]);
+					a.setWeightHI(oldLevelHI[a.getId()]);
+				}
+				levelLO = oldLevelLO;
+				levelHI = oldLevelHI;
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the tables from the first affected slot of each mode
+	 * @return
+	 * @throws SchedulingException
+	 */
+	private ScheduleDiff reschedule (String[][] oldHI, String[][] oldLO, int[] oldStart,
+			int[] actHI, int[] actLO, BitSet affectedHI, BitSet affectedLO) throws SchedulingException {
+		
+		for (Actor a : actors) {
+			a.setWeightLO(levelLO[a.getId()]);
+			a.setWeightHI(levelHI[a.getId()]);
+		}
+		
+		// HI table is built backwards: restart from the latest slot
+		// where an affected HI actor was ready
+		int t0HI = -1;
+		for (int i = affectedHI.nextSetBit(0); i >= 0; i = affectedHI.nextSetBit(i + 1)) {
+			if (actors[i].getCHI() == 0)
+				continue;
+			if (actHI[i] < 0) {
+				t0HI = deadline - 1;
+				break;
+			}
+			if (t0HI < actHI[i])
+				t0HI = actHI[i];
+		}
+		
+		String[][] newHI = oldHI;
+		int[] newStart = oldStart;
+		if (t0HI >= 0) {
+			newHI = new String[deadline][nbCores];
+			newStart = new int[nbActors];
+			scheduleHI(oldHI, t0HI, newHI, newStart, null);
+		}
+		
+		// LO table: earliest activation of an affected actor or
+		// earliest HI start time that moved
+		int t0LO = deadline;
+		for (int i = affectedLO.nextSetBit(0); i >= 0; i = affectedLO.nextSetBit(i + 1)) {
+			if (actLO[i] < 0) {
+				t0LO = 0;
+				break;
+			}
+			if (t0LO > actLO[i])
+				t0LO = actLO[i];
+		}
+		for (Actor a : actors) {
+			int i = a.getId();
+			if (a.getCHI() != 0 && newStart[i] != oldStart[i])
+				t0LO = Math.min(t0LO, Math.min(newStart[i], oldStart[i]));
+		}
+		
+		String[][] newLO = oldLO;
+		if (t0LO < deadline) {
+			newLO = new String[deadline][nbCores];
+			scheduleLO(oldLO, t0LO, newLO, newStart, null);
+		}
+		
+		ScheduleDiff diff = new ScheduleDiff(t0HI, t0LO < deadline ? t0LO : -1);
+		if (t0HI >= 0)
+			diff.compare(Actor.HI, oldHI, newHI, 0, t0HI);
+		if (t0LO < deadline)
+			diff.compare(Actor.LO, oldLO, newLO, t0LO, deadline - 1);
+		
+		ls.setS_HI(newHI);
+		ls.setS_LO(newLO);
+		ls.setStart_HI(newStart);
+		return diff;
+	}
+	
+	/**
+	 * HI allocation (same decisions as LS.AllocHI). Slots after t0 are
+	 * replayed from the old table, decisions are taken from t0 down to 0.
+	 * @param old Previous table
+	 * @param t0 First slot to decide
+	 * @param s New table (can be null)
+	 * @param start Start times in HI mode
+	 * @param act Activation slots (can be null), -1 if never ready
+	 * @throws SchedulingException
+	 */
+	private void scheduleHI (String[][] old, int t0, String[][] s, int[] start, int[] act) throws SchedulingException {
+		int[] t_hi = new int[nbActors];
+		LinkedList<Actor> ready = new LinkedList<Actor>();
+		LinkedList<Actor> finished = new LinkedList<Actor>();
+		Countdown cd = Countdown.successorsHI(dag);
+		
+		if (s != null) {
+			for (int t = 0; t < deadline; t++)
+				Arrays.fill(s[t], "-");
+		}
+		if (act != null)
+			Arrays.fill(act, -1);
+		
+		for (Actor n : dag.getNodes()) {
+			if (n.getCHI() != 0) {
+				t_hi[n.getId()] = n.getCHI();
+				if (n.isSinkinHI()) {
+					ready.add(n);
+					cd.setReady(n.getId(), true);
+					if (act != null)
+						act[n.getId()] = deadline - 1;
+				}
+			}
+		}
+		
+		for (int t = deadline - 1; t >= 0; t--) {
+			if (!ls.checkFreeSlot(t_hi, nbActors, (t+1) * nbCores))
+				throw new SchedulingException("Alloc HI : Not enough slot lefts");
+			
+			if (t == t0)
+				Collections.sort(ready, HI_ORDER);
+			
+			ListIterator<Actor> li_it = ready.listIterator();
+			for (int c = 0; c < nbCores; c++) {
+				Actor n = null;
+				if (t > t0) {
+					if (!old[t][c].equals("-"))
+						n = byName.get(old[t][c]);
+				} else if (li_it.hasNext()) {
+					n = li_it.next();
+				}
+				if (n == null)
+					continue;
+				
+				if (s != null)
+					s[t][c] = n.getName();
+				t_hi[n.getId()] = t_hi[n.getId()] - 1;
+				if (t_hi[n.getId()] == 0) {
+					start[n.getId()] = t;
+					if (t > t0)
+						ready.remove(n);
+					else
+						li_it.remove();
+					finished.add(n);
+				}
+			}
+			
+			if (!finished.isEmpty()) {
+				for (Actor n : finished)
+					ls.checkActivationHI(cd, ready.listIterator(), n);
+				if (t <= t0)
+					Collections.sort(ready, HI_ORDER);
+				finished.clear();
+				if (act != null) {
+					for (Actor n : ready) {
+						if (act[n.getId()] < 0)
+							act[n.getId()] = t - 1;
+					}
+				}
+			}
+			if (ready.isEmpty())
+				return;
+		}
+	}
+	
+	/**
+	 * LO allocation (same decisions as LS.AllocLO). Slots before t0 are
+	 * replayed from the old table, decisions are taken from t0 to D - 1.
+	 * @param old Previous table
+	 * @param t0 First slot to decide
+	 * @param s New table (can be null)
+	 * @param start Start times in HI mode
+	 * @param act Activation slots (can be null), -1 if never ready
+	 * @throws SchedulingException
+	 */
+	private void scheduleLO (String[][] old, int t0, String[][] s, int[] start, int[] act) throws SchedulingException {
+		int[] t_lo = new int[nbActors];
+		LinkedList<Actor> ready = new LinkedList<Actor>();
+		LinkedList<Actor> finished = new LinkedList<Actor>();
+		Countdown cd = Countdown.predecessors(dag, false);
+		
+		if (s != null) {
+			for (int t = 0; t < deadline; t++)
+				Arrays.fill(s[t], "-");
+		}
+		if (act != null)
+			Arrays.fill(act, -1);
+		
+		for (Actor n : dag.getNodes()) {
+			t_lo[n.getId()] = n.getCLO();
+			if (n.isSource()) {
+				ready.add(n);
+				cd.setReady(n.getId(), true);
+				if (act != null)
+					act[n.getId()] = 0;
+			}
+		}
+		
+		for (int t = 0; t < deadline; t++) {
+			if (!ls.checkFreeSlot(t_lo, nbActors, (deadline - t) * nbCores))
+				throw new SchedulingException("Alloc LO : Not enough slot lefts");
+			
+			if (t < t0) {
+				// Promotions only change priorities, the list is sorted at t0
+				for (Actor n : actors) {
+					if (start[n.getId()] == t && t_lo[n.getId()] != 0 && n.getCHI() != 0)
+						n.setWeightLO(Integer.MAX_VALUE);
+				}
+			} else {
+				if (t == t0)
+					Collections.sort(ready, LO_ORDER);
+				ls.checkStartHI(ready, t, start, t_lo);
+			}
+			
+			ListIterator<Actor> li_it = ready.listIterator();
+			for (int c = 0; c < nbCores; c++) {
+				Actor n = null;
+				if (t < t0) {
+					if (!old[t][c].equals("-"))
+						n = byName.get(old[t][c]);
+				} else if (li_it.hasNext()) {
+					n = li_it.next();
+				}
+				if (n == null)
+					continue;
+				
+				if (s != null)
+					s[t][c] = n.getName();
+				t_lo[n.getId()] = t_lo[n.getId()] - 1;
+				if (t_lo[n.getId()] == 0) {
+					if (t < t0)
+						ready.remove(n);
+					else
+						li_it.remove();
+					finished.add(n);
+				}
+			}
+			
+			if (!finished.isEmpty()) {
+				for (Actor n : finished)
+					ls.checkActivation(cd, ready.listIterator(), n, Actor.LO);
+				if (t >= t0)
+					Collections.sort(ready, LO_ORDER);
+				finished.clear();
+				if (act != null) {
+					for (Actor n : ready) {
+						if (act[n.getId()] < 0)
+							act[n.getId()] = t + 1;
+					}
+				}
+			}
+			if (ready.isEmpty())
+				return;
+		}
+	}
+	
+	/**
+	 * Recomputes the HLFET levels of the ancestors of the seeds.
+	 * Actors whose level changed are added to affected.
+	 * @param mode
+	 * @param seeds
+	 * @param affected
+	 */
+	private void updateLevels (short mode, BitSet seeds, BitSet affected) {
+		int[] level = (mode == Actor.LO) ? levelLO : levelHI;
+		BitSet dirty = new BitSet(nbActors);
+		LinkedList<Actor> queue = new LinkedList<Actor>();
+		
+		for (int i = seeds.nextSetBit(0); i >= 0; i = seeds.nextSetBit(i + 1)) {
+			dirty.set(i);
+			queue.add(actors[i]);
+		}
+		while (!queue.isEmpty()) {
+			Actor a = queue.poll();
+			for (Edge e : a.getRcvEdges()) {
+				int p = e.getSrc().getId();
+				if (!dirty.get(p)) {
+					dirty.set(p);
+					queue.add(e.getSrc());
+				}
+			}
+		}
+		
+		// The recursion updates the levels out of order: keep the old ones
+		int[] prev = level.clone();
+		BitSet done = new BitSet(nbActors);
+		for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+			if (calcLevel(actors[i], mode, level, dirty, done) != prev[i])
+				affected.set(i);
+		}
+	}
+	
+	/**
+	 * Same recursion as LS.calcHLFETLevel, memoized on the dirty actors
+	 * @return
+	 */
+	private int calcLevel (Actor a, short mode, int[] level, BitSet dirty, BitSet done) {
+		int id = a.getId();
+		if (!dirty.get(id) || done.get(id))
+			return level[id];
+		
+		int max = 0;
+		boolean sink = (mode == Actor.LO) ? a.isSink() : a.isSinkinHI();
+		if (!sink) {
+			for (Edge e : a.getSndEdges()) {
+				int l = calcLevel(e.getDest(), mode, level, dirty, done);
+				if (max < l)
+					max = l;
+			}
+		}
+		level[id] = max + ((mode == Actor.LO) ? a.getCLO() : a.getCHI());
+		done.set(id);
+		return level[id];
+	}
+	
+	/**
+	 * Sets the sink/source flags of the actor from its edges
+	 * @param a
+	 */
+	private void refreshFlags (Actor a) {
+		a.setSink(a.getSndEdges().isEmpty());
+		a.setSource(a.getRcvEdges().isEmpty());
+		a.checkifSinkinHI();
+		a.setSourceHI(a.getRcvEdges().isEmpty() && a.getCHI() != 0);
+		
+		updateSet(dag.getSinks(), a, a.isSink());
+		updateSet(dag.getSinksHI(), a, a.isSinkinHI());
+		updateSet(dag.getSourcesHI(), a, a.isSourceHI());
+		updateSet(dag.getLoOuts(), a, a.isSink() && a.getCHI() == 0);
+		if (!a.isSink() && dag.getOuts() != null)
+			dag.getOuts().remove(a);
+	}
+	
+	private void updateSet (Set<Actor> set, Actor a, boolean in) {
+		if (in)
+			set.add(a);
+		else
+			set.remove(a);
+	}
+	
+	/**
+	 * Checks if dst can be reached from src
+	 * @param src
+	 * @param dst
+	 * @return
+	 */
+	private boolean reaches (Actor src, Actor dst) {
+		BitSet seen = new BitSet(nbActors);
+		LinkedList<Actor> stack = new LinkedList<Actor>();
+		stack.push(src);
+		while (!stack.isEmpty()) {
+			Actor a = stack.pop();
+			if (a == dst)
+				return true;
+			for (Edge e : a.getSndEdges()) {
+				if (!seen.get(e.getDest().getId())) {
+					seen.set(e.getDest().getId());
+					stack.push(e.getDest());
+				}
+			}
+		}
+		return false;
+	}
+	
+	private Actor getActor (String name) {
+		Actor a = byName.get(name);
+		if (a == null)
+			throw new IllegalArgumentException("IncrementalLS: unknown actor "+name);
+		return a;
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public LS getLs() {
+		return ls;
+	}
+
+	public void setLs(LS ls) {
+		this.ls = ls;
+	}
+
+	public int[] getLevelLO() {
+		return levelLO;
+	}
+
+	public int[] getLevelHI() {
+		return levelHI;
+	}
+}
@@ -16,15 +16,25 @@
  *******************************************************************************/
 package fr.tpt.s3.ls_mxc.alloc;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.ListIterator;
+import java.util.concurrent.atomic.LongAdder;
 
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.model.Edge;
 import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.metrics.AllocHIEvent;
+import fr.tpt.s3.ls_mxc.metrics.AllocLOEvent;
+import fr.tpt.s3.ls_mxc.metrics.AllocationEvent;
+import fr.tpt.s3.ls_mxc.metrics.FederatedTestEvent;
+import fr.tpt.s3.ls_mxc.metrics.Histogram;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+import fr.tpt.s3.ls_mxc.trace.TraceRun;
+import fr.tpt.s3.ls_mxc.trace.Tracer;
 
 /**
  * List scheduling algorithm + construction of tables
@@ -33,6 +43,15 @@ import fr.tpt.s3.ls_mxc.model.Actor;
  */
 public class LS{
 	
+	// Metrics shared by all the instances
+	private static final Histogram T_ALLOC_HI = Metrics.timer("ls.allocHI");
+	private static final Histogram T_ALLOC_LO = Metrics.timer("ls.allocLO");
+	private static final Histogram T_CHECK_BARUAH = Metrics.timer("ls.checkBaruah");
+	private static final LongAdder SLOTS = Metrics.counter("ls.slots");
+	private static final LongAdder SORTS = Metrics.counter("ls.sorts");
+	private static final LongAdder READY_OPS = Metrics.counter("ls.ready.ops");
+	private static final LongAdder PROMOTIONS = Metrics.counter("ls.promotions");
+	
 	// DAG to be scheduled
 	private DAG mcDag;
 	
@@ -56,6 +75,16 @@ public class LS{
 	private int Start_HI[];
 	
 	private boolean debug;
+	
+	// Only the verdict is computed, tables are not filled
+	private boolean feasibilityOnly;
+	// Slot where the last allocation failed, -1 if none
+	private int failSlot = -1;
+	
+	// Trace of the current allocation, null when tracing is disabled
+	private TraceRun trace;
+	// Budget of the task, null when it has none
+	private Budget taskBudget;
 
 
 	/**
@@ -156,6 +185,20 @@ public class LS{
 		}
 	}
 	
+	/**
+	 * Creates an empty scheduling table
+	 * @return null in the feasibility-only mode
+	 */
+	private String[][] newTable () {
+		if (isFeasibilityOnly())
+			return null;
+		
+		String s[][] = new String[deadline][nbCores];
+		for (int t = 0; t < deadline; t++)
+			Arrays.fill(s[t], "-");
+		return s;
+	}
+	
 	/**
 	 * Allocation algorithm for the HI mode.
 	 * Instantiates the scheduling table + gives start times
@@ -167,13 +210,7 @@ public class LS{
 		/* =============================================
 		 *  Initialization of variables used by the method & class
 		 ================================================*/
-		S_HI = new String[deadline][nbCores];
-		// Initialize with 0s
-		for (int c = 0; c < nbCores; c++) {
-			for(int t = 0; t < deadline; t++) {
-				S_HI[t][c] = "-";
-			}
-		}
+		S_HI = newTable();
 			
 		Start_HI = new int[mcDag.getNodes().size()];
 		int[] t_hi = new int[mcDag.getNodes().size()];
@@ -184,6 +221,8 @@ public class LS{
 		// List of recently finished tasks -> to activate new ones
 		LinkedList<Actor> finished_hi = new LinkedList<Actor>();
 		boolean task_finished = false;
+		// Remaining dependencies of each task
+		Countdown cd = Countdown.successorsHI(mcDag);
 		
 		// Add HI nodes to the list
 		while(it_n.hasNext()){
@@ -192,11 +231,13 @@ public class LS{
 				t_hi[n.getId()] = n.getCHI();
 				if (n.isSinkinHI()) { // At the beginning only exit nodes are added
 					ready_hi.add(n);
+					cd.setReady(n.getId(), true);
 				}
 			}
 		}
 
 		// Sort lists
+		SORTS.increment();
 		Collections.sort(ready_hi, new Comparator<Actor>() {
 			@Override
 			public int compare(Actor n1, Actor n2) {
@@ -214,9 +255,15 @@ public class LS{
 		// Iterate through slots
 		ListIterator<Actor> li_it = ready_hi.listIterator();
 		for(int t = deadline - 1; t >= 0 ; t--){
+			SLOTS.increment();
+			if (taskBudget != null)
+				taskBudget.slot();
 			
 			// Check if there is enough slots to finish executing tasks
 			if (! checkFreeSlot(t_hi, getMxcDag().getNodes().size(), (t+1) * nbCores)){
+				if (trace != null)
+					trace.failure(Actor.HI, t);
+				setFailSlot(t);
 				SchedulingException se = new SchedulingException("Alloc HI : Not enough slot lefts");
 				throw se;
 			}
@@ -224,7 +271,10 @@ public class LS{
 			for(int c = 0; c < nbCores; c++) {
 				if (li_it.hasNext()){
 					Actor n = li_it.next(); // Get head of the list
-					S_HI[t][c] = n.getName(); // Give the slot to the task
+					if (S_HI != null)
+						S_HI[t][c] = n.getName(); // Give the slot to the task
+					if (trace != null)
+						trace.slot(Actor.HI, t, c, n);
 					
 					// Decrement slots left for the task
 					t_hi[n.getId()] = t_hi[n.getId()] - 1;
@@ -233,6 +283,7 @@ public class LS{
 					if (t_hi[n.getId()] == 0){ // Task has began its execution
 						Start_HI[n.getId()] = t;
 						li_it.remove();
+						READY_OPS.increment();
 						finished_hi.add(n);
 						task_finished = true;						
 					}
@@ -244,8 +295,9 @@ public class LS{
 				ListIterator<Actor> li_f = finished_hi.listIterator();
 				while (li_f.hasNext()) {
 					Actor n = li_f.next();
-					checkActivationHI(ready_hi, li_it, n, t_hi);
+					checkActivationHI(cd, li_it, n);
 					// Heavier tasks can be activated -> needs a new sort
+					SORTS.increment();
 					Collections.sort(ready_hi, new Comparator<Actor>() {
 						@Override
 						public int compare(Actor n1, Actor n2) {
@@ -276,13 +328,7 @@ public class LS{
 		/* =============================================
 		 *  Initialization of variables used by the method
 		 ================================================*/
-		S_LO = new String[deadline][nbCores];
-		// Initialize with 0s
-		for (int c = 0; c < nbCores; c++) {
-			for(int t = 0; t < deadline; t++) {
-				S_LO[t][c] = "-";
-			}
-		}
+		S_LO = newTable();
 			
 		int[] t_lo = new int[mcDag.getNodes().size()];
 		
@@ -292,17 +338,22 @@ public class LS{
 		// List of recently finished tasks -> to activate new ones
 		LinkedList<Actor> finished_lo = new LinkedList<Actor>();
 		boolean task_finished = false;
+		// Remaining dependencies of each task
+		Countdown cd = Countdown.predecessors(mcDag, false);
 		
 		// Add LO nodes to the list
 		while(it_n.hasNext()){
 			Actor n = it_n.next();
 			t_lo[n.getId()] = n.getCLO();
-			if (n.isSource()) // At the beginning only source nodes are added
+			if (n.isSource()) { // At the beginning only source nodes are added
 				ready_lo.add(n);
+				cd.setReady(n.getId(), true);
+			}
 		}
 
 		// Sort lists
 		
+		SORTS.increment();
 		Collections.sort(ready_lo, new Comparator<Actor>() {
 			@Override
 			public int compare(Actor n1, Actor n2) {
@@ -320,8 +371,14 @@ public class LS{
 		// Iterate through slots
 		ListIterator<Actor> li_it = ready_lo.listIterator();
 		for(int t = 0; t < deadline; t++){
+			SLOTS.increment();
+			if (taskBudget != null)
+				taskBudget.slot();
 			// For each slot check if it's an WC activation time
 			if (! checkFreeSlot(t_lo, mcDag.getNodes().size(), (deadline - t) * nbCores)){
+				if (trace != null)
+					trace.failure(Actor.LO, t);
+				setFailSlot(t);
 				SchedulingException se = new SchedulingException("Alloc LO : Not enough slot lefts");
 				throw se;
 			}
@@ -333,13 +390,17 @@ public class LS{
 				if (li_it.hasNext()){
 					Actor n = li_it.next(); // Get head of the list
 					
-					S_LO[t][c] = n.getName(); // Give the slot to the task
+					if (S_LO != null)
+						S_LO[t][c] = n.getName(); // Give the slot to the task
+					if (trace != null)
+						trace.slot(Actor.LO, t, c, n);
 
 					// Decrement slots left for the task
 					t_lo[n.getId()] = t_lo[n.getId()] - 1;
 
 					if (t_lo[n.getId()] == 0){ // Task has ended its execution
 						li_it.remove();
+						READY_OPS.increment();
 						task_finished = true;
 						finished_lo.add(n);
 					}
@@ -351,9 +412,10 @@ public class LS{
 				while (li_f.hasNext()) {
 					Actor n = li_f.next();
 					// Check for new activations
-					checkActivation(ready_lo, li_it, n, t_lo, 0);
+					checkActivation(cd, li_it, n, Actor.LO);
 
 					// Heavier tasks can be activated -> needs a new sort
+					SORTS.increment();
 					Collections.sort(ready_lo, new Comparator<Actor>() {
 						@Override
 						public int compare(Actor n1, Actor n2) {
@@ -382,13 +444,7 @@ public class LS{
 		/* =============================================
 		 *  Initialization of variables used by the method
 		 ================================================*/
-		S_B = new String[deadline][nbCores];
-		// Initialize with 0s
-		for (int c = 0; c < nbCores; c++) {
-			for(int t = 0; t < deadline; t++) {
-				S_B[t][c] = "-";
-			}
-		}
+		S_B = newTable();
 			
 		int[] t_lo = new int[mcDag.getNodes().size()];
 		
@@ -398,16 +454,21 @@ public class LS{
 		// List of recently finished tasks -> to activate new ones
 		LinkedList<Actor> finished_lo = new LinkedList<Actor>();
 		boolean task_finished = false;
+		// Remaining dependencies of each task
+		Countdown cd = Countdown.predecessors(mcDag, false);
 		
 		// Add LO nodes to the list
 		while(it_n.hasNext()){
 			Actor n = it_n.next();
 			t_lo[n.getId()] = n.getCLO();
-			if (n.isSource()) // At the beginning only source nodes are added
+			if (n.isSource()) { // At the beginning only source nodes are added
 				ready_lo.add(n);
+				cd.setReady(n.getId(), true);
+			}
 		}
 
 		// Sort lists
+		SORTS.increment();
 		Collections.sort(ready_lo, new Comparator<Actor>() {
 			@Override
 			public int compare(Actor n1, Actor n2) {
@@ -425,8 +486,14 @@ public class LS{
 		// Iterate through slots
 		ListIterator<Actor> li_it = ready_lo.listIterator();
 		for(int t = 0; t < deadline; t++){
+			SLOTS.increment();
+			if (taskBudget != null)
+				taskBudget.slot();
 			// For each slot check if it's an WC activation time
 			if (! checkFreeSlot(t_lo, mcDag.getNodes().size(), (deadline - t) * nbCores)){
+				if (trace != null)
+					trace.failure(Actor.LO, t);
+				setFailSlot(t);
 				SchedulingException se = new SchedulingException("Alloc B : Not enough slot lefts");
 				throw se;
 			}			
@@ -435,13 +502,17 @@ public class LS{
 				if (li_it.hasNext()){
 					Actor n = li_it.next(); // Get head of the list
 					
-					S_B[t][c] = n.getName(); // Give the slot to the task
+					if (S_B != null)
+						S_B[t][c] = n.getName(); // Give the slot to the task
+					if (trace != null)
+						trace.slot(Actor.LO, t, c, n);
 
 					// Decrement slots left for the task
 					t_lo[n.getId()] = t_lo[n.getId()] - 1;
 
 					if (t_lo[n.getId()] == 0){ // Task has ended its execution
 						li_it.remove();
+						READY_OPS.increment();
 						task_finished = true;
 						finished_lo.add(n);
 					}
@@ -453,9 +524,10 @@ public class LS{
 				while (li_f.hasNext()) {
 					Actor n = li_f.next();
 					// Check for new activations
-					checkActivation(ready_lo, li_it, n, t_lo, 0);
+					checkActivation(cd, li_it, n, Actor.LO);
 
 					// Heavier tasks can be activated -> needs a new sort
+					SORTS.increment();
 					Collections.sort(ready_lo, new Comparator<Actor>() {
 						@Override
 						public int compare(Actor n1, Actor n2) {
@@ -491,6 +563,10 @@ public class LS{
 			Actor n = it_n.next();
 			if (start_hi[n.getId()] == t && t_lo[n.getId()] != 0 && n.getCHI() != 0){
 				n.setWeightLO(Integer.MAX_VALUE);
+				if (trace != null)
+					trace.promotion(Actor.LO, t, n);
+				PROMOTIONS.increment();
+				SORTS.increment();
 				Collections.sort(ready_lo, new Comparator<Actor>() {
 					@Override
 					public int compare(Actor n1, Actor n2) {
@@ -507,93 +583,46 @@ public class LS{
 	}
 	
 	/**
-	 * 
-	 * @param li_r
-	 * @param n
-	 * @param t_hi
-	 * @param mode
+	 * Activates the successors of an actor that finished its execution.
+	 * Only the edges of the finished actor are visited.
+	 * @param cd Countdown on the predecessors
+	 * @param li_r Iterator of the ready list
+	 * @param n Finished actor
+	 * @param mode In HI mode LO successors are not activated
 	 */
-	public void checkActivation(LinkedList<Actor> l_r, ListIterator<Actor> li_r, Actor n, int[] t_hi, int mode){
-		
-		// Check all successors
-		Iterator<Edge> it_e = n.getSndEdges().iterator();
-		while (it_e.hasNext()){
-			Edge e = it_e.next();
+	public void checkActivation(Countdown cd, ListIterator<Actor> li_r, Actor n, int mode){
+		for (Edge e : n.getSndEdges()) {
 			Actor suc = e.getDest();
-			boolean ready = true;
-			boolean add = true;
 			
-			if (mode == 1 && suc.getCHI() == 0) { // Don't activate LO tasks in HI mode
-				ready = false;
-				break;
-			}
+			if (mode == Actor.HI && suc.getCHI() == 0) // Don't activate LO tasks in HI mode
+				continue;
 			
-			Iterator<Edge> it_e_rcv = suc.getRcvEdges().iterator();
-			while (it_e_rcv.hasNext()){ // For each successor we check its dependencies
-				
-				Edge e2 = it_e_rcv.next();
-				Actor pred = e2.getSrc();
-				if (t_hi[pred.getId()] != 0){
-					ready = false;
-					break;
-				}
-			}
-			
-			if (ready) {
-				// Need to check if the task has already been added
-				ListIterator<Actor> li = l_r.listIterator();
-				while(li.hasNext()){
-					if(li.next().getId() == suc.getId())
-						add = false;
-				}
-				if (add)
-					li_r.add(suc);
+			if (cd.complete(suc.getId())) {
+				li_r.add(suc);
+				cd.setReady(suc.getId(), true);
+				READY_OPS.increment();
 			}
 		}
 	}
 	
 	/**
-	 * 
-	 * @param li_r
-	 * @param n
-	 * @param t_hi
-	 * @param mode
+	 * Activates the HI predecessors of an actor that finished its
+	 * execution (the HI table is built backwards).
+	 * @param cd Countdown on the HI successors
+	 * @param li_r Iterator of the ready list
+	 * @param n Finished actor
 	 */
-	public void checkActivationHI(LinkedList<Actor> l_r, ListIterator<Actor> li_r, Actor n, int[] t_hi){
-		
-		// Check all successors
-		Iterator<Edge> it_e = n.getRcvEdges().iterator();
-		while (it_e.hasNext()){
-			Edge e = it_e.next();
+	public void checkActivationHI(Countdown cd, ListIterator<Actor> li_r, Actor n){
+		for (Edge e : n.getRcvEdges()) {
 			Actor pred = e.getSrc();
-			boolean ready = true;
-			boolean add = true;
-			
-			if (pred.getCHI() == 0) { // Don't activate LO tasks in HI mode
-				ready = false;
-				break;
-			}
 			
-			Iterator<Edge> it_e_rcv = pred.getSndEdges().iterator();
-			while (it_e_rcv.hasNext()){ // For each successor we check if it has been executed
-				
-				Edge e2 = it_e_rcv.next();
-				Actor suc = e2.getDest();
-				if (t_hi[suc.getId()] != 0){
-					ready = false;
-					break;
-				}
-			}
+			if (pred.getCHI() == 0) // Don't activate LO tasks in HI mode
+				continue;
 			
-			if (ready) {
-				// Need to check if the task has already been added
-				ListIterator<Actor> li = l_r.listIterator();
-				while(li.hasNext()){
-					if(li.next().getId() == pred.getId())
-						add = false;
-				}
-				if (add)
-					li_r.add(pred);
+			if (cd.complete(pred.getId())) {
+				li_r.add(pred);
+				cd.setReady(pred.getId(), true);
+				READY_OPS.increment();
 			}
 		}
 	}
@@ -606,15 +635,38 @@ public class LS{
 	public boolean AllocAll() throws SchedulingException{
 		boolean ret = true;
 		
+		setFailSlot(-1);
+		trace = Tracer.newRun(mcDag);
+		taskBudget = Budget.current();
 		this.calcWeights(Actor.HI);
 		if (isDebug()) printW(Actor.HI);
-		this.AllocHI();
-		if (isDebug()) printS_HI();
+		long t0 = System.nanoTime();
+		AllocationEvent ev = new AllocHIEvent();
+		boolean ok = false;
+		ev.begin();
+		try {
+			this.AllocHI();
+			ok = true;
+		} finally {
+			T_ALLOC_HI.recordSince(t0);
+			commitEvent(ev, ok);
+		}
+		if (isDebug() && !isFeasibilityOnly()) printS_HI();
 		
 		this.calcWeights(Actor.LO);
 		if (isDebug()) printW(Actor.LO);
-		this.AllocLO();
-		if (isDebug()) printS_LO();
+		t0 = System.nanoTime();
+		ev = new AllocLOEvent();
+		ok = false;
+		ev.begin();
+		try {
+			this.AllocLO();
+			ok = true;
+		} finally {
+			T_ALLOC_LO.recordSince(t0);
+			commitEvent(ev, ok);
+		}
+		if (isDebug() && !isFeasibilityOnly()) printS_LO();
 		
 		return ret;
 	}
@@ -622,17 +674,39 @@ public class LS{
 	public boolean CheckBaruah() throws SchedulingException{
 		// Check if schedulable by Baruah
 		boolean ret = true;
+		long t0 = System.nanoTime();
+		AllocationEvent ev = new FederatedTestEvent();
+		boolean ok = false;
 		
-		this.calcWeights(Actor.HI);
-		this.calcWeightsB();
-		
-		this.AllocHI();
-		
-		this.Alloc_B();
+		setFailSlot(-1);
+		trace = Tracer.newRun(mcDag);
+		taskBudget = Budget.current();
+		ev.begin();
+		try {
+			this.calcWeights(Actor.HI);
+			this.calcWeightsB();
+			
+			this.AllocHI();
+			
+			this.Alloc_B();
+			ok = true;
+		} finally {
+			T_CHECK_BARUAH.recordSince(t0);
+			commitEvent(ev, ok);
+		}
 		
 		return ret;
 	}
 	
+	/**
+	 * Commits a JFR event of the allocation of the DAG
+	 * @param ev
+	 * @param ok
+	 */
+	private void commitEvent (AllocationEvent ev, boolean ok) {
+		ev.commit("LS", mcDag.getId(), 1, mcDag.getNodes().size(), nbCores, deadline, ok);
+	}
+	
 	/**
 	 * Check if there is enough time slots for remaining tasks
 	 * @param t 
@@ -654,19 +728,14 @@ public class LS{
 		return r;
 	}
 	
-	public boolean HLFETSchedulable() {
+	public boolean HLFETSchedulable() throws BudgetExceededException {
 
+		taskBudget = Budget.current();
 		this.calcWeights(Actor.LO);
 		/* =============================================
 		 *  Initialization of variables used by the method
 		 ================================================*/
-		S_HLFET = new String[deadline][nbCores];
-		// Initialize with 0s
-		for (int c = 0; c < nbCores; c++) {
-			for(int t = 0; t < deadline; t++) {
-				S_HLFET[t][c] = "-";
-			}
-		}
+		S_HLFET = newTable();
 			
 		int[] t_lo = new int[mcDag.getNodes().size()];
 		
@@ -676,16 +745,21 @@ public class LS{
 		// List of recently finished tasks -> to activate new ones
 		LinkedList<Actor> finished_lo = new LinkedList<Actor>();
 		boolean task_finished = false;
+		// Remaining dependencies of each task
+		Countdown cd = Countdown.predecessors(mcDag, false);
 		
 		// Add LO nodes to the list
 		while(it_n.hasNext()){
 			Actor n = it_n.next();
 			t_lo[n.getId()] = n.getCLO();
-			if (n.isSource()) // At the beginning only source nodes are added
+			if (n.isSource()) { // At the beginning only source nodes are added
 				ready_lo.add(n);
+				cd.setReady(n.getId(), true);
+			}
 		}
 
 		// Sort lists
+		SORTS.increment();
 		Collections.sort(ready_lo, new Comparator<Actor>() {
 			@Override
 			public int compare(Actor n1, Actor n2) {
@@ -703,6 +777,9 @@ public class LS{
 		// Iterate through slots
 		ListIterator<Actor> li_it = ready_lo.listIterator();
 		for(int t = 0; t < deadline; t++){
+			SLOTS.increment();
+			if (taskBudget != null)
+				taskBudget.slot();
 			// For each slot check if it's an WC activation time
 			if (! checkFreeSlot(t_lo, mcDag.getNodes().size(), (deadline - t) * nbCores)){
 				return false;
@@ -713,13 +790,15 @@ public class LS{
 				if (li_it.hasNext()){
 					Actor n = li_it.next(); // Get head of the list
 					
-					S_HLFET[t][c] = n.getName(); // Give the slot to the task
+					if (S_HLFET != null)
+						S_HLFET[t][c] = n.getName(); // Give the slot to the task
 
 					// Decrement slots left for the task
 					t_lo[n.getId()] = t_lo[n.getId()] - 1;
 
 					if (t_lo[n.getId()] == 0){ // Task has ended its execution
 						li_it.remove();
+						READY_OPS.increment();
 						task_finished = true;
 						finished_lo.add(n);
 					}
@@ -731,9 +810,10 @@ public class LS{
 				while (li_f.hasNext()) {
 					Actor n = li_f.next();
 					// Check for new activations
-					checkActivation(ready_lo, li_it, n, t_lo, 0);
+					checkActivation(cd, li_it, n, Actor.LO);
 
 					// Heavier tasks can be activated -> needs a new sort
+					SORTS.increment();
 					Collections.sort(ready_lo, new Comparator<Actor>() {
 						@Override
 						public int compare(Actor n1, Actor n2) {
@@ -752,19 +832,14 @@ public class LS{
 		return true;
 	}
 	
-	public boolean HLFETSchedulableHI() {
+	public boolean HLFETSchedulableHI() throws BudgetExceededException {
 
+		taskBudget = Budget.current();
 		this.calcWeights(1);
 		/* =============================================
 		 *  Initialization of variables used by the method
 		 ================================================*/
-		S_HLFET_HI = new String[deadline][nbCores];
-		// Initialize with 0s
-		for (int c = 0; c < nbCores; c++) {
-			for(int t = 0; t < deadline; t++) {
-				S_HLFET_HI[t][c] = "-";
-			}
-		}
+		S_HLFET_HI = newTable();
 			
 		int[] t_hi = new int[mcDag.getNodes().size()];
 		
@@ -774,18 +849,23 @@ public class LS{
 		// List of recently finished tasks -> to activate new ones
 		LinkedList<Actor> finished_hi = new LinkedList<Actor>();
 		boolean task_finished = false;
+		// Remaining dependencies of each task
+		Countdown cd = Countdown.predecessors(mcDag, true);
 		
 		// Add HI nodes to the list
 		while(it_n.hasNext()){
 			Actor n = it_n.next();
 			if (n.getCHI() != 0) {
 				t_hi[n.getId()] = n.getCHI();
-				if (n.isSource()) // At the beginning only source nodes are added
+				if (n.isSource()) { // At the beginning only source nodes are added
 					ready_hi.add(n);
+					cd.setReady(n.getId(), true);
+				}
 			}
 		}
 
 		// Sort lists		
+		SORTS.increment();
 		Collections.sort(ready_hi, new Comparator<Actor>() {
 			@Override
 			public int compare(Actor n1, Actor n2) {
@@ -803,6 +883,9 @@ public class LS{
 		// Iterate through slots
 		ListIterator<Actor> li_it = ready_hi.listIterator();
 		for(int t = 0 ; t < deadline ; t++){
+			SLOTS.increment();
+			if (taskBudget != null)
+				taskBudget.slot();
 			
 			//Check if there is enough slots to finish executing tasks
 			if (! checkFreeSlot(t_hi, mcDag.getNodes().size(), (deadline - t) * nbCores)){
@@ -812,12 +895,14 @@ public class LS{
 			for(int c = 0; c < nbCores; c++) {
 				if (li_it.hasNext()){
 					Actor n = li_it.next(); // Get head of the list
-					S_HLFET_HI[t][c] = n.getName(); // Give the slot to the task
+					if (S_HLFET_HI != null)
+						S_HLFET_HI[t][c] = n.getName(); // Give the slot to the task
 					// Decrement slots left for the task
 					t_hi[n.getId()] = t_hi[n.getId()] - 1;
 				
 					if (t_hi[n.getId()] == 0){ // Task has ended its execution
 						li_it.remove();
+						READY_OPS.increment();
 						finished_hi.add(n);
 						task_finished = true;						
 					}
@@ -829,8 +914,9 @@ public class LS{
 				ListIterator<Actor> li_f = finished_hi.listIterator();
 				while (li_f.hasNext()) {
 					Actor n = li_f.next();
-					checkActivation(ready_hi, li_it, n, t_hi, 1);
+					checkActivation(cd, li_it, n, Actor.HI);
 					// Heavier tasks can be activated -> needs a new sort
+					SORTS.increment();
 					Collections.sort(ready_hi, new Comparator<Actor>() {
 						@Override
 						public int compare(Actor n1, Actor n2) {
@@ -982,4 +1068,20 @@ public class LS{
 	public void setDebug(boolean debug) {
 		this.debug = debug;
 	}
+
+	public boolean isFeasibilityOnly() {
+		return feasibilityOnly;
+	}
+
+	public void setFeasibilityOnly(boolean feasibilityOnly) {
+		this.feasibilityOnly = feasibilityOnly;
+	}
+
+	public int getFailSlot() {
+		return failSlot;
+	}
+
+	public void setFailSlot(int failSlot) {
+		this.failSlot = failSlot;
+	}
 }
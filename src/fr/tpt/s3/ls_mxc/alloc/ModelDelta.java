@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.alloc;
+
+/**
+ * A modification of the model given to the incremental scheduler:
+ * new LO or HI budget for an actor, or a new precedence constraint.
+ * @author roberto
+ *
+ */
+public class ModelDelta {
+	
+	public static final short SET_CLO = 0;
+	public static final short SET_CHI = 1;
+	public static final short ADD_EDGE = 2;
+	
+	private short type;
+	private String actor;
+	private String dest;
+	private int value;
+	
+	private ModelDelta (short type, String actor, String dest, int value) {
+		this.setType(type);
+		this.setActor(actor);
+		this.setDest(dest);
+		this.setValue(value);
+	}
+	
+	/**
+	 * New LO budget for the actor
+	 * @param actor
+	 * @param cLO
+	 * @return
+	 */
+	public static ModelDelta setCLO (String actor, int cLO) {
+		return new ModelDelta(SET_CLO, actor, null, cLO);
+	}
+	
+	/**
+	 * New HI budget for a HI actor
+	 * @param actor
+	 * @param cHI
+	 * @return
+	 */
+	public static ModelDelta setCHI (String actor, int cHI) {
+		return new ModelDelta(SET_CHI, actor, null, cHI);
+	}
+	
+	/**
+	 * New edge src -> dest
+	 * @param src
+	 * @param dest
+	 * @return
+	 */
+	public static ModelDelta addEdge (String src, String dest) {
+		return new ModelDelta(ADD_EDGE, src, dest, 0);
+	}
+	
+	@Override
+	public String toString () {
+		switch (type) {
+		case SET_CLO:
+			return actor+".C_LO = "+value;
+		case SET_CHI:
+			return actor+".C_HI = "+value;
+		default:
+			return actor+" -> "+dest;
+		}
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public short getType() {
+		return type;
+	}
+
+	public void setType(short type) {
+		this.type = type;
+	}
+
+	public String getActor() {
+		return actor;
+	}
+
+	public void setActor(String actor) {
+		this.actor = actor;
+	}
+
+	public String getDest() {
+		return dest;
+	}
+
+	public void setDest(String dest) {
+		this.dest = dest;
+	}
+
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		this.value = value;
+	}
+}
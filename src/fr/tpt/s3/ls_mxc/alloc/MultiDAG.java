@@ -16,21 +16,41 @@
  *******************************************************************************/
 package fr.tpt.s3.ls_mxc.alloc;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
+import fr.tpt.s3.ls_mxc.metrics.AllocHIEvent;
+import fr.tpt.s3.ls_mxc.metrics.AllocLOEvent;
+import fr.tpt.s3.ls_mxc.metrics.AllocationEvent;
+import fr.tpt.s3.ls_mxc.metrics.Histogram;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
 import fr.tpt.s3.ls_mxc.model.Actor;
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.model.Edge;
+import fr.tpt.s3.ls_mxc.trace.TraceRun;
+import fr.tpt.s3.ls_mxc.trace.Tracer;
 import fr.tpt.s3.ls_mxc.util.MathMCDAG;
 
 public class MultiDAG{
 	
+	// Metrics shared by all the instances
+	private static final Histogram T_ALLOC_HI = Metrics.timer("multidag.allocHI");
+	private static final Histogram T_ALLOC_LO = Metrics.timer("multidag.allocLO");
+	private static final LongAdder SLOTS = Metrics.counter("multidag.slots");
+	private static final LongAdder SORTS = Metrics.counter("multidag.sorts");
+	private static final LongAdder READY_OPS = Metrics.counter("multidag.ready.ops");
+	private static final LongAdder PROMOTIONS = Metrics.counter("multidag.promotions");
+	
 	// Set of DAGs to be scheduled
 	private Set<DAG> mcDags;
 	
@@ -48,12 +68,31 @@ public class MultiDAG{
 	private String sLO[][];
 	private String sHI[][];
 
-	// Remaining time for all nodes
-	private Hashtable<String, Integer> remainTLO;
-	private Hashtable<String, Integer> remainTHI;
+	// Remaining time for all nodes, indexed by position
+	private int remainTLO[];
+	private int remainTHI[];
+	private int budgetLO[];
+	private int budgetHI[];
+	// Actors of the DAG dags[k] have the positions first[k] to first[k + 1] - 1
+	private Map<Actor, Integer> index;
+	private DAG dags[];
+	private int first[];
+	// Slots allocated to each actor in the HI table, in decreasing order
+	private int hiSlots[][];
+	private int hiFill[];
+	
+	// Only the verdict is computed, tables are not filled
+	private boolean feasibilityOnly;
+	// Slot where the last allocation failed, -1 if none
+	private int failSlot = -1;
 	
 	private boolean debug;
 	
+	// Trace of the current allocation, null when tracing is disabled
+	private TraceRun trace;
+	// Budget of the task, null when it has none
+	private Budget taskBudget;
+	
 	/**
 	 * Constructor of the Multi DAG scheduler
 	 * @param sd
@@ -62,8 +101,6 @@ public class MultiDAG{
 	public MultiDAG (Set<DAG> sd, int cores, boolean debug) {
 		setMcDags(sd);
 		setNbCores(cores);
-		remainTLO = new Hashtable<>();
-		remainTHI = new Hashtable<>();
 		
 		lHIComp = new Comparator<Actor>() {
 			@Override
@@ -101,8 +138,13 @@ public class MultiDAG{
 		}
 		
 		sethPeriod(MathMCDAG.lcm(input));
-		sHI = new String[gethPeriod()][getNbCores()];
-		sLO = new String[gethPeriod()][getNbCores()];
+		if (isFeasibilityOnly()) {
+			sHI = null;
+			sLO = null;
+		} else {
+			sHI = new String[gethPeriod()][getNbCores()];
+			sLO = new String[gethPeriod()][getNbCores()];
+		}
 		
 		if (debug) System.out.println("[DEBUG "+Thread.currentThread().getName()+"] initTables(): Hyper-period of the graph: "+gethPeriod()+"; tables initialized.");
 	}
@@ -151,81 +193,47 @@ public class MultiDAG{
 	}
 	
 	/**
-	 * Internal function that tests if all successors of a node have
-	 * been visited.
-	 * @param a
-	 * @return
-	 */
-	private boolean succVisited (Actor a) {
-		boolean ret = true;
-		
-		for (Edge e : a.getSndEdges()) {
-			if (!e.getDest().isVisited())
-				return false;
-		}
-		return ret;
-	}
-	
-	/**
-	 * Internal function that tests if all predecessors of a HI node have
-	 * been visited.
-	 * @param a
-	 * @return
-	 */
-	private boolean succVisitedHI (Actor a) {
-		boolean ret = true;
-		
-		for (Edge e : a.getRcvEdges()) {
-			if (e.getSrc().getCHI() != 0 && !e.getSrc().isVisitedHI())
-				return false;
-		}
-		
-		return ret;
-	}
-	
-	/**
-	 * Recursively calculates LFTs of an actor
+	 * Calculates the LFTs of the actors of a DAG in both modes. Actors are
+	 * visited in topological order (Kahn): an actor is computed once all
+	 * the actors its LFT depends on have been. The visit state is local
+	 * to the call so LFTs can be recomputed on the same DAGs.
+	 * @param d
 	 */
 	private void calcLFTs (DAG d) {
-		// Add a list to add the nodes that have to be visited
-		ArrayList<Actor> toVisit = new ArrayList<>();
-		ArrayList<Actor> toVisitHI = new ArrayList<>();
-		
-		for (Actor a : d.getSinks()) {
-			toVisit.add(a);
-			a.setVisited(true);
-		}
+		int nbActors = d.getNodes().size();
+		// Number of successors (LO) and HI predecessors (HI) left to compute
+		int left[] = new int[nbActors];
+		int leftHI[] = new int[nbActors];
+		ArrayDeque<Actor> toVisit = new ArrayDeque<>(nbActors);
+		ArrayDeque<Actor> toVisitHI = new ArrayDeque<>(nbActors);
 		
-		for (Actor a : d.getSourcesHI()) {
-			toVisitHI.add(a);
-			a.setVisitedHI(true);
+		for (Actor a : d.getNodes()) {
+			left[a.getId()] = a.getSndEdges().size();
+			leftHI[a.getId()] = Countdown.countHI(a, false);
 		}
+		toVisit.addAll(d.getSinks());
+		toVisitHI.addAll(d.getSourcesHI());
 		
-		while (toVisit.size() != 0) {
-			Actor a = toVisit.get(0);
+		// LO mode: from the sinks to the sources
+		while (!toVisit.isEmpty()) {
+			Actor a = toVisit.poll();
 			
 			calcActorLFTLO(a, d.getDeadline());
 			for (Edge e : a.getRcvEdges()) {
-				if (!e.getSrc().isVisited() && succVisited(e.getSrc())) {
+				if (--left[e.getSrc().getId()] == 0)
 					toVisit.add(e.getSrc());
-					e.getSrc().setVisited(true);
-				}
 			}
-			toVisit.remove(0);
 		}
 		
-		while (toVisitHI.size() != 0) {
-			Actor a = toVisitHI.get(0);
+		// HI mode: the HI table is built backwards, from the sources to the sinks
+		while (!toVisitHI.isEmpty()) {
+			Actor a = toVisitHI.poll();
 			
 			calcActorLFTHI(a, d.getDeadline());
 			for (Edge e : a.getSndEdges()) {
-				if (e.getDest().getCHI() != 0 && !e.getDest().isVisitedHI()
-						&& succVisitedHI(e.getDest())) {
+				if (e.getDest().getCHI() != 0 && --leftHI[e.getDest().getId()] == 0)
 					toVisitHI.add(e.getDest());
-					e.getDest().setVisitedHI(true);
-				}
 			}
-			toVisitHI.remove(0);
 		}
 	}
 	
@@ -239,120 +247,212 @@ public class MultiDAG{
 	}
 
 	/**
-	 * Checks for new activations in the HI mode for a given DAG
-	 * @param a
-	 * @param sched
+	 * Builds the dependency countdown of the actors for a mode
+	 * @param mode
+	 * @return
+	 */
+	private Countdown initCountdown (short mode) {
+		Countdown cd = new Countdown(index.size());
+		
+		for (DAG d : getMcDags()) {
+			for (Actor a : d.getNodes()) {
+				if (mode == Actor.HI)
+					cd.reset(index.get(a), Countdown.countHI(a, true));
+				else
+					cd.reset(index.get(a), a.getRcvEdges().size());
+			}
+		}
+		return cd;
+	}
+	
+	/**
+	 * Checks for new activations in the HI mode: predecessors of the actors
+	 * that finished are activated once all their HI successors finished
+	 * @param finished Actors that finished at this slot
+	 * @param ready
+	 * @param cd
 	 */
-	private void checkActorActivationHI (List<Actor> sched, List<Actor> ready) {
-		// Check all predecessor of actor a that just finished
-		for (Actor a : sched) {
+	private void checkActorActivationHI (List<Actor> finished, List<Actor> ready, Countdown cd) {
+		for (Actor a : finished) {
 			for (Edge e : a.getRcvEdges()) {
 				Actor pred = e.getSrc();
-				boolean add = true;
-			
-				// 	Check all successors of the predecessor
-				for (Edge e2 : pred.getSndEdges()) {
-					if (e2.getDest().getCHI() != 0 && !sched.contains(e2.getDest()))
-						add = false;
+				
+				if (pred.getCHI() == 0)
+					continue;
+				
+				int i = index.get(pred);
+				if (cd.complete(i) && remainTHI[i] != 0) {
+					ready.add(pred);
+					cd.setReady(i, true);
+					READY_OPS.increment();
 				}
-			
-				if (add && !ready.contains(pred) && remainTHI.get(pred.getName()) != 0)
-					ready.add(pred);					
 			}
 		}
 	}
 	
 	/**
-	 * Checks for activations in the LO mode
-	 * @param a
-	 * @param sched
+	 * Checks for activations in the LO mode: successors of the actors that
+	 * finished are activated once all their predecessors finished
+	 * @param finished Actors that finished at this slot
+	 * @param ready
+	 * @param cd
 	 */
-	private void checkActorActivationLO (List<Actor> sched, List<Actor> ready) {
-		// Check all predecessor of actor a that just finished
-		for (Actor a : sched) {
+	private void checkActorActivationLO (List<Actor> finished, List<Actor> ready, Countdown cd) {
+		for (Actor a : finished) {
 			for (Edge e : a.getSndEdges()) {
 				Actor succ = e.getDest();
-				boolean add = true;
-			
-				// 	Check all successors of the predecessor
-				for (Edge e2 : succ.getRcvEdges()) {
-					if (!sched.contains(e2.getSrc()))
-						add = false;
-				}
-			
-				if (add && !ready.contains(succ) && remainTLO.get(succ.getName()) != 0)
+				int i = index.get(succ);
+				
+				if (cd.complete(i) && remainTLO[i] != 0) {
 					ready.add(succ);
+					cd.setReady(i, true);
+					READY_OPS.increment();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Builds the release calendar: next release slot of each DAG, the
+	 * earliest first (the latest first for the HI table that is built
+	 * backwards). DAGs released at the same slot keep the order of the set.
+	 * @param mode
+	 * @return
+	 */
+	private PriorityQueue<int[]> initCalendar (final short mode) {
+		PriorityQueue<int[]> cal = new PriorityQueue<int[]>(dags.length, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] r1, int[] r2) {
+				if (r1[0] != r2[0])
+					return (mode == Actor.HI) ? r2[0] - r1[0] : r1[0] - r2[0];
+				else
+					return r1[1] - r2[1];
 			}
+		});
+		
+		for (int k = 0; k < dags.length; k++) {
+			int slot = (mode == Actor.HI) ? gethPeriod() - dags[k].getDeadline() : dags[k].getDeadline();
+			
+			if (slot > 0 && slot < gethPeriod())
+				cal.add(new int[] {slot, k});
 		}
+		return cal;
 	}
 	
 	/**
 	 * Checks for the activation of a new DAG during the hyper-period
 	 * @param slot
+	 * @param cal Release calendar
 	 */
-	private void checkDAGActivation (int slot, List<Actor> sched, List<Actor> lMode, short mode) {
-		for (DAG d : getMcDags()) {
-			// If the slot is a mulitple of the deadline there is a new activation
-			if (slot % d.getDeadline() == 0) {
-				ListIterator<Actor> it = sched.listIterator();
-				
-				if (isDebug()) System.out.println("[DEBUG "+Thread.currentThread().getName()+"] checkDAGActivation(): DAG (id. "+d.getId()+") activation at slot "+slot);
-				for (Actor a : d.getNodes()) {
-					while (it.hasNext()) { // Remove nodes from the sched list
-						Actor a2 = it.next();
-						if (a.getName().contentEquals(a2.getName()))
-							it.remove();
-					}
-					it = sched.listIterator();
-					// Re-init remaining execution time to be allocated
-					if (a.getCHI() != 0)
-						remainTHI.put(a.getName(), a.getCHI());
-					remainTLO.put(a.getName(), a.getCLO());
-					
-					if (mode == Actor.HI) {
-						if (a.isSinkinHI())
-							lMode.add(a);
-					} else {
-						if (a.isSource())
-							lMode.add(a);
-					}
-				}			
+	private void checkDAGActivation (int slot, PriorityQueue<int[]> cal, List<Actor> lMode, short mode, Countdown cd) {
+		while (!cal.isEmpty() && cal.peek()[0] == slot) {
+			int r[] = cal.poll();
+			int k = r[1];
+			DAG d = dags[k];
+			
+			if (trace != null)
+				trace.dagActivation(mode, slot, d);
+			else if (isDebug())
+				System.out.println("[DEBUG "+Thread.currentThread().getName()+"] checkDAGActivation(): DAG (id. "+d.getId()+") activation at slot "+slot);
+			
+			// The new job waits for all its dependencies and gets its whole budget
+			cd.restart(first[k], first[k + 1]);
+			System.arraycopy(budgetHI, first[k], remainTHI, first[k], first[k + 1] - first[k]);
+			System.arraycopy(budgetLO, first[k], remainTLO, first[k], first[k + 1] - first[k]);
+			
+			for (Actor a : d.getNodes()) {
+				if ((mode == Actor.HI && a.isSinkinHI()) || (mode == Actor.LO && a.isSource())) {
+					lMode.add(a);
+					cd.setReady(index.get(a), true);
+				}
 			}
+			
+			// Next release of the DAG
+			r[0] = (mode == Actor.HI) ? slot - d.getDeadline() : slot + d.getDeadline();
+			if (r[0] > 0 && r[0] < gethPeriod())
+				cal.add(r);
 		}
 	}
 	
 	/**
-	 * Inits the remaining time to be allocated to each Actor
+	 * Inits the positions of the actors and the remaining time to be
+	 * allocated to each Actor
 	 */
 	private void initRemainT () {
+		int nbActors = 0;
+		int k = 0;
+		
+		for (DAG d : getMcDags())
+			nbActors += d.getNodes().size();
+		index = new IdentityHashMap<>();
+		dags = new DAG[getMcDags().size()];
+		first = new int[dags.length + 1];
+		budgetLO = new int[nbActors];
+		budgetHI = new int[nbActors];
+		
 		for (DAG d : getMcDags()) {
+			dags[k] = d;
+			first[k] = index.size();
 			for (Actor a : d.getNodes()) {
-				if (a.getCHI() != 0)
-					remainTHI.put(a.getName(), a.getCHI());
-				remainTLO.put(a.getName(), a.getCLO());
+				int i = index.size();
+				
+				index.put(a, i);
+				budgetHI[i] = a.getCHI();
+				budgetLO[i] = a.getCLO();
 			}
+			k++;
 		}
+		first[k] = index.size();
+		remainTHI = budgetHI.clone();
+		remainTLO = budgetLO.clone();
 	}
 	
 	/**
-	 * Checks how many slots have been allocated in the HI scheduling table
+	 * Checks how many slots have been allocated to an actor in the HI
+	 * scheduling table, from the release of its current job to slot t
 	 * @param a
+	 * @param i Position of the actor
 	 * @param t
 	 * @return
 	 */
-	private int scheduledUntilT (Actor a, int t) {
-		int ret = 0;
+	private int scheduledUntilT (Actor a, int i, int t) {
 		int start = (int)(t / a.getGraphDead()) * a.getGraphDead();
 		
-		for (int i = start; i <= t; i++) {
-			for (int c = 0; c < nbCores; c++) {
-				if (sHI[i][c] != null) {
-					if (sHI[i][c].contentEquals(a.getName()))
-						ret++;
-				}
-			}
+		return firstBelow(hiSlots[i], hiFill[i], start) - firstBelow(hiSlots[i], hiFill[i], t + 1);
+	}
+	
+	/**
+	 * Binary search in a decreasing array
+	 * @param slots
+	 * @param n Number of values in the array
+	 * @param bound
+	 * @return The first index whose value is lower than bound
+	 */
+	private static int firstBelow (int slots[], int n, int bound) {
+		int lo = 0;
+		int hi = n;
+		
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			
+			if (slots[mid] < bound)
+				hi = mid;
+			else
+				lo = mid + 1;
 		}
-		return ret; 
+		return lo;
+	}
+	
+	/**
+	 * Records a slot allocated to an actor in the HI table. The HI table
+	 * is built backwards so the slots are in decreasing order.
+	 * @param i
+	 * @param slot
+	 */
+	private void addHISlot (int i, int slot) {
+		if (hiFill[i] == hiSlots[i].length)
+			hiSlots[i] = Arrays.copyOf(hiSlots[i], 2 * hiSlots[i].length + 1);
+		hiSlots[i][hiFill[i]++] = slot;
 	}
 	
 	/**
@@ -377,21 +477,26 @@ public class MultiDAG{
 	private void calcLaxity (List<Actor> list, int slot, short mode) {
 		for (Actor a : list) {
 			int relatSlot = slot % a.getGraphDead();
+			int i = index.get(a);
 					
 			if (mode == Actor.HI) { // Laxity in HI mode
-				a.setUrgencyHI(a.getLFTHI() - relatSlot - remainTHI.get(a.getName()));
+				a.setUrgencyHI(a.getLFTHI() - relatSlot - remainTHI[i]);
 			} else  {// Laxity in LO mode
 				// Promote HI tasks that need to be scheduled at this slot
 				if (a.getCHI() != 0) {
-					if ((a.getCLO() - remainTLO.get(a.getName())) - scheduledUntilT(a, slot) < 0) {
+					if ((a.getCLO() - remainTLO[i]) - scheduledUntilT(a, i, slot) < 0) {
 						a.setPromoted(true);
-						if (isDebug()) System.out.println("[DEBUG "+Thread.currentThread().getName()+"] calcLaxity(): Promotion of task "+a.getName()+" at slot @t = "+slot);
+						PROMOTIONS.increment();
+						if (trace != null)
+							trace.promotion(mode, slot, a);
+						else if (isDebug())
+							System.out.println("[DEBUG "+Thread.currentThread().getName()+"] calcLaxity(): Promotion of task "+a.getName()+" at slot @t = "+slot);
 						a.setUrgencyLO(0);
 					} else {
-						a.setUrgencyLO(a.getLFTLO() - relatSlot - remainTLO.get(a.getName()));
+						a.setUrgencyLO(a.getLFTLO() - relatSlot - remainTLO[i]);
 					}
 				} else {
-					a.setUrgencyLO(a.getLFTLO() - relatSlot - remainTLO.get(a.getName()));
+					a.setUrgencyLO(a.getLFTLO() - relatSlot - remainTLO[i]);
 				}
 			}
 		}
@@ -434,18 +539,29 @@ public class MultiDAG{
 	 * @throws SchedulingException
 	 */
 	public boolean allocHI () throws SchedulingException {
-		List<Actor> sched = new LinkedList<>();
+		List<Actor> finished = new LinkedList<>();
+		Countdown cd = initCountdown(Actor.HI);
+		PriorityQueue<int[]> cal = initCalendar(Actor.HI);
+		hiSlots = new int[index.size()][];
+		hiFill = new int[index.size()];
+		for (int k = 0; k < dags.length; k++) {
+			for (int i = first[k]; i < first[k + 1]; i++)
+				hiSlots[i] = new int[budgetHI[i] * (gethPeriod() / dags[k].getDeadline())];
+		}
 		lHI = new ArrayList<Actor>();
 		
 		// Add all exit HI nodes to the ready list.
 		for (DAG d : getMcDags()) {
 			for (Actor a : d.getNodes()) {
-				if (a.isSinkinHI())
+				if (a.isSinkinHI()) {
 					lHI.add(a);
+					cd.setReady(index.get(a), true);
+				}
 			}
 		}
 
 		calcLaxity(lHI, 0, Actor.HI);
+		SORTS.increment();
 		lHI.sort(lHIComp);
 		 
 		// Allocate all slots of the HI scheduling table
@@ -453,7 +569,13 @@ public class MultiDAG{
 		boolean taskFinished = false;
 		
 		for (int s = hPeriod - 1; s >= 0; s--) {
-			if (isDebug()) {
+			SLOTS.increment();
+			if (taskBudget != null)
+				taskBudget.slot();
+			if (trace != null) {
+				for (Actor a : lHI)
+					trace.ready(Actor.HI, s, a, a.getUrgencyHI());
+			} else if (isDebug()) {
 				System.out.print("[DEBUG "+Thread.currentThread().getName()+"] allocHI(): @t = "+s+", tasks activated: ");
 				for (Actor a : lHI)
 					System.out.print("L("+a.getName()+") = "+a.getUrgencyHI()+"; ");
@@ -462,6 +584,9 @@ public class MultiDAG{
 			
 			// Check if it's worth to continue the allocation
 			if (!isPossible(s, lHI, Actor.HI)) {
+				setFailSlot(s);
+				if (trace != null)
+					trace.failure(Actor.HI, s);
 				SchedulingException se = new SchedulingException("[ERROR "+Thread.currentThread().getName()+"] allocHI() MultiDAG: Not enough slot left");
 				throw se;
 			}
@@ -470,32 +595,41 @@ public class MultiDAG{
 				// Find a ready task in the HI list
 				if (lit.hasNext()) {
 					Actor a = lit.next();
-					int val = remainTHI.get(a.getName());
+					int i = index.get(a);
+					int val = remainTHI[i];
 					
-					sHI[s][c] = a.getName();
+					if (sHI != null)
+						sHI[s][c] = a.getName();
+					addHISlot(i, s);
+					if (trace != null)
+						trace.slot(Actor.HI, s, c, a);
 					val--;
 					
 					// The task has been fully scheduled
 					if (val == 0) {
-						sched.add(a);
+						finished.add(a);
+						cd.setReady(i, false);
 						taskFinished = true;
 						lit.remove();
+						READY_OPS.increment();
 					}
-					remainTHI.put(a.getName(), val);
+					remainTHI[i] = val;
 				}
 			}
 			
 			if (taskFinished)
-				checkActorActivationHI(sched, lHI);
+				checkActorActivationHI(finished, lHI, cd);
 
 			if (s != 0) {
 				// Check if DAGs need to be activated at the next slot
-				checkDAGActivation(s, sched, lHI, Actor.HI); 
+				checkDAGActivation(s, cal, lHI, Actor.HI, cd);
 				// Update laxities for nodes in the ready list
 				calcLaxity(lHI, gethPeriod() - s, Actor.HI);
 			}
+			SORTS.increment();
 			lHI.sort(lHIComp);
 			taskFinished = false;
+			finished.clear();
 			lit = lHI.listIterator();
 		}
 		return true;
@@ -506,18 +640,23 @@ public class MultiDAG{
 	 * @throws SchedulingException
 	 */
 	public boolean allocLO () throws SchedulingException{
-		List<Actor> sched = new LinkedList<>();
+		List<Actor> finished = new LinkedList<>();
+		Countdown cd = initCountdown(Actor.LO);
+		PriorityQueue<int[]> cal = initCalendar(Actor.LO);
 		lLO = new ArrayList<Actor>();
 		
 		// Add all HI nodes to the list.
 		for (DAG d : getMcDags()) {
 			for (Actor a : d.getNodes()) {
-				if (a.isSource())
+				if (a.isSource()) {
 					lLO.add(a);
+					cd.setReady(index.get(a), true);
+				}
 			}
 		}
 		
 		calcLaxity(lLO, 0, Actor.LO);
+		SORTS.increment();
 		lLO.sort(lLOComp);
 		
 		// Allocate all slots of the LO scheduling table
@@ -525,7 +664,13 @@ public class MultiDAG{
 		boolean taskFinished = false;
 		
 		for (int s = 0; s < hPeriod; s++) {
-			if (isDebug()) {
+			SLOTS.increment();
+			if (taskBudget != null)
+				taskBudget.slot();
+			if (trace != null) {
+				for (Actor a : lLO)
+					trace.ready(Actor.LO, s, a, a.getUrgencyLO());
+			} else if (isDebug()) {
 				System.out.print("[DEBUG "+Thread.currentThread().getName()+"] allocLO(): @t = "+s+", tasks activated: ");
 				for (Actor a : lLO)
 					System.out.print("L("+a.getName()+") = "+a.getUrgencyLO()+"; ");
@@ -534,6 +679,9 @@ public class MultiDAG{
 			
 			// Verify that there are enough slots to continue the scheduling
 			if (!isPossible(s, lLO, Actor.LO)) {
+				setFailSlot(s);
+				if (trace != null)
+					trace.failure(Actor.LO, s);
 				SchedulingException se = new SchedulingException("[WARNING "+Thread.currentThread().getName()+"] allocLO() MultiDAG: Not enough slot left");
 				throw se;
 			}			
@@ -542,31 +690,39 @@ public class MultiDAG{
 				// Find a ready task in the HI list
 				if (lit.hasNext()) {
 					Actor a = lit.next();
-					int val = remainTLO.get(a.getName());
+					int i = index.get(a);
+					int val = remainTLO[i];
 					
-					sLO[s][c] = a.getName();
+					if (sLO != null)
+						sLO[s][c] = a.getName();
+					if (trace != null)
+						trace.slot(Actor.LO, s, c, a);
 					val--;
 					
 					if (val == 0) {
 						lit.remove();
-						sched.add(a);
+						READY_OPS.increment();
+						finished.add(a);
+						cd.setReady(i, false);
 						taskFinished = true;
 					}
-					remainTLO.put(a.getName(), val);
+					remainTLO[i] = val;
 				}
 			}
 			
 			resetPromotion();
 			
 			if (taskFinished)
-				checkActorActivationLO(sched, lLO);
+				checkActorActivationLO(finished, lLO, cd);
 			
 			if (s != hPeriod - 1) {
-				checkDAGActivation(s + 1, sched, lLO, Actor.LO);
+				checkDAGActivation(s + 1, cal, lLO, Actor.LO, cd);
 				calcLaxity(lLO, s + 1, Actor.LO);
 			}
+			SORTS.increment();
 			lLO.sort(lLOComp);
 			taskFinished = false;
+			finished.clear();
 			lit = lLO.listIterator();
 		}
 		return true;
@@ -580,23 +736,63 @@ public class MultiDAG{
 	public boolean allocAll () throws SchedulingException {
 		boolean ret = true;
 		this.setDebug(debug);
+		setFailSlot(-1);
+		trace = Tracer.newRun(getMcDags());
+		taskBudget = Budget.current();
 		initTables();
 		calcWeights();
 		
 		if (isDebug()) printLFT();
 		
 		initRemainT();
-		if (!allocHI())
-			return false;
-		if (isDebug()) printSHI();
+		long t0 = System.nanoTime();
+		AllocationEvent ev = new AllocHIEvent();
+		boolean ok = false;
+		ev.begin();
+		try {
+			ok = allocHI();
+			if (!ok)
+				return false;
+		} finally {
+			T_ALLOC_HI.recordSince(t0);
+			commitEvent(ev, ok);
+		}
+		if (isDebug() && !isFeasibilityOnly()) printSHI();
 		
-		if (!allocLO())
-			return false;
-		if (isDebug()) printSLO();
+		t0 = System.nanoTime();
+		ev = new AllocLOEvent();
+		ok = false;
+		ev.begin();
+		try {
+			ok = allocLO();
+			if (!ok)
+				return false;
+		} finally {
+			T_ALLOC_LO.recordSince(t0);
+			commitEvent(ev, ok);
+		}
+		if (isDebug() && !isFeasibilityOnly()) printSLO();
 		
 		return ret;
 	}
 
+	/**
+	 * Commits a JFR event of the allocation of the DAG set
+	 * @param ev
+	 * @param ok
+	 */
+	private void commitEvent (AllocationEvent ev, boolean ok) {
+		if (!ev.isEnabled())
+			return;
+		
+		int nbActors = 0;
+		for (DAG d : getMcDags())
+			nbActors += d.getNodes().size();
+		int dagId = (getMcDags().size() == 1) ? getMcDags().iterator().next().getId() : -1;
+		
+		ev.commit("MultiDAG", dagId, getMcDags().size(), nbActors, nbCores, hPeriod, ok);
+	}
+
 	/*
 	 * Debugging functions
 	 */
@@ -730,4 +926,20 @@ public class MultiDAG{
 	public void setlHIComp(Comparator<Actor> lHIComp) {
 		this.lHIComp = lHIComp;
 	}
+
+	public boolean isFeasibilityOnly() {
+		return feasibilityOnly;
+	}
+
+	public void setFeasibilityOnly(boolean feasibilityOnly) {
+		this.feasibilityOnly = feasibilityOnly;
+	}
+
+	public int getFailSlot() {
+		return failSlot;
+	}
+
+	public void setFailSlot(int failSlot) {
+		this.failSlot = failSlot;
+	}
 }
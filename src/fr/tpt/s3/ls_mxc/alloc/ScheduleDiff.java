@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.alloc;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Difference between two scheduling tables of the same DAG, as returned
+ * by the incremental scheduler. Only the recomputed region of each table
+ * is compared: HI slots [0, firstSlotHI] and LO slots [firstSlotLO, D).
+ * A first slot of -1 means that the table was kept as it was.
+ * @author roberto
+ *
+ */
+public class ScheduleDiff {
+	
+	/**
+	 * A (slot, core) cell whose allocation changed
+	 */
+	public static class Change {
+		private short mode;
+		private int slot;
+		private int core;
+		private String before;
+		private String after;
+		
+		public Change (short mode, int slot, int core, String before, String after) {
+			this.mode = mode;
+			this.slot = slot;
+			this.core = core;
+			this.before = before;
+			this.after = after;
+		}
+		
+		@Override
+		public String toString () {
+			return (mode == 0 ? "LO" : "HI")+" ["+slot+"]["+core+"] "+before+" -> "+after;
+		}
+		
+		public short getMode() {
+			return mode;
+		}
+		
+		public int getSlot() {
+			return slot;
+		}
+		
+		public int getCore() {
+			return core;
+		}
+		
+		public String getBefore() {
+			return before;
+		}
+		
+		public String getAfter() {
+			return after;
+		}
+	}
+	
+	private int firstSlotHI;
+	private int firstSlotLO;
+	private List<Change> changes;
+	
+	public ScheduleDiff (int firstSlotHI, int firstSlotLO) {
+		this.setFirstSlotHI(firstSlotHI);
+		this.setFirstSlotLO(firstSlotLO);
+		this.setChanges(new LinkedList<Change>());
+	}
+	
+	/**
+	 * Compares the cells of the slots [from, to] of both tables
+	 * @param mode
+	 * @param before
+	 * @param after
+	 * @param from
+	 * @param to
+	 */
+	public void compare (short mode, String[][] before, String[][] after, int from, int to) {
+		for (int t = from; t <= to; t++) {
+			for (int c = 0; c < before[t].length; c++) {
+				if (!before[t][c].equals(after[t][c]))
+					changes.add(new Change(mode, t, c, before[t][c], after[t][c]));
+			}
+		}
+	}
+	
+	public boolean isEmpty () {
+		return changes.isEmpty();
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public int getFirstSlotHI() {
+		return firstSlotHI;
+	}
+
+	public void setFirstSlotHI(int firstSlotHI) {
+		this.firstSlotHI = firstSlotHI;
+	}
+
+	public int getFirstSlotLO() {
+		return firstSlotLO;
+	}
+
+	public void setFirstSlotLO(int firstSlotLO) {
+		this.firstSlotLO = firstSlotLO;
+	}
+
+	public List<Change> getChanges() {
+		return changes;
+	}
+
+	public void setChanges(List<Change> changes) {
+		this.changes = changes;
+	}
+}
@@ -0,0 +1,521 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.appli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import fr.tpt.s3.ls_mxc.alloc.LS;
+import fr.tpt.s3.ls_mxc.alloc.MultiDAG;
+import fr.tpt.s3.ls_mxc.model.DAG;
+import fr.tpt.s3.ls_mxc.util.MathMCDAG;
+
+/**
+ * Scheduling daemon: the JVM stays resident and answers schedulability
+ * requests sent over a Unix-domain socket or a loopback TCP port.
+ * Connections are read by their own threads (up to a maximum number of
+ * connections), only the requests take a thread of the pool, within a
+ * time and slot budget. Models whose scheduling tables would be too large
+ * are refused before they are allocated.
+ * 
+ * Request:  int magic "MCRQ", byte format (XML or binary model), int flags,
+ *           int length, model bytes. Several requests can be sent on the
+ *           same connection.
+ * Response: int magic "MCRS", byte status, UTF message, the tables if asked
+ *           (int rows, int cols, cells for S_HI then S_LO), int number of
+ *           metrics followed by (UTF name, double value) pairs.
+ * @author roberto
+ *
+ */
+public class Daemon {
+	
+	public static final int REQUEST_MAGIC = 0x4D435251;
+	public static final int RESPONSE_MAGIC = 0x4D435253;
+	
+	public static final byte FORMAT_XML = 0;
+	public static final byte FORMAT_BINARY = 1;
+	
+	public static final int FLAG_TABLES = 1;
+	public static final int FLAG_AVAILABILITY = 2;
+	
+	public static final byte STATUS_SCHEDULABLE = 0;
+	public static final byte STATUS_UNSCHEDULABLE = 1;
+	public static final byte STATUS_ERROR = 2;
+	public static final byte STATUS_TIMEOUT = 3;
+	
+	// Larger models are refused
+	private static final int MAX_MODEL_SIZE = 64 * 1024 * 1024;
+	public static final long DEFAULT_MAX_SLOTS = 1L << 22;
+	public static final int DEFAULT_MAX_CONNECTIONS = 64;
+	
+	private ServerSocketChannel server;
+	private ExecutorService pool;
+	private int nbJobs;
+	private AtomicLong requests;
+	private AtomicLong connections;
+	private Semaphore openConnections;
+	// Budget of each request, 0 for no limit
+	private long timeLimit;
+	private long slotLimit;
+	// Cells of a scheduling table: hyper-period x cores
+	private long maxSlots;
+	private boolean debug;
+	
+	public Daemon (SocketAddress address, int nbJobs, boolean debug) throws IOException {
+		this(address, nbJobs, DEFAULT_MAX_CONNECTIONS, debug);
+	}
+	
+	public Daemon (SocketAddress address, int nbJobs, int maxConnections, boolean debug) throws IOException {
+		if (address instanceof UnixDomainSocketAddress)
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		else
+			server = ServerSocketChannel.open();
+		server.bind(address);
+		pool = Executors.newFixedThreadPool(nbJobs);
+		this.nbJobs = nbJobs;
+		requests = new AtomicLong();
+		connections = new AtomicLong();
+		openConnections = new Semaphore(maxConnections);
+		maxSlots = DEFAULT_MAX_SLOTS;
+		setDebug(debug);
+	}
+	
+	/**
+	 * Accepts connections until the server is closed. Each connection
+	 * is read by its own thread, idle clients do not hold the pool.
+	 * Connections over the maximum are answered with an error and closed.
+	 */
+	public void serve () {
+		while (server.isOpen()) {
+			final SocketChannel ch;
+			try {
+				ch = server.accept();
+			} catch (IOException e) {
+				if (server.isOpen())
+					e.printStackTrace();
+				break;
+			}
+			if (!openConnections.tryAcquire()) {
+				refuse(ch);
+				continue;
+			}
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handle(ch);
+					} finally {
+						openConnections.release();
+					}
+				}
+			}, "daemon-conn-"+connections.incrementAndGet());
+			reader.setDaemon(true);
+			reader.start();
+		}
+		pool.shutdown();
+	}
+	
+	public void close () throws IOException {
+		server.close();
+	}
+	
+	/**
+	 * Answers a connection over the maximum and closes it
+	 * @param ch
+	 */
+	private void refuse (SocketChannel ch) {
+		try (SocketChannel c = ch) {
+			respondError(new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c))), "Too many connections");
+		} catch (IOException e) {
+			if (isDebug()) e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads the requests of a connection until the client closes it.
+	 * Each request is scheduled on the pool and answered in order.
+	 * @param ch
+	 */
+	private void handle (SocketChannel ch) {
+		try (SocketChannel c = ch) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c)));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c)));
+			
+			while (true) {
+				int magic;
+				try {
+					magic = in.readInt();
+				} catch (EOFException eof) {
+					return;
+				}
+				if (magic != REQUEST_MAGIC) {
+					respondError(out, "Bad request");
+					return;
+				}
+				byte format = in.readByte();
+				int flags = in.readInt();
+				int length = in.readInt();
+				if (length < 0 || length > MAX_MODEL_SIZE) {
+					respondError(out, "Model too large: "+length+" bytes");
+					return;
+				}
+				final byte model[] = new byte[length];
+				in.readFully(model);
+				
+				final byte fmt = format;
+				final int fl = flags;
+				Future<byte[]> response = pool.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						ByteArrayOutputStream bos = new ByteArrayOutputStream();
+						DataOutputStream dos = new DataOutputStream(bos);
+						process(new ByteArrayInputStream(model), model.length, fmt, fl, dos);
+						dos.flush();
+						return bos.toByteArray();
+					}
+				});
+				try {
+					out.write(response.get());
+				} catch (ExecutionException ee) {
+					if (isDebug()) ee.getCause().printStackTrace();
+					respondError(out, "Internal error: "+ee.getCause());
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			if (isDebug()) e.printStackTrace();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void respondError (DataOutputStream out, String msg) throws IOException {
+		out.writeInt(RESPONSE_MAGIC);
+		out.writeByte(STATUS_ERROR);
+		out.writeUTF(msg);
+		out.writeInt(0);
+		out.flush();
+	}
+	
+	/**
+	 * Schedules one model and writes the response
+	 * @param model
+	 * @param length Size of the model in bytes
+	 * @param format
+	 * @param flags
+	 * @param out
+	 * @throws IOException
+	 */
+	private void process (InputStream model, int length, byte format, int flags, DataOutputStream out) throws IOException {
+		long id = requests.incrementAndGet();
+		Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+		FrameworkThread ft = new FrameworkThread("request-"+id, false, false, (flags & FLAG_AVAILABILITY) != 0, false);
+		ft.setAnalysisThreads(FrameworkThread.analysisThreads(nbJobs));
+		ft.setTimeLimit(timeLimit);
+		ft.setSlotLimit(slotLimit);
+		
+		long t0 = System.nanoTime();
+		try {
+			ft.parse(model, format == FORMAT_BINARY, length);
+		} catch (IOException | RuntimeException e) {
+			respondError(out, "Unable to read the model: "+e.getMessage());
+			return;
+		}
+		metrics.put("parse.ms", (System.nanoTime() - t0) / 1e6);
+		if (ft.getDags().isEmpty() || ft.getMcp().getNbCores() <= 0) {
+			respondError(out, "Unable to read the model");
+			return;
+		}
+		long slots = tableSize(ft);
+		if (slots <= 0 || slots > maxSlots) {
+			respondError(out, "Scheduling tables too large: "+(slots == Long.MAX_VALUE ? "overflow" : slots)+" slots, at most "+maxSlots);
+			return;
+		}
+		
+		t0 = System.nanoTime();
+		boolean ok;
+		try {
+			ok = ft.schedule();
+		} catch (RuntimeException re) {
+			re.printStackTrace();
+			respondError(out, "Scheduler error: "+re);
+			return;
+		}
+		metrics.put("alloc.ms", (System.nanoTime() - t0) / 1e6);
+		if (ft.isTimedOut()) {
+			out.writeInt(RESPONSE_MAGIC);
+			out.writeByte(STATUS_TIMEOUT);
+			out.writeUTF("Allocation budget exceeded");
+			out.writeInt(0);
+			return;
+		}
+		
+		int nbActors = 0;
+		for (DAG d : ft.getDags())
+			nbActors += d.getNodes().size();
+		metrics.put("dags", (double) ft.getDags().size());
+		metrics.put("actors", (double) nbActors);
+		metrics.put("cores", (double) ft.getMcp().getNbCores());
+		if (ft.getAvailabilities() != null) {
+			for (Map.Entry<String, Double> e : ft.getAvailabilities().entrySet())
+				metrics.put("availability."+e.getKey(), e.getValue());
+		}
+		
+		if (isDebug()) System.out.println("[DAEMON "+Thread.currentThread().getName()+"] Request "+id+": "
+								+(ok ? "schedulable" : "not schedulable")+" "+metrics);
+		
+		out.writeInt(RESPONSE_MAGIC);
+		out.writeByte(ok ? STATUS_SCHEDULABLE : STATUS_UNSCHEDULABLE);
+		out.writeUTF(ok ? "Schedulable" : "Not schedulable");
+		if (ok && (flags & FLAG_TABLES) != 0) {
+			LS ls = ft.getLs();
+			MultiDAG msched = ft.getMsched();
+			if (ls != null) {
+				writeTable(out, ls.getS_HI());
+				writeTable(out, ls.getS_LO());
+			} else {
+				writeTable(out, msched.getsHI());
+				writeTable(out, msched.getsLO());
+			}
+		}
+		out.writeInt(metrics.size());
+		for (Map.Entry<String, Double> e : metrics.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeDouble(e.getValue());
+		}
+	}
+	
+	/**
+	 * Cells of a scheduling table of the model: hyper-period of the DAGs
+	 * times the number of cores. Computed before the tables are allocated.
+	 * @param ft
+	 * @return 0 for a non positive deadline, Long.MAX_VALUE if the
+	 * hyper-period does not fit in an int
+	 */
+	private static long tableSize (FrameworkThread ft) {
+		long hPeriod = 1;
+		
+		for (DAG d : ft.getDags()) {
+			if (d.getDeadline() <= 0)
+				return 0;
+			hPeriod = (hPeriod / MathMCDAG.gcd(hPeriod, d.getDeadline())) * d.getDeadline();
+			if (hPeriod > Integer.MAX_VALUE)
+				return Long.MAX_VALUE;
+		}
+		return hPeriod * ft.getMcp().getNbCores();
+	}
+	
+	private void writeTable (DataOutputStream out, String[][] table) throws IOException {
+		out.writeInt(table.length);
+		out.writeInt(table.length > 0 ? table[0].length : 0);
+		for (String[] row : table) {
+			for (String cell : row)
+				out.writeUTF(cell == null ? "-" : cell);
+		}
+	}
+	
+	/**
+	 * Schedules a model a few times so the allocation code is compiled
+	 * before the first request
+	 * @param file
+	 * @param times
+	 */
+	private void warmup (String file, int times) throws IOException {
+		byte model[] = Files.readAllBytes(Paths.get(file));
+		for (int i = 0; i < times; i++) {
+			FrameworkThread ft = new FrameworkThread(file, false, false, false, false);
+			ft.parse(new ByteArrayInputStream(model), false, model.length);
+			ft.schedule();
+		}
+		requests.set(0);
+	}
+	
+	public static void main (String[] args) throws IOException {
+		Options options = new Options();
+		
+		Option unixOpt = new Option("u", "unix", true, "Path of the Unix-domain socket to listen on.");
+		unixOpt.setRequired(false);
+		options.addOption(unixOpt);
+		
+		Option portOpt = new Option("p", "port", true, "Loopback TCP port to listen on.");
+		portOpt.setRequired(false);
+		options.addOption(portOpt);
+		
+		Option jobs = new Option("j", "jobs", true, "Number of requests served at the same time (default: number of cores).");
+		jobs.setRequired(false);
+		options.addOption(jobs);
+		
+		Option timeOpt = new Option("tl", "time-limit", true, "Time budget in ms for the allocation of each request (default 10000, 0 for no limit).");
+		timeOpt.setRequired(false);
+		options.addOption(timeOpt);
+		
+		Option slotOpt = new Option("sl", "slot-limit", true, "Budget of slots allocated for each request (default: no limit).");
+		slotOpt.setRequired(false);
+		options.addOption(slotOpt);
+		
+		Option slotsOpt = new Option("ms", "max-slots", true, "Largest scheduling table accepted, in slots: hyper-period x cores (default "+DEFAULT_MAX_SLOTS+").");
+		slotsOpt.setRequired(false);
+		options.addOption(slotsOpt);
+		
+		Option connOpt = new Option("mc", "max-connections", true, "Connections open at the same time, the next ones are refused (default "+DEFAULT_MAX_CONNECTIONS+").");
+		connOpt.setRequired(false);
+		options.addOption(connOpt);
+		
+		Option warmOpt = new Option("w", "warmup", true, "Model scheduled at startup to warm up the JVM.");
+		warmOpt.setRequired(false);
+		options.addOption(warmOpt);
+		
+		Option debugOpt = new Option("d", "debug", false, "Enabling debug.");
+		debugOpt.setRequired(false);
+		options.addOption(debugOpt);
+		
+		CommandLineParser parser = new DefaultParser();
+		HelpFormatter formatter = new HelpFormatter();
+		CommandLine cmd;
+		
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			formatter.printHelp("MC-DAG daemon", options);
+			System.exit(1);
+			return;
+		}
+		if (cmd.hasOption("unix") == cmd.hasOption("port")) {
+			System.err.println("Exactly one of --unix and --port is needed");
+			formatter.printHelp("MC-DAG daemon", options);
+			System.exit(1);
+			return;
+		}
+		
+		int nbJobs = Runtime.getRuntime().availableProcessors();
+		if (cmd.hasOption("jobs"))
+			nbJobs = Integer.parseInt(cmd.getOptionValue("jobs"));
+		
+		SocketAddress address;
+		final Path socketPath;
+		if (cmd.hasOption("unix")) {
+			socketPath = Paths.get(cmd.getOptionValue("unix"));
+			Files.deleteIfExists(socketPath);
+			address = UnixDomainSocketAddress.of(socketPath);
+		} else {
+			socketPath = null;
+			address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(cmd.getOptionValue("port")));
+		}
+		
+		int maxConnections = DEFAULT_MAX_CONNECTIONS;
+		if (cmd.hasOption("max-connections"))
+			maxConnections = Integer.parseInt(cmd.getOptionValue("max-connections"));
+		
+		final Daemon daemon = new Daemon(address, nbJobs, maxConnections, cmd.hasOption("debug"));
+		daemon.setTimeLimit(10000);
+		if (cmd.hasOption("time-limit"))
+			daemon.setTimeLimit(Long.parseLong(cmd.getOptionValue("time-limit")));
+		if (cmd.hasOption("slot-limit"))
+			daemon.setSlotLimit(Long.parseLong(cmd.getOptionValue("slot-limit")));
+		if (cmd.hasOption("max-slots"))
+			daemon.setMaxSlots(Long.parseLong(cmd.getOptionValue("max-slots")));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					daemon.close();
+					if (socketPath != null)
+						Files.deleteIfExists(socketPath);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		
+		if (cmd.hasOption("warmup"))
+			daemon.warmup(cmd.getOptionValue("warmup"), 50);
+		
+		System.out.println("[DAEMON Main] Listening on "+address+" with "+nbJobs+" thread(s).");
+		daemon.serve();
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public long getSlotLimit() {
+		return slotLimit;
+	}
+
+	public void setSlotLimit(long slotLimit) {
+		this.slotLimit = slotLimit;
+	}
+
+	public long getMaxSlots() {
+		return maxSlots;
+	}
+
+	public void setMaxSlots(long maxSlots) {
+		this.maxSlots = maxSlots;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.appli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+
+/**
+ * Command line client of the scheduling daemon: sends each input model
+ * on the same connection and prints the verdicts.
+ * @author roberto
+ *
+ */
+public class DaemonClient {
+	
+	private SocketChannel channel;
+	private DataInputStream in;
+	private DataOutputStream out;
+	
+	public DaemonClient (SocketAddress address) throws IOException {
+		if (address instanceof UnixDomainSocketAddress)
+			channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		else
+			channel = SocketChannel.open();
+		channel.connect(address);
+		in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+	}
+	
+	/**
+	 * Sends a model and prints the response.
+	 * @param model
+	 * @param format
+	 * @param flags
+	 * @return the status of the response
+	 * @throws IOException
+	 */
+	public byte request (String name, byte model[], byte format, int flags) throws IOException {
+		out.writeInt(Daemon.REQUEST_MAGIC);
+		out.writeByte(format);
+		out.writeInt(flags);
+		out.writeInt(model.length);
+		out.write(model);
+		out.flush();
+		
+		if (in.readInt() != Daemon.RESPONSE_MAGIC)
+			throw new IOException("Bad response");
+		byte status = in.readByte();
+		String msg = in.readUTF();
+		System.out.println("[CLIENT] "+name+": "+msg);
+		
+		if (status == Daemon.STATUS_SCHEDULABLE && (flags & Daemon.FLAG_TABLES) != 0) {
+			readTable("HI", in);
+			readTable("LO", in);
+		}
+		int nbMetrics = in.readInt();
+		for (int i = 0; i < nbMetrics; i++) {
+			String key = in.readUTF();
+			double value = in.readDouble();
+			System.out.println("\t"+key+" = "+value);
+		}
+		return status;
+	}
+	
+	private void readTable (String mode, DataInputStream in) throws IOException {
+		int rows = in.readInt();
+		int cols = in.readInt();
+		System.out.println("\tScheduling table "+mode+":");
+		for (int i = 0; i < rows; i++) {
+			StringBuilder sb = new StringBuilder("\t");
+			for (int j = 0; j < cols; j++)
+				sb.append(in.readUTF()).append(" | ");
+			System.out.println(sb);
+		}
+	}
+	
+	public void close () throws IOException {
+		channel.close();
+	}
+	
+	/**
+	 * Converts an XML model to the binary format of the parser
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] toBinary (String file) throws IOException {
+		FrameworkThread ft = new FrameworkThread(file, false, false, false, false);
+		ft.parse();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ft.getMcp().writeBinary(bos);
+		return bos.toByteArray();
+	}
+	
+	public static void main (String[] args) throws IOException {
+		Options options = new Options();
+		
+		Option unixOpt = new Option("u", "unix", true, "Unix-domain socket of the daemon.");
+		unixOpt.setRequired(false);
+		options.addOption(unixOpt);
+		
+		Option portOpt = new Option("p", "port", true, "Loopback TCP port of the daemon.");
+		portOpt.setRequired(false);
+		options.addOption(portOpt);
+		
+		Option input = new Option("i", "input", true, "MC-DAG XML models.");
+		input.setRequired(true);
+		input.setArgs(Option.UNLIMITED_VALUES);
+		options.addOption(input);
+		
+		Option binOpt = new Option("b", "binary", false, "Convert the models to the binary format before sending them.");
+		binOpt.setRequired(false);
+		options.addOption(binOpt);
+		
+		Option tablesOpt = new Option("t", "tables", false, "Ask for the scheduling tables.");
+		tablesOpt.setRequired(false);
+		options.addOption(tablesOpt);
+		
+		Option availOpt = new Option("a", "availability", false, "Ask for the availability of the outputs.");
+		availOpt.setRequired(false);
+		options.addOption(availOpt);
+		
+		CommandLineParser parser = new DefaultParser();
+		HelpFormatter formatter = new HelpFormatter();
+		CommandLine cmd;
+		
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			formatter.printHelp("MC-DAG daemon client", options);
+			System.exit(1);
+			return;
+		}
+		if (cmd.hasOption("unix") == cmd.hasOption("port")) {
+			System.err.println("Exactly one of --unix and --port is needed");
+			formatter.printHelp("MC-DAG daemon client", options);
+			System.exit(1);
+			return;
+		}
+		
+		SocketAddress address;
+		if (cmd.hasOption("unix"))
+			address = UnixDomainSocketAddress.of(cmd.getOptionValue("unix"));
+		else
+			address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(cmd.getOptionValue("port")));
+		
+		boolean binary = cmd.hasOption("binary");
+		int flags = 0;
+		if (cmd.hasOption("tables"))
+			flags |= Daemon.FLAG_TABLES;
+		if (cmd.hasOption("availability"))
+			flags |= Daemon.FLAG_AVAILABILITY;
+		
+		int failures = 0;
+		DaemonClient client = new DaemonClient(address);
+		try {
+			for (String file : cmd.getOptionValues("input")) {
+				byte model[] = binary ? toBinary(file) : Files.readAllBytes(Paths.get(file));
+				long t0 = System.nanoTime();
+				byte status = client.request(file, model, binary ? Daemon.FORMAT_BINARY : Daemon.FORMAT_XML, flags);
+				System.out.println("\tround trip = "+(System.nanoTime() - t0) / 1e6+" ms");
+				if (status != Daemon.STATUS_SCHEDULABLE)
+					failures++;
+			}
+		} finally {
+			client.close();
+		}
+		if (failures > 0)
+			System.exit(1);
+	}
+}
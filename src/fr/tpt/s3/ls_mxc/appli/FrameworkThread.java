@@ -17,15 +17,24 @@
 package fr.tpt.s3.ls_mxc.appli;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
+import fr.tpt.s3.ls_mxc.alloc.Budget;
+import fr.tpt.s3.ls_mxc.alloc.BudgetExceededException;
 import fr.tpt.s3.ls_mxc.alloc.LS;
 import fr.tpt.s3.ls_mxc.alloc.MultiDAG;
 import fr.tpt.s3.ls_mxc.alloc.SchedulingException;
 import fr.tpt.s3.ls_mxc.avail.Automata;
+import fr.tpt.s3.ls_mxc.avail.AvailabilitySolver;
+import fr.tpt.s3.ls_mxc.avail.MonteCarloEstimator;
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.parser.MCParser;
+import fr.tpt.s3.ls_mxc.util.CanonicalHash;
+import fr.tpt.s3.ls_mxc.util.DedupCache;
 
 /**
  * Threads used by the framework to schedule and write to files
@@ -39,29 +48,140 @@ public class FrameworkThread implements Runnable{
 	private String inputFile;
 	private boolean outSchedFile;
 	private boolean outPRISMFile;
+	private boolean availability;
+	private long mcCycles;
+	private double ciWidth;
+	// Threads of the availability analyses of this model
+	private int analysisThreads;
+	// Budget of the allocation, 0 for no limit
+	private long timeLimit;
+	private long slotLimit;
 	
 	private LS ls;
 	private MultiDAG msched;
 	private Automata auto;
 	private boolean debug;
+	private boolean parsed;
+	private Map<String, Double> availabilities;
+	private boolean scheduled;
+	private boolean timedOut;
+	// Verdicts shared by isomorphic models, null if not deduplicated
+	private DedupCache<Boolean> dedup;
 	
-	public FrameworkThread(String iFile, boolean oSF, boolean oPF, boolean debug) {
+	public FrameworkThread(String iFile, boolean oSF, boolean oPF, boolean avail, boolean debug) {
 		dags = new HashSet<DAG>();
+		setInputFile(iFile);
 		mcp = new MCParser(iFile, null, null, dags);
 		setOutSchedFile(oSF);
 		if (isOutSchedFile()) mcp.setOutSchedFile(iFile.substring(0, iFile.lastIndexOf('.')).concat("-sched.xml"));
 		setOutPRISMFile(oPF);
-		if (isOutSchedFile()) mcp.setOutSchedFile(iFile.substring(0, iFile.lastIndexOf('.')).concat(".pm"));
+		if (isOutPRISMFile()) mcp.setOutputFile(iFile.substring(0, iFile.lastIndexOf('.')).concat(".pm"));
+		setAvailability(avail);
 		setDebug(debug);
+		setAnalysisThreads(analysisThreads(1));
+	}
+	
+	/**
+	 * Threads given to the analyses of a model when several models are
+	 * allocated at the same time, so that the run does not use more
+	 * threads than cores
+	 * @param nbJobs Models allocated at the same time
+	 * @return
+	 */
+	public static int analysisThreads (int nbJobs) {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, nbJobs));
 	}
 
 	@Override
 	public void run() {
-		mcp.readXML();
+		parse();
 		
 		if (!isOutSchedFile())
 			System.err.println("[WARNING] No output file has been specified for the scheduling tables.");
 		
+		if (!schedule()) {
+			// A timeout is not a verdict on the model, the other files go on
+			if (isTimedOut())
+				return;
+			System.exit(1);
+		}
+		
+		writePRISM();
+		writeSched();
+	}
+	
+	/**
+	 * Reads the model
+	 */
+	public void parse () {
+		mcp.readXML();
+	}
+	
+	/**
+	 * Reads the model from a stream, in XML or in the binary format
+	 * @param in
+	 * @param binary
+	 * @param size Size of the model in bytes
+	 * @throws IOException If the model is malformed
+	 */
+	public void parse (InputStream in, boolean binary, int size) throws IOException {
+		if (binary)
+			mcp.readBinary(in, size);
+		else
+			mcp.readXML(in);
+	}
+	
+	/**
+	 * Allocates the DAG(s) and runs the analyses asked for the UniDAG case.
+	 * With deduplication, a model isomorphic to one already allocated
+	 * takes its verdict when no tables or analyses have to be produced
+	 * for it (or when it is not schedulable).
+	 * @return False if the model is not schedulable or the allocation
+	 * exceeded its budget (see isTimedOut())
+	 */
+	public boolean schedule () {
+		boolean ok = false;
+		long key = 0;
+		
+		if (dedup != null) {
+			key = CanonicalHash.hash(dags, mcp.getNbCores());
+			Boolean first = dedup.claim(key);
+			if (first != null) {
+				System.out.println("[DEDUP] "+getInputFile()+": isomorphic to a model already allocated, "
+						+(first ? "schedulable." : "not schedulable."));
+				setScheduled(first);
+				return first;
+			}
+		}
+		try {
+			ok = allocate();
+		} finally {
+			if (dedup != null)
+				dedup.publish(key, reusableVerdict(ok));
+		}
+		return ok;
+	}
+	
+	/**
+	 * Verdict that isomorphic models can reuse
+	 * @param ok
+	 * @return null if they have to be allocated
+	 */
+	private Boolean reusableVerdict (boolean ok) {
+		if (isTimedOut())
+			return null;
+		if (!ok)
+			return Boolean.FALSE;
+		if (isOutSchedFile() || isOutPRISMFile() || isAvailability() || mcCycles > 0)
+			return null;
+		return Boolean.TRUE;
+	}
+	
+	/**
+	 * Allocation and analyses of the model
+	 * @return
+	 */
+	private boolean allocate () {
 		// Only one DAG has to be scheduled in the multi-core architecture
 		if (dags.size() == 1) {
 			DAG dag = dags.iterator().next();
@@ -72,26 +192,56 @@ public class FrameworkThread implements Runnable{
 			ls.setDebug(debug);
 			
 			try {
+				Budget.begin(timeLimit, slotLimit);
 				ls.AllocAll();
+			} catch (BudgetExceededException be) {
+				System.out.println("[TIMEOUT] UniDAG: "+be.getMessage()+": "+this.getInputFile());
+				setTimedOut(true);
+				return false;
 			} catch (SchedulingException e1) {
 				System.out.println("[ERROR] UniDAG: unable to schedule the example: "+this.getInputFile());
 				System.out.println(e1.getMessage());
-				System.exit(1);
+				return false;
+			} finally {
+				Budget.end();
 			}
+			mcp.setLs(ls);
 			
-			if (isOutPRISMFile()) {
+			if (isOutPRISMFile() || isAvailability() || mcCycles > 0) {
 				if (debug) System.out.println("[DEBUG] UniDAG: Creating the automata object.");
 				auto = new Automata(ls, dag);
 				auto.createAutomata();
 				mcp.setAuto(auto);
+			}
+			
+			if (isAvailability()) {
+				AvailabilitySolver as = new AvailabilitySolver(auto, analysisThreads);
 				try {
-					mcp.writePRISM();
-				} catch (IOException e) {
+					Map<String, Double> avails = as.solve();
+					setAvailabilities(avails);
+					for (Map.Entry<String, Double> e : avails.entrySet())
+						System.out.println("[AVAILABILITY] "+e.getKey()+": "+e.getValue());
+				} catch (InterruptedException | ExecutionException e) {
+					System.err.println("[WARNING] UniDAG: unable to compute the availability of "+mcp.getInputFile());
+					e.printStackTrace();
+				}
+			}
+			
+			if (mcCycles > 0) {
+				MonteCarloEstimator mce = new MonteCarloEstimator(auto, analysisThreads);
+				mce.setMaxCycles(mcCycles);
+				mce.setTargetWidth(ciWidth);
+				try {
+					Map<String, Double> avails = mce.estimate();
+					Map<String, Double> widths = mce.getHalfWidths();
+					for (Map.Entry<String, Double> e : avails.entrySet())
+						System.out.println("[MONTE CARLO] "+e.getKey()+": "+e.getValue()+" +/- "+widths.get(e.getKey()));
+					System.out.println("[MONTE CARLO] Mode switches: "+mce.getModeSwitchRate()+" +/- "+mce.getModeSwitchHalfWidth()
+									   +" ("+mce.getNbCycles()+" hyperperiods)");
+				} catch (InterruptedException | ExecutionException e) {
+					System.err.println("[WARNING] UniDAG: Monte Carlo estimation failed for "+mcp.getInputFile());
 					e.printStackTrace();
-					System.out.println("[WARNING] Error writting PRISM files "+outPRISMFile);
-
 				}
-				System.out.println("PRISM file written.");
 			}
 		// Multiple DAGs neede to be scheduled
 		} else if (dags.size() > 1) {
@@ -100,22 +250,57 @@ public class FrameworkThread implements Runnable{
 			System.out.println("MultiDAG: "+dags.size()+" DAGs are going to be scheduled in "+mcp.getNbCores()+" cores.");
 			
 			try {
+				Budget.begin(timeLimit, slotLimit);
 				msched.allocAll();
+			} catch (BudgetExceededException be) {
+				System.err.println("[TIMEOUT] MultiDAG: "+be.getMessage()+": "+mcp.getInputFile());
+				setTimedOut(true);
+				return false;
 			} catch (SchedulingException e) {
 				System.err.println(e.getMessage());
 				System.err.println("[ERROR] MultiDAG: unable to schedule the example: "+mcp.getInputFile());
-				System.exit(1);
+				return false;
+			} finally {
+				Budget.end();
 			}
 		}
+		setScheduled(true);
+		return true;
+	}
+	
+	/**
+	 * Writes the PRISM model (UniDAG only)
+	 */
+	public void writePRISM () {
+		if (!isOutPRISMFile() || auto == null)
+			return;
 		
-		/* =============== Write results ================ */
-		if (isOutSchedFile()) {
-			try {
-				mcp.writeSched();
-			} catch (IOException e) {
-				System.err.println("[WARNING] Error writting scheduling tables to file "+outSchedFile);
-				e.printStackTrace();
-			}
+		try {
+			mcp.writePRISM();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("[WARNING] Error writting PRISM files "+outPRISMFile);
+
+		}
+		System.out.println("PRISM file written.");
+	}
+	
+	/**
+	 * Writes the scheduling tables (UniDAG only)
+	 */
+	public void writeSched () {
+		if (!isOutSchedFile())
+			return;
+		
+		if (ls == null) {
+			System.err.println("[WARNING] Scheduling tables can only be written for a single DAG: "+mcp.getInputFile());
+			return;
+		}
+		try {
+			mcp.writeSched();
+		} catch (IOException e) {
+			System.err.println("[WARNING] Error writting scheduling tables to file "+outSchedFile);
+			e.printStackTrace();
 		}
 	}
 
@@ -170,6 +355,38 @@ public class FrameworkThread implements Runnable{
 		this.outPRISMFile = outPRISMFile;
 	}
 
+	public boolean isAvailability() {
+		return availability;
+	}
+
+	public void setAvailability(boolean availability) {
+		this.availability = availability;
+	}
+
+	public long getMcCycles() {
+		return mcCycles;
+	}
+
+	public void setMcCycles(long mcCycles) {
+		this.mcCycles = mcCycles;
+	}
+
+	public double getCiWidth() {
+		return ciWidth;
+	}
+
+	public void setCiWidth(double ciWidth) {
+		this.ciWidth = ciWidth;
+	}
+
+	public int getAnalysisThreads() {
+		return analysisThreads;
+	}
+
+	public void setAnalysisThreads(int analysisThreads) {
+		this.analysisThreads = analysisThreads;
+	}
+
 	public LS getLs() {
 		return ls;
 	}
@@ -193,4 +410,60 @@ public class FrameworkThread implements Runnable{
 	public void setAuto(Automata auto) {
 		this.auto = auto;
 	}
+
+	public boolean isScheduled() {
+		return scheduled;
+	}
+
+	public void setScheduled(boolean scheduled) {
+		this.scheduled = scheduled;
+	}
+
+	public boolean isParsed() {
+		return parsed;
+	}
+
+	public void setParsed(boolean parsed) {
+		this.parsed = parsed;
+	}
+
+	public Map<String, Double> getAvailabilities() {
+		return availabilities;
+	}
+
+	public void setAvailabilities(Map<String, Double> availabilities) {
+		this.availabilities = availabilities;
+	}
+
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	public void setTimedOut(boolean timedOut) {
+		this.timedOut = timedOut;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public long getSlotLimit() {
+		return slotLimit;
+	}
+
+	public void setSlotLimit(long slotLimit) {
+		this.slotLimit = slotLimit;
+	}
+
+	public DedupCache<Boolean> getDedup() {
+		return dedup;
+	}
+
+	public void setDedup(DedupCache<Boolean> dedup) {
+		this.dedup = dedup;
+	}
 }
@@ -17,8 +17,8 @@
 package fr.tpt.s3.ls_mxc.appli;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
@@ -29,6 +29,14 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import fr.tpt.s3.ls_mxc.alloc.Budget;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+import fr.tpt.s3.ls_mxc.trace.Tracer;
+import fr.tpt.s3.ls_mxc.util.BoundedExecutor;
+import fr.tpt.s3.ls_mxc.util.DedupCache;
+import fr.tpt.s3.ls_mxc.util.InputCorpus;
+import fr.tpt.s3.ls_mxc.util.SplitExecutor;
+
 /**
  * Main class to create the MC-DAG Framework. All functionalities should be included
  * @author roberto
@@ -41,11 +49,16 @@ public class Main {
 		/* Command line options */
 		Options options = new Options();
 		
-		Option input = new Option("i", "input", true, "MC-DAG XML Models");
-		input.setRequired(true);
+		Option input = new Option("i", "input", true, "MC-DAG XML Models: files, directories or quoted globs (e.g. 'bench/*.xml').");
+		input.setRequired(false);
 		input.setArgs(Option.UNLIMITED_VALUES); // Sets maximum number of threads to be launched
 		options.addOption(input);
 		
+		Option manifestOpt = new Option("mf", "manifest", true, "Text file listing the MC-DAG XML Models, one per line.");
+		manifestOpt.setRequired(false);
+		manifestOpt.setArgs(Option.UNLIMITED_VALUES);
+		options.addOption(manifestOpt);
+		
 		Option outSched = new Option("os", "out-scheduler", true, "Write the scheduling tables into a file.");
 		outSched.setRequired(false);
 		options.addOption(outSched);
@@ -54,10 +67,57 @@ public class Main {
 		outPrism.setRequired(false);
 		options.addOption(outPrism);
 		
+		Option availOpt = new Option("a", "availability", false, "Compute the availability of LO outputs without PRISM.");
+		availOpt.setRequired(false);
+		options.addOption(availOpt);
+		
+		Option mcOpt = new Option("mc", "monte-carlo", true, "Estimate the availability of LO outputs with at most N simulated hyperperiods.");
+		mcOpt.setRequired(false);
+		options.addOption(mcOpt);
+		
+		Option ciOpt = new Option("ci", "ci-width", true, "Target width of the Monte Carlo confidence intervals.");
+		ciOpt.setRequired(false);
+		options.addOption(ciOpt);
+		
 		Option jobs = new Option("j", "jobs", true, "Number of threads to be launched.");
 		jobs.setRequired(false);
 		options.addOption(jobs);
 		
+		Option timeOpt = new Option("tl", "time-limit", true, "Time budget in ms for the allocation of each model, timed out models are skipped.");
+		timeOpt.setRequired(false);
+		options.addOption(timeOpt);
+		
+		Option slotOpt = new Option("sl", "slot-limit", true, "Budget of slots allocated for each model, timed out models are skipped.");
+		slotOpt.setRequired(false);
+		options.addOption(slotOpt);
+		
+		Option dedupOpt = new Option("dd", "dedup", false, "Reuse the verdict of a recently allocated isomorphic model (same canonical hash) when the verdict is enough. "
+				+ "Timeouts are not reused. Schedulers break ties by actor id, so a reused verdict may differ from the one of a full allocation; "
+				+ "with -j > 1 the twin allocated first is not deterministic. Reuses are logged with [DEDUP].");
+		dedupOpt.setRequired(false);
+		options.addOption(dedupOpt);
+		
+		Option ioOpt = new Option("io", "io-split", false, "Read and write files on virtual threads (cached threads before Java 21) and allocate on a pool sized to the cores (or -j).");
+		ioOpt.setRequired(false);
+		options.addOption(ioOpt);
+		
+		Option pipeOpt = new Option("pl", "pipeline", true, "Staged execution: number of parser, allocator and writer threads (e.g. 1,8,1).");
+		pipeOpt.setRequired(false);
+		pipeOpt.setOptionalArg(true);
+		options.addOption(pipeOpt);
+		
+		Option queueOpt = new Option("q", "queue", true, "Capacity of the queues between the stages of the pipeline.");
+		queueOpt.setRequired(false);
+		options.addOption(queueOpt);
+		
+		Option metricsOpt = new Option("m", "metrics", true, "Export timers and counters to a file (JSON, or CSV with a .csv extension).");
+		metricsOpt.setRequired(false);
+		options.addOption(metricsOpt);
+		
+		Option traceOpt = new Option("t", "trace", true, "Record allocation decisions into a binary trace file (see TraceDecoder).");
+		traceOpt.setRequired(false);
+		options.addOption(traceOpt);
+		
 		Option debugOpt = new Option("d", "debug", false, "Enabling debug.");
 		debugOpt.setRequired(false);
 		options.addOption(debugOpt);
@@ -76,31 +136,168 @@ public class Main {
 			return;
 		}
 		
-		String inputFilePath[] = cmd.getOptionValues("input");
+		if (!cmd.hasOption("input") && !cmd.hasOption("manifest")) {
+			System.err.println("Missing input: -i or -mf");
+			formatter.printHelp("MC-DAG framework", options);
+			
+			System.exit(1);
+			return;
+		}
+		
+		InputCorpus corpus = new InputCorpus(cmd.getOptionValues("input"), cmd.getOptionValues("manifest"));
 		boolean bOutSched = cmd.hasOption("out-scheduler");
 		boolean bOutPrism = cmd.hasOption("out-prism");
+		boolean bAvail = cmd.hasOption("availability");
 		boolean debug = cmd.hasOption("debug");
-		int nbFiles = inputFilePath.length;
+		
+		long mcCycles = 0;
+		if (cmd.hasOption("monte-carlo"))
+			mcCycles = Long.parseLong(cmd.getOptionValue("monte-carlo"));
+		double ciWidth = 1e-4;
+		if (cmd.hasOption("ci-width"))
+			ciWidth = Double.parseDouble(cmd.getOptionValue("ci-width"));
+		
+		long timeLimit = 0;
+		if (cmd.hasOption("time-limit"))
+			timeLimit = Long.parseLong(cmd.getOptionValue("time-limit"));
+		long slotLimit = 0;
+		if (cmd.hasOption("slot-limit"))
+			slotLimit = Long.parseLong(cmd.getOptionValue("slot-limit"));
+		
+		DedupCache<Boolean> dedup = cmd.hasOption("dedup") ? new DedupCache<Boolean>() : null;
 		
 		int nbJobs = 1;
 		if (cmd.hasOption("jobs"))
 			nbJobs = Integer.parseInt(cmd.getOptionValue("jobs"));
 		
+		if (cmd.hasOption("trace"))
+			Tracer.setEnabled(true);
+		
 		if (debug)
-			System.out.println("[DEBUG] Launching "+inputFilePath.length+" thread(s).");
+			System.out.println("[DEBUG] Launching "+nbJobs+" thread(s).");
+		
+		if (cmd.hasOption("pipeline")) {
+			// Defaults: one parser, allocation on all cores, one writer per output
+			int stages[] = {1, Runtime.getRuntime().availableProcessors(), 1};
+			String pipeArg = cmd.getOptionValue("pipeline");
+			if (pipeArg != null) {
+				String jobsPerStage[] = pipeArg.split(",");
+				for (int i = 0; i < jobsPerStage.length && i < stages.length; i++)
+					stages[i] = Integer.parseInt(jobsPerStage[i].trim());
+			}
+			int capacity = 2 * stages[1];
+			if (cmd.hasOption("queue"))
+				capacity = Integer.parseInt(cmd.getOptionValue("queue"));
+			
+			Pipeline pipeline = new Pipeline(corpus, stages[0], stages[1], stages[2], capacity);
+			pipeline.setOutSchedFile(bOutSched);
+			pipeline.setOutPRISMFile(bOutPrism);
+			pipeline.setAvailability(bAvail);
+			pipeline.setMcCycles(mcCycles);
+			pipeline.setCiWidth(ciWidth);
+			pipeline.setTimeLimit(timeLimit);
+			pipeline.setSlotLimit(slotLimit);
+			pipeline.setDedup(dedup);
+			pipeline.setDebug(debug);
+			int failed = pipeline.run();
+			
+			finish(cmd, failed, dedup);
+			return;
+		}
 		
-		int i_files = 0;
-		ExecutorService executor = Executors.newFixedThreadPool(nbJobs);
+		if (cmd.hasOption("io-split")) {
+			int cpuJobs = cmd.hasOption("jobs") ? nbJobs : Runtime.getRuntime().availableProcessors();
+			SplitExecutor se = new SplitExecutor(cpuJobs);
+			
+			if (debug)
+				System.out.println("[DEBUG] I/O on "+(se.isVirtual() ? "virtual" : "platform")+" threads, allocation on "+cpuJobs+" threads.");
+			
+			for (String f : corpus) {
+				final FrameworkThread ft = new FrameworkThread(f, bOutSched, bOutPrism, bAvail, debug);
+				ft.setMcCycles(mcCycles);
+				ft.setCiWidth(ciWidth);
+				ft.setAnalysisThreads(FrameworkThread.analysisThreads(cpuJobs));
+				ft.setTimeLimit(timeLimit);
+				ft.setSlotLimit(slotLimit);
+				ft.setDedup(dedup);
+				
+				se.submit(f, SplitExecutor.io(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						ft.parse();
+						return !ft.getDags().isEmpty();
+					}
+				}), SplitExecutor.cpu(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return ft.schedule();
+					}
+				}), SplitExecutor.io(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						ft.writePRISM();
+						ft.writeSched();
+						return true;
+					}
+				}));
+			}
+			int failed = se.awaitAll();
+			
+			finish(cmd, failed, dedup);
+			return;
+		}
+		
+		ExecutorService executor = BoundedExecutor.newFixedThreadPool(nbJobs);
 		
 		/* Launch threads to solve allocation */
-		while (i_files != nbFiles) {
-			FrameworkThread ft = new FrameworkThread(inputFilePath[i_files], bOutSched, bOutPrism, debug);
+		for (String f : corpus) {
+			FrameworkThread ft = new FrameworkThread(f, bOutSched, bOutPrism, bAvail, debug);
 			
+			ft.setMcCycles(mcCycles);
+			ft.setCiWidth(ciWidth);
+			ft.setAnalysisThreads(FrameworkThread.analysisThreads(nbJobs));
+			ft.setTimeLimit(timeLimit);
+			ft.setSlotLimit(slotLimit);
+			ft.setDedup(dedup);
 			executor.execute(ft);
-			i_files++;
 		}
 		executor.shutdown();
 		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		// A model that can not be scheduled stops the run (see FrameworkThread.run)
+		finish(cmd, 0, dedup);
+	}
+	
+	/**
+	 * Reports the models that could not be scheduled or timed out, then
+	 * exports the trace and the metrics asked
+	 * @param cmd
+	 * @param failed Models that failed, timeouts included
+	 * @param dedup
+	 * @throws IOException
+	 */
+	private static void finish (CommandLine cmd, int failed, DedupCache<Boolean> dedup) throws IOException {
+		long timeouts = Budget.getNbExceeded();
+		
+		if (failed > timeouts)
+			System.err.println("[FRAMEWORK Main] "+(failed - timeouts)+" model(s) could not be scheduled.");
+		if (timeouts > 0)
+			System.err.println("[FRAMEWORK Main] "+timeouts+" model(s) timed out.");
+		if (cmd.hasOption("trace"))
+			Tracer.dump(cmd.getOptionValue("trace"));
+		if (cmd.hasOption("metrics"))
+			Metrics.export(cmd.getOptionValue("metrics"));
+		printDedup(dedup);
 		System.out.println("[FRAMEWORK Main] DONE");
 	}
+	
+	/**
+	 * Prints the share of the models that reused the verdict of an
+	 * isomorphic model
+	 * @param dedup
+	 */
+	private static void printDedup (DedupCache<Boolean> dedup) {
+		if (dedup != null)
+			System.out.println("[FRAMEWORK Main] Dedup: "+dedup.getHits()+" of "+dedup.getLookups()
+					+" model(s) reused a verdict ("+String.format("%.1f", 100 * dedup.getRatio())+"%).");
+	}
 }
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.appli;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.tpt.s3.ls_mxc.util.DedupCache;
+
+/**
+ * Staged execution of the framework: parsing, allocation and the two
+ * writers run in their own worker threads, joined by bounded queues.
+ * A full queue blocks the stage that feeds it, so parsers can not get
+ * too far ahead of the allocation.
+ * The number of models is not known in advance: the input files are
+ * taken lazily from an iterator, and the last worker of a stage sends
+ * an end marker to each worker of the next stages.
+ * @author roberto
+ *
+ */
+public class Pipeline {
+	
+	private Iterable<String> inputFiles;
+	private int parseJobs;
+	private int allocJobs;
+	private int writeJobs;
+	private int capacity;
+	
+	private boolean outSchedFile;
+	private boolean outPRISMFile;
+	private boolean availability;
+	private long mcCycles;
+	private double ciWidth;
+	private long timeLimit;
+	private long slotLimit;
+	private DedupCache<Boolean> dedup;
+	private boolean debug;
+	
+	private final FrameworkThread end = new FrameworkThread("", false, false, false, false);
+	private AtomicInteger failures;
+	private List<Thread> workers;
+	
+	public Pipeline (String[] inputFiles, int parseJobs, int allocJobs, int writeJobs, int capacity) {
+		this(Arrays.asList(inputFiles), parseJobs, allocJobs, writeJobs, capacity);
+	}
+	
+	public Pipeline (Iterable<String> inputFiles, int parseJobs, int allocJobs, int writeJobs, int capacity) {
+		setInputFiles(inputFiles);
+		setParseJobs(parseJobs);
+		setAllocJobs(allocJobs);
+		setWriteJobs(writeJobs);
+		setCapacity(capacity);
+		failures = new AtomicInteger();
+		workers = new LinkedList<Thread>();
+	}
+	
+	/**
+	 * Puts an end marker for each consumer of the queues
+	 * @param outs
+	 * @param consumers
+	 * @throws InterruptedException
+	 */
+	private void sendEnd (List<BlockingQueue<FrameworkThread>> outs, int consumers) throws InterruptedException {
+		for (BlockingQueue<FrameworkThread> q : outs) {
+			for (int i = 0; i < consumers; i++)
+				q.put(end);
+		}
+	}
+	
+	/**
+	 * Consumer side of a stage: each worker stops on its end marker,
+	 * the last one to stop forwards the end to the next stages.
+	 */
+	private abstract class Stage implements Runnable {
+		private BlockingQueue<FrameworkThread> in;
+		private List<BlockingQueue<FrameworkThread>> outs;
+		private AtomicInteger running;
+		
+		Stage (BlockingQueue<FrameworkThread> in, List<BlockingQueue<FrameworkThread>> outs, int nb) {
+			this.in = in;
+			this.outs = outs;
+			this.running = new AtomicInteger(nb);
+		}
+		
+		abstract void process (FrameworkThread ft);
+		
+		@Override
+		public void run () {
+			try {
+				FrameworkThread ft;
+				while ((ft = in.take()) != end) {
+					try {
+						process(ft);
+					} catch (RuntimeException re) {
+						System.err.println("[PIPELINE "+Thread.currentThread().getName()+"] Error with "+ft.getInputFile());
+						re.printStackTrace();
+						ft.setScheduled(false);
+					}
+					for (BlockingQueue<FrameworkThread> q : outs)
+						q.put(ft);
+				}
+				if (running.decrementAndGet() == 0)
+					sendEnd(outs, writeJobs);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private class AllocStage extends Stage {
+		AllocStage (BlockingQueue<FrameworkThread> in, List<BlockingQueue<FrameworkThread>> outs) {
+			super(in, outs, allocJobs);
+		}
+		
+		@Override
+		void process (FrameworkThread ft) {
+			if (!ft.isParsed() || !ft.schedule())
+				failures.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Creates the worker threads of a stage
+	 * @param name
+	 * @param nb
+	 * @param r
+	 */
+	private void start (String name, int nb, Runnable r) {
+		for (int i = 0; i < nb; i++) {
+			Thread t = new Thread(r, "pipeline-"+name+"-"+i);
+			workers.add(t);
+			t.start();
+		}
+	}
+	
+	/**
+	 * Runs all the stages and waits for them to finish
+	 * @return Number of models that could not be parsed or scheduled
+	 * (timeouts included)
+	 * @throws InterruptedException
+	 */
+	public int run () throws InterruptedException {
+		final BlockingQueue<FrameworkThread> toAlloc = new ArrayBlockingQueue<FrameworkThread>(capacity);
+		final List<BlockingQueue<FrameworkThread>> parseOuts = new LinkedList<BlockingQueue<FrameworkThread>>();
+		final Iterator<String> files = inputFiles.iterator();
+		final AtomicInteger parsing = new AtomicInteger(parseJobs);
+		
+		parseOuts.add(toAlloc);
+		List<BlockingQueue<FrameworkThread>> allocOuts = new LinkedList<BlockingQueue<FrameworkThread>>();
+		BlockingQueue<FrameworkThread> toSched = null;
+		BlockingQueue<FrameworkThread> toPRISM = null;
+		
+		if (isOutSchedFile()) {
+			toSched = new ArrayBlockingQueue<FrameworkThread>(capacity);
+			allocOuts.add(toSched);
+		}
+		if (isOutPRISMFile()) {
+			toPRISM = new ArrayBlockingQueue<FrameworkThread>(capacity);
+			allocOuts.add(toPRISM);
+		}
+		
+		if (debug) System.out.println("[DEBUG "+Thread.currentThread().getName()+"] Pipeline: "+parseJobs+" parser(s), "
+								+allocJobs+" allocator(s), "+writeJobs+" writer(s) per output, queues of "+capacity+".");
+		
+		// Parsers take the files in order
+		start("parse", parseJobs, new Runnable() {
+			@Override
+			public void run() {
+				String file;
+				try {
+					while ((file = nextFile(files)) != null) {
+						FrameworkThread ft = new FrameworkThread(file, outSchedFile, outPRISMFile, availability, debug);
+						ft.setMcCycles(mcCycles);
+						ft.setCiWidth(ciWidth);
+						ft.setAnalysisThreads(FrameworkThread.analysisThreads(allocJobs));
+						ft.setTimeLimit(timeLimit);
+						ft.setSlotLimit(slotLimit);
+						ft.setDedup(dedup);
+						try {
+							ft.parse();
+							ft.setParsed(!ft.getDags().isEmpty());
+						} catch (RuntimeException re) {
+							System.err.println("[PIPELINE "+Thread.currentThread().getName()+"] Unable to read "+file);
+							re.printStackTrace();
+						}
+						toAlloc.put(ft);
+					}
+					if (parsing.decrementAndGet() == 0)
+						sendEnd(parseOuts, allocJobs);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		
+		start("alloc", allocJobs, new AllocStage(toAlloc, allocOuts));
+		
+		List<BlockingQueue<FrameworkThread>> none = new LinkedList<BlockingQueue<FrameworkThread>>();
+		if (toSched != null) {
+			start("sched", writeJobs, new Stage(toSched, none, writeJobs) {
+				@Override
+				void process(FrameworkThread ft) {
+					if (ft.isScheduled())
+						ft.writeSched();
+				}
+			});
+		}
+		if (toPRISM != null) {
+			start("prism", writeJobs, new Stage(toPRISM, none, writeJobs) {
+				@Override
+				void process(FrameworkThread ft) {
+					if (ft.isScheduled())
+						ft.writePRISM();
+				}
+			});
+		}
+		
+		for (Thread t : workers)
+			t.join();
+		
+		return failures.get();
+	}
+	
+	/**
+	 * Next input file, null once they have all been taken
+	 * @param files
+	 * @return
+	 */
+	private static String nextFile (Iterator<String> files) {
+		synchronized (files) {
+			return files.hasNext() ? files.next() : null;
+		}
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public Iterable<String> getInputFiles() {
+		return inputFiles;
+	}
+
+	public void setInputFiles(Iterable<String> inputFiles) {
+		this.inputFiles = inputFiles;
+	}
+
+	public int getParseJobs() {
+		return parseJobs;
+	}
+
+	public void setParseJobs(int parseJobs) {
+		this.parseJobs = parseJobs;
+	}
+
+	public int getAllocJobs() {
+		return allocJobs;
+	}
+
+	public void setAllocJobs(int allocJobs) {
+		this.allocJobs = allocJobs;
+	}
+
+	public int getWriteJobs() {
+		return writeJobs;
+	}
+
+	public void setWriteJobs(int writeJobs) {
+		this.writeJobs = writeJobs;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public boolean isOutSchedFile() {
+		return outSchedFile;
+	}
+
+	public void setOutSchedFile(boolean outSchedFile) {
+		this.outSchedFile = outSchedFile;
+	}
+
+	public boolean isOutPRISMFile() {
+		return outPRISMFile;
+	}
+
+	public void setOutPRISMFile(boolean outPRISMFile) {
+		this.outPRISMFile = outPRISMFile;
+	}
+
+	public boolean isAvailability() {
+		return availability;
+	}
+
+	public void setAvailability(boolean availability) {
+		this.availability = availability;
+	}
+
+	public long getMcCycles() {
+		return mcCycles;
+	}
+
+	public void setMcCycles(long mcCycles) {
+		this.mcCycles = mcCycles;
+	}
+
+	public double getCiWidth() {
+		return ciWidth;
+	}
+
+	public void setCiWidth(double ciWidth) {
+		this.ciWidth = ciWidth;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public long getSlotLimit() {
+		return slotLimit;
+	}
+
+	public void setSlotLimit(long slotLimit) {
+		this.slotLimit = slotLimit;
+	}
+
+	public DedupCache<Boolean> getDedup() {
+		return dedup;
+	}
+
+	public void setDedup(DedupCache<Boolean> dedup) {
+		this.dedup = dedup;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+}
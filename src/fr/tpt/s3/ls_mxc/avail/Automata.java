@@ -17,22 +17,30 @@
 package fr.tpt.s3.ls_mxc.avail;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import fr.tpt.s3.ls_mxc.alloc.LS;
+import fr.tpt.s3.ls_mxc.metrics.AutomatonBuildEvent;
+import fr.tpt.s3.ls_mxc.metrics.Histogram;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.model.Actor;
 
 public class Automata {
 
+	private static final Histogram T_BUILD = Metrics.timer("automata.build");
+
 	private int nbStates;
 	private List<State> loSched;
 	private List<State> hiSched;
 	private List<Transition> loTrans;
+	private State finalLO;
 	private List<Transition> finTrans;
 	private List<Transition> hiTrans;
 	private List<FTM> ftms;
@@ -40,6 +48,12 @@ public class Automata {
 	
 	private LS ls;
 	private DAG d;
+	
+	// Completion time index of the tables + actor lookups
+	private int[] compTimesLO;
+	private int[] compTimesHI;
+	private Actor[] actorsById;
+	private Map<String, Actor> actorsByName;
 
 	/**
 	 *  Constructor of the Automata, needs the LO, HI tables,
@@ -48,11 +62,11 @@ public class Automata {
 	public Automata (LS ls, DAG d) {
 		this.setD(d);
 		this.setLs(ls);
-		this.loSched = new LinkedList<State>();
-		this.hiSched = new LinkedList<State>();
+		this.loSched = new ArrayList<State>();
+		this.hiSched = new ArrayList<State>();
 		this.loTrans = new LinkedList<Transition>();
-		this.setF_transitions(new LinkedList<Transition>());
 		this.hiTrans = new LinkedList<Transition>();
+		this.finTrans = new LinkedList<Transition>();
 		this.ftms = new LinkedList<FTM>();
 		this.loOutsForm = new HashSet<Formula>();
 	}
@@ -61,22 +75,40 @@ public class Automata {
 	 * Automata functions (creation of states + linking)
 	 */
 	
-	// Calculate completion time of tasks and create a new state
-	public void calcCompTimeLO (String task) {
-		int c_t = 0;
-		for (int i = 0; i < ls.getDeadline(); i++){
-			for (int j = 0; j < ls.getNbCores(); j++) {
-				if (ls.getS_LO()[i] != null && ls.getS_LO()[i][j] != null) {
-					if (ls.getS_LO()[i][j].contentEquals(task))
-						c_t = i;
-				}
+	/**
+	 * Builds the completion time index of a scheduling table in a single
+	 * pass: the last slot allocated to each actor, indexed by actor id.
+	 * Actors that never appear in the table complete at 0.
+	 * @param table
+	 * @return
+	 */
+	public int[] calcCompTimes (String[][] table) {
+		int[] ret = new int[getActorsById().length];
+		
+		for (int i = 0; i < table.length; i++) {
+			if (table[i] == null)
+				continue;
+			for (int j = 0; j < table[i].length; j++) {
+				if (table[i][j] == null)
+					continue;
+				Actor a = getActorsByName().get(table[i][j]);
+				if (a != null)
+					ret[a.getId()] = i;
 			}
 		}
-
-		Actor n = d.getNodebyName(task);
+		return ret;
+	}
+	
+	/**
+	 * Creates the state of an actor in the LO zone, and the FTM
+	 * automaton when the actor is a fault tolerant mechanism.
+	 * @param n
+	 * @return
+	 */
+	private State createStateLO (Actor n) {
 		State s;
 		if (n.getCHI() !=  0) {
-			s = new State(nbStates++, task, Actor.HI);
+			s = new State(nbStates++, n.getName(), Actor.HI);
 			if (n.isfMechanism()) { // Test if it's a fault tolerant mechanism
 				s.setfMechanism(true);
 				if (n.getfMechType() == Actor.VOTER) {
@@ -90,7 +122,7 @@ public class Automata {
 			}
 		} else {
 			
-			s = new State(nbStates++, task, Actor.LO);
+			s = new State(nbStates++, n.getName(), Actor.LO);
 			if (n.isVoted())
 				s.setVoted(true);
 			if (n.getfMechType() == Actor.MKFIRM) {
@@ -103,21 +135,28 @@ public class Automata {
 				ftms.add(ftm);
 			}
 		}
+		return s;
+	}
+	
+	// Calculate completion time of tasks and create a new state
+	public void calcCompTimeLO (String task) {
+		if (compTimesLO == null)
+			compTimesLO = calcCompTimes(ls.getS_LO());
+		
+		Actor n = getActorsByName().get(task);
+		int c_t = compTimesLO[n.getId()];
+		State s = createStateLO(n);
 		s.setCompTime(c_t);
 		addWithTime(loSched, n, s, c_t);
 	}
 	
 	// Calculate completion time of tasks and create a new state HI mode
 	public void calcCompTimeHI (String task) {
-		int c_t = 0;
-		for (int i = 0; i < ls.getDeadline(); i++){
-			for (int j = 0; j < ls.getNbCores(); j++) {
-				if (ls.getS_HI()[i][j].contentEquals(task))
-					c_t = i;
-			}
-		}
+		if (compTimesHI == null)
+			compTimesHI = calcCompTimes(ls.getS_HI());
 
-		Actor n = d.getNodebyName(task);
+		Actor n = getActorsByName().get(task);
+		int c_t = compTimesHI[n.getId()];
 		State s;
 		s = new State(nbStates++, task, Actor.HI);
 		s.setCompTime(c_t);
@@ -125,6 +164,95 @@ public class Automata {
 		addWithTime(hiSched, n, s, c_t);
 	}
 	
+	/**
+	 * Creates the states of the LO zone directly in completion time order.
+	 * Actors are bucketed by (completion time, HI before LO) with a
+	 * counting sort over their ids, so the construction is linear in the
+	 * size of the table. Each LO state is followed by its synchronization
+	 * state (m-k firm) and its exit state (LO output).
+	 */
+	private void createStatesLO () {
+		Actor[] byId = getActorsById();
+		int[] ct = calcCompTimes(ls.getS_LO());
+		compTimesLO = ct;
+		
+		int nbKeys = 2 * (ls.getS_LO().length + 1);
+		int[] start = new int[nbKeys + 1];
+		for (Actor a : byId) {
+			if (a != null)
+				start[sortKey(a, ct) + 1]++;
+		}
+		for (int k = 0; k < nbKeys; k++)
+			start[k + 1] += start[k];
+		
+		Actor[] order = new Actor[byId.length];
+		for (Actor a : byId) {
+			if (a != null)
+				order[start[sortKey(a, ct)]++] = a;
+		}
+		
+		for (Actor n : order) {
+			if (n == null)
+				continue;
+			State s = createStateLO(n);
+			s.setCompTime(ct[n.getId()]);
+			loSched.add(s);
+			
+			// The m-k sync state is numbered before the exit state,
+			// but the exit state comes first in the LO zone
+			State sync = null;
+			if (n.isfMechanism() && n.getfMechType() == Actor.MKFIRM) {
+				sync = new State(nbStates++, n.getName(), Actor.LO);
+				sync.setCompTime(ct[n.getId()]);
+				sync.setSynched(true);
+			}
+			// If it is an exit LO node
+			if (n.getCHI() == 0 && n.getSndEdges().size() == 0) {
+				State s0 = new State(nbStates++, n.getName(), Actor.LO);
+				s0.setCompTime(ct[n.getId()]);
+				s0.setExit(true);
+				loSched.add(s0);
+			}
+			if (sync != null)
+				loSched.add(sync);
+		}
+	}
+	
+	private int sortKey (Actor a, int[] ct) {
+		return 2 * ct[a.getId()] + ((a.getCHI() != 0) ? 0 : 1);
+	}
+	
+	/**
+	 * Actors of the DAG indexed by their id
+	 * @return
+	 */
+	private Actor[] getActorsById () {
+		if (actorsById == null) {
+			int max = -1;
+			for (Actor a : d.getNodes()) {
+				if (a.getId() > max)
+					max = a.getId();
+			}
+			actorsById = new Actor[max + 1];
+			for (Actor a : d.getNodes())
+				actorsById[a.getId()] = a;
+		}
+		return actorsById;
+	}
+	
+	/**
+	 * Actors of the DAG indexed by their name
+	 * @return
+	 */
+	private Map<String, Actor> getActorsByName () {
+		if (actorsByName == null) {
+			actorsByName = new HashMap<String, Actor>();
+			for (Actor a : d.getNodes())
+				actorsByName.put(a.getName(), a);
+		}
+		return actorsByName;
+	}
+	
 	/**
 	 * Procedure that adds the state to a list in the right order.
 	 * @param l
@@ -252,26 +380,6 @@ public class Automata {
 		}
 	}
 	
-	public static <T> Set<Set<T>> powerSet(Set<T> originalSet) {
-	    Set<Set<T>> sets = new HashSet<Set<T>>();
-	    if (originalSet.isEmpty()) {
-	        sets.add(new HashSet<T>());
-	        return sets;
-	    }
-	    List<T> list = new ArrayList<T>(originalSet);
-	    T head = list.get(0);
-	    Set<T> rest = new HashSet<T>(list.subList(1, list.size())); 
-	    for (Set<T> set : powerSet(rest)) {
-	        Set<T> newSet = new HashSet<T>();
-	        newSet.add(head);
-	        newSet.addAll(set);
-	        sets.add(newSet);
-	        sets.add(set);
-	    }       
-	    return sets;
-	}  
-	
-	
 	/**
 	 * Procedure links the states by creating Transitions objects
 	 * after the scheduling lists were created.
@@ -331,12 +439,14 @@ public class Automata {
 		Transition t = new Transition(Sf, s0, null);
 		getH_transitions().add(t);
 		
-		// Add final transitions in LO mode
-		// We need to add 2^n transitions depending on the number of outputs
+		// Formulas of the LO outputs
 		calcOutputSets();
 		
+		// Add final transition in LO mode: a single unguarded transition
+		// back to the initial state, whatever the outputs produced
 		Transition tfinal = new Transition(sk, s0, s0);
 		finTrans.add(tfinal);
+		finalLO = sk;
 	
 	}
 
@@ -344,27 +454,33 @@ public class Automata {
 	 *  This procedures creates the automata for the PRISM model
 	 */
 	public void createAutomata () {
+		long t0 = System.nanoTime();
+		AutomatonBuildEvent ev = new AutomatonBuildEvent();
+		ev.begin();
 		
 		// Calculate completion times for all nodes in LO and HI mode		
 		State s0 = new State(nbStates++, "Init", 0);
 		s0.setCompTime(0);
 		loSched.add(s0);
 		
-		Iterator<Actor> in = d.getNodes().iterator();
-		while (in.hasNext()) {
-			Actor n = in.next();
-			this.calcCompTimeLO(n.getName());
-		}
+		createStatesLO();
 		
-		in = d.getNodes_HI().iterator();
-//		while (in.hasNext()) {
-//			Actor n = in.next();
-//			this.calcCompTimeHI(n.getName());
-//		}
 		State sH = new State(nbStates++, "SHI", 0);
 		hiSched.add(sH);
 				
 		this.linkStates();
+		T_BUILD.recordSince(t0);
+		
+		ev.end();
+		if (ev.shouldCommit()) {
+			ev.dagId = d.getId();
+			ev.nbActors = d.getNodes().size();
+			ev.nbCores = ls.getNbCores();
+			ev.hyperperiod = ls.getDeadline();
+			ev.nbStates = nbStates;
+			ev.outcome = "ok";
+			ev.commit();
+		}
 	}
 	
 	/**
@@ -467,6 +583,10 @@ public class Automata {
 		this.finTrans = f_transitions;
 	}
 
+	public State getFinalLO() {
+		return finalLO;
+	}
+
 	public List<FTM> getFtms() {
 		return ftms;
 	}
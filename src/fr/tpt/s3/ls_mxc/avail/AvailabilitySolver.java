@@ -0,0 +1,479 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.avail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cern.colt.list.DoubleArrayList;
+import cern.colt.list.IntArrayList;
+import cern.colt.list.LongArrayList;
+import cern.colt.matrix.impl.SparseDoubleMatrix2D;
+import fr.tpt.s3.ls_mxc.model.Actor;
+
+/**
+ * In-process availability analysis of the automaton generated from the
+ * scheduling tables. Instead of writing a PRISM model, the automaton is
+ * turned into a sparse DTMC for each LO output and its stationary
+ * distribution is computed with Gauss-Seidel iterations. Outputs are
+ * solved in parallel.
+ *
+ * The DTMC of an output tracks the position in the automaton, a flag
+ * telling if every task of the output formula succeeded in the current
+ * cycle and the windows of the m-k firm mechanisms of the formula.
+ * Voters are folded into the probability that a majority of the replicas
+ * succeed.
+ * @author roberto
+ *
+ */
+public class AvailabilitySolver {
+
+	private Automata auto;
+	private int nbThreads;
+	private double epsilon;
+	private int maxIter;
+
+	// Positions of the automaton: LO zone then HI zone
+	private List<State> positions;
+	private Map<State, Integer> posIdx;
+	private Transition[] outTrans;
+	private int loSize;
+
+	public AvailabilitySolver (Automata auto, int nbThreads) {
+		setAuto(auto);
+		setNbThreads(nbThreads);
+		setEpsilon(1e-12);
+		setMaxIter(100000);
+	}
+
+	/**
+	 * Indexes the states of the automaton and their outgoing transitions
+	 */
+	private void indexPositions () {
+		positions = new ArrayList<State>();
+		posIdx = new IdentityHashMap<State, Integer>();
+
+		for (State s : auto.getLo_sched()) {
+			posIdx.put(s, positions.size());
+			positions.add(s);
+		}
+		loSize = positions.size();
+		for (State s : auto.getHi_sched()) {
+			posIdx.put(s, positions.size());
+			positions.add(s);
+		}
+
+		outTrans = new Transition[positions.size()];
+		for (Transition t : auto.getL_transitions())
+			outTrans[posIdx.get(t.getSrc())] = t;
+		for (Transition t : auto.getH_transitions())
+			outTrans[posIdx.get(t.getSrc())] = t;
+	}
+
+	/**
+	 * Computes the availability of every LO output of the automaton.
+	 * @return Map from the name of the output to its availability
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public Map<String, Double> solve () throws InterruptedException, ExecutionException {
+		Map<String, Double> ret = new TreeMap<String, Double>();
+		Map<String, Future<Double>> futures = new HashMap<String, Future<Double>>();
+
+		indexPositions();
+
+		int threads = Math.max(1, Math.min(nbThreads, auto.getL_outs_b().size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final Formula f : auto.getL_outs_b()) {
+				futures.put(f.getName(), executor.submit(new Callable<Double>() {
+					@Override
+					public Double call() {
+						return solveOutput(f);
+					}
+				}));
+			}
+			for (Map.Entry<String, Future<Double>> e : futures.entrySet())
+				ret.put(e.getKey(), e.getValue().get());
+		} finally {
+			executor.shutdown();
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes the availability of one LO output: the long run ratio of
+	 * cycles where the output is produced correctly.
+	 * @param f Formula of the output
+	 * @return
+	 */
+	public double solveOutput (Formula f) {
+		if (positions == null)
+			indexPositions();
+
+		OutputChain c = buildChain(f);
+		double[] pi = gaussSeidel(c.matrix);
+
+		double avail = 0.0;
+		double cycles = 0.0;
+		for (int i = 0; i < pi.length; i++) {
+			if (c.available[i])
+				avail += pi[i];
+			if (c.cycleEnd[i])
+				cycles += pi[i];
+		}
+		return (cycles > 0) ? avail / cycles : 0.0;
+	}
+
+	/**
+	 * Explores the reachable states of the DTMC of an output and fills
+	 * its sparse transition matrix.
+	 * @param f
+	 * @return
+	 */
+	private OutputChain buildChain (Formula f) {
+		OutputChain c = new OutputChain();
+
+		c.tasks = new HashMap<String, Boolean>();
+		for (AutoBoolean ab : f.getLab())
+			c.tasks.put(ab.getTask(), true);
+
+		// m-k firm windows of the formula share one int
+		c.mkOffset = new HashMap<String, Integer>();
+		c.mkFtm = new HashMap<String, FTM>();
+		int wBits = 0;
+		int w0 = 0;
+		for (FTM ftm : auto.getFtms()) {
+			if (ftm.getType() == Actor.MKFIRM && c.tasks.containsKey(ftm.getName())) {
+				c.mkOffset.put(ftm.getName(), wBits);
+				c.mkFtm.put(ftm.getName(), ftm);
+				w0 |= ((1 << ftm.getK()) - 1) << wBits; // Windows start full
+				wBits += ftm.getK();
+			}
+		}
+		if (wBits > 30)
+			throw new IllegalStateException("AvailabilitySolver: m-k firm windows of output "+f.getName()+" are too large ("+wBits+" bits)");
+		c.wBits = wBits;
+
+		int exitPos = -1;
+		for (int p = 0; p < loSize; p++) {
+			State s = positions.get(p);
+			if (s.isExit() && s.getTask().contentEquals(f.getName()))
+				exitPos = p;
+		}
+
+		// Breadth first exploration from the initial state
+		Map<Long, Integer> index = new HashMap<Long, Integer>();
+		LongArrayList states = new LongArrayList();
+		IntArrayList rows = new IntArrayList();
+		IntArrayList cols = new IntArrayList();
+		DoubleArrayList vals = new DoubleArrayList();
+		LongArrayList succ = new LongArrayList();
+		DoubleArrayList succP = new DoubleArrayList();
+
+		long init = c.key(0, 1, w0);
+		index.put(init, 0);
+		states.add(init);
+
+		for (int i = 0; i < states.size(); i++) {
+			long k = states.get(i);
+			succ.clear();
+			succP.clear();
+			successors(c, c.pos(k), c.flag(k), c.window(k), succ, succP);
+
+			for (int j = 0; j < succ.size(); j++) {
+				if (succP.get(j) == 0.0)
+					continue;
+				Integer dst = index.get(succ.get(j));
+				if (dst == null) {
+					dst = states.size();
+					index.put(succ.get(j), dst);
+					states.add(succ.get(j));
+				}
+				rows.add(i);
+				cols.add(dst);
+				vals.add(succP.get(j));
+			}
+		}
+
+		int n = states.size();
+		c.matrix = new SparseDoubleMatrix2D(n, n);
+		for (int j = 0; j < rows.size(); j++)
+			c.matrix.setQuick(rows.get(j), cols.get(j), c.matrix.getQuick(rows.get(j), cols.get(j)) + vals.get(j));
+
+		c.available = new boolean[n];
+		c.cycleEnd = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			int p = c.pos(states.get(i));
+			c.available[i] = (p == exitPos && c.flag(states.get(i)) == 1);
+			c.cycleEnd[i] = isCycleEnd(p);
+		}
+		return c;
+	}
+
+	/**
+	 * A cycle ends when the automaton goes back to its initial state:
+	 * at the end of the LO zone or after a mode switch.
+	 * @param p
+	 * @return
+	 */
+	private boolean isCycleEnd (int p) {
+		State s = positions.get(p);
+
+		if (s == auto.getFinalLO())
+			return true;
+		return p >= loSize && outTrans[p] != null && posIdx.get(outTrans[p].getDestOk()) == 0;
+	}
+
+	/**
+	 * Successors of a state of the DTMC with their probabilities
+	 */
+	private void successors (OutputChain c, int p, int flag, int w, LongArrayList succ, DoubleArrayList succP) {
+		State s = positions.get(p);
+
+		// End of the LO zone
+		if (s == auto.getFinalLO()) {
+			succ.add(c.key(0, 1, w));
+			succP.add(1.0);
+			return;
+		}
+
+		Transition t = outTrans[p];
+		int ok = posIdx.get(t.getDestOk());
+		int fail = (t.getDestFail() != null) ? posIdx.get(t.getDestFail()) : ok;
+
+		if (p >= loSize) { // HI zone
+			succ.add(c.key(ok, flag, w));
+			succP.add(1.0);
+		} else if (s.getMode() == Actor.HI) {
+			double pOk = s.isfMechanism() ? voterSuccess(s.getTask()) : 1 - t.getP();
+			succ.add(c.key(ok, flag, w));
+			succP.add(pOk);
+			succ.add(c.key(fail, flag, w));
+			succP.add(1 - pOk);
+		} else if (p == 0) { // Init resets the booleans
+			succ.add(c.key(ok, 1, w));
+			succP.add(1.0);
+		} else if (s.isSynched()) {
+			FTM ftm = c.mkFtm.get(s.getTask());
+			int f2 = flag;
+			if (ftm != null && Integer.bitCount(c.subWindow(w, s.getTask())) < ftm.getM())
+				f2 = 0;
+			succ.add(c.key(ok, f2, w));
+			succP.add(1.0);
+		} else if (s.isExit()) {
+			succ.add(c.key(ok, flag, w));
+			succP.add(1.0);
+		} else if (s.isVoted() && auto.getFTMbyName(s.getTask()) != null
+				&& auto.getFTMbyName(s.getTask()).getType() == Actor.MKFIRM) {
+			if (c.mkFtm.containsKey(s.getTask())) {
+				succ.add(c.key(ok, flag, c.shiftIn(w, s.getTask(), 1)));
+				succP.add(1 - t.getP());
+				succ.add(c.key(ok, flag, c.shiftIn(w, s.getTask(), 0)));
+				succP.add(t.getP());
+			} else {
+				succ.add(c.key(ok, flag, w));
+				succP.add(1.0);
+			}
+		} else {
+			int f2 = c.tasks.containsKey(s.getTask()) ? 0 : flag;
+			succ.add(c.key(ok, flag, w));
+			succP.add(1 - t.getP());
+			succ.add(c.key(fail, f2, w));
+			succP.add(t.getP());
+		}
+	}
+
+	/**
+	 * Probability that a majority of the replicas of a voter succeed
+	 * @param name
+	 * @return
+	 */
+	private double voterSuccess (String name) {
+		FTM ftm = null;
+		for (FTM f : auto.getFtms()) {
+			if (f.getType() == Actor.VOTER && f.getName().contentEquals(name))
+				ftm = f;
+		}
+		if (ftm == null)
+			return 1.0;
+
+		int n = ftm.getNbVot();
+		double p = ftm.getVotTask().getfProb();
+		double ret = 0.0;
+		double binom = 1.0;
+
+		for (int k = 0; k <= n; k++) {
+			if (k > 0)
+				binom = binom * (n - k + 1) / k;
+			if (k > n / 2)
+				ret += binom * Math.pow(1 - p, k) * Math.pow(p, n - k);
+		}
+		return ret;
+	}
+
+	/**
+	 * Solves pi = pi P with Gauss-Seidel sweeps over the columns of P.
+	 * States are numbered in exploration order, which follows the cycle of
+	 * the automaton, so a sweep propagates the mass along the whole cycle.
+	 * @param m
+	 * @return Stationary distribution
+	 */
+	private double[] gaussSeidel (SparseDoubleMatrix2D m) {
+		int n = m.rows();
+		IntArrayList rows = new IntArrayList();
+		IntArrayList cols = new IntArrayList();
+		DoubleArrayList vals = new DoubleArrayList();
+		m.getNonZeros(rows, cols, vals);
+
+		// Incoming transitions of each state (CSC layout)
+		int[] start = new int[n + 1];
+		double[] diag = new double[n];
+		for (int k = 0; k < rows.size(); k++)
+			start[cols.get(k) + 1]++;
+		for (int j = 0; j < n; j++)
+			start[j + 1] += start[j];
+		int[] src = new int[rows.size()];
+		double[] prob = new double[rows.size()];
+		int[] fill = new int[n];
+		for (int k = 0; k < rows.size(); k++) {
+			int j = cols.get(k);
+			src[start[j] + fill[j]] = rows.get(k);
+			prob[start[j] + fill[j]] = vals.get(k);
+			fill[j]++;
+			if (rows.get(k) == j)
+				diag[j] = vals.get(k);
+		}
+
+		double[] pi = new double[n];
+		double[] prev = new double[n];
+		for (int j = 0; j < n; j++)
+			pi[j] = 1.0 / n;
+
+		for (int it = 0; it < maxIter; it++) {
+			System.arraycopy(pi, 0, prev, 0, n);
+			double sum = 0.0;
+
+			for (int j = 0; j < n; j++) {
+				double in = 0.0;
+				for (int k = start[j]; k < start[j + 1]; k++) {
+					if (src[k] != j)
+						in += pi[src[k]] * prob[k];
+				}
+				pi[j] = (diag[j] < 1.0) ? in / (1.0 - diag[j]) : pi[j];
+				sum += pi[j];
+			}
+
+			double diff = 0.0;
+			for (int j = 0; j < n; j++) {
+				pi[j] = pi[j] / sum;
+				diff += Math.abs(pi[j] - prev[j]);
+			}
+			if (diff < epsilon)
+				break;
+		}
+		return pi;
+	}
+
+	/**
+	 * DTMC of one LO output. States are encoded in a long:
+	 * position | flag | m-k windows.
+	 */
+	private static class OutputChain {
+		Map<String, Boolean> tasks;
+		Map<String, Integer> mkOffset;
+		Map<String, FTM> mkFtm;
+		int wBits;
+		SparseDoubleMatrix2D matrix;
+		boolean[] available;
+		boolean[] cycleEnd;
+
+		long key (int pos, int flag, int w) {
+			return (((long) pos) << (wBits + 1)) | ((long) flag << wBits) | w;
+		}
+
+		int pos (long key) {
+			return (int) (key >>> (wBits + 1));
+		}
+
+		int flag (long key) {
+			return (int) ((key >>> wBits) & 1);
+		}
+
+		int window (long key) {
+			return (int) (key & ((1L << wBits) - 1));
+		}
+
+		int subWindow (int w, String task) {
+			int k = mkFtm.get(task).getK();
+			return (w >>> mkOffset.get(task)) & ((1 << k) - 1);
+		}
+
+		int shiftIn (int w, String task, int bit) {
+			int k = mkFtm.get(task).getK();
+			int off = mkOffset.get(task);
+			int mask = ((1 << k) - 1);
+			int sub = ((subWindow(w, task) << 1) | bit) & mask;
+			return (w & ~(mask << off)) | (sub << off);
+		}
+	}
+
+	/*
+	 * Getters & Setters
+	 */
+	public Automata getAuto() {
+		return auto;
+	}
+
+	public void setAuto(Automata auto) {
+		this.auto = auto;
+		this.positions = null;
+	}
+
+	public int getNbThreads() {
+		return nbThreads;
+	}
+
+	public void setNbThreads(int nbThreads) {
+		this.nbThreads = nbThreads;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	public int getMaxIter() {
+		return maxIter;
+	}
+
+	public void setMaxIter(int maxIter) {
+		this.maxIter = maxIter;
+	}
+}
@@ -16,9 +16,8 @@
  *******************************************************************************/
 package fr.tpt.s3.ls_mxc.avail;
 
-import java.util.BitSet;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 import fr.tpt.s3.ls_mxc.model.Actor;
@@ -46,9 +45,9 @@ public class FTM {
 	public FTM (int nb_vot, String name) {
 		this.nbVot = nb_vot;
 		this.name = name;
-		this.states = new LinkedList<State>();
-		this.transitions = new LinkedList<Transition>();
-		this.finTrans = new LinkedList<Transition>();
+		this.states = new ArrayList<State>();
+		this.transitions = new ArrayList<Transition>();
+		this.finTrans = new ArrayList<Transition>();
 	}
 	
 	/**
@@ -61,67 +60,69 @@ public class FTM {
 		this.setM(m);
 		this.setK(k);
 		this.name = name;
-		this.states = new LinkedList<State>();
-		this.transitions = new LinkedList<Transition>();
-		this.finTrans = new LinkedList<Transition>();
+		this.states = new ArrayList<State>();
+		this.transitions = new ArrayList<Transition>();
+		this.finTrans = new ArrayList<Transition>();
 	}
 	
 	/**
-	 * Creates the voting automaton
+	 * Creates the voting automaton.
+	 * States are stored as an implicit binary tree: the state at index p
+	 * goes to 2p + 1 when the replica succeeds and to 2p + 2 when it fails.
 	 */
 	public void createVoter () {
-		int cur = 0;
-		int width = 1;
-		int prev = 0;
-		int nb_pred = 1;
+		int nbLeaves = 1 << nbVot;
+		int nbStates = 2 * nbLeaves - 1;
+		State[] tree = new State[nbStates];
+		
+		this.states = new ArrayList<State>(nbStates);
+		this.transitions = new ArrayList<Transition>(nbLeaves - 1);
+		this.finTrans = new ArrayList<Transition>(nbLeaves);
 
 		// Init state
-		State s = new State(cur++, name, 0);
-		this.states.add(s);
+		tree[0] = new State(0, name, 0);
 		
 		for (int i = 0; i < nbVot; i++) {
-			for (int j = 0; j < nb_pred; j++) {
-				for (int k = 0; k < width; k++) {
-					String votName = (votTask.getName()+i);
-					
-					State src = this.states.get(prev);
-					State s2 = new State(cur++, votName, 0);
-					State s3 = new State(cur++, votName, 0);
-					this.states.add(s2);
-					this.states.add(s3);
-					Transition t = new Transition(src, s2, s3);
-					this.transitions.add(t);
-				}
-				prev++;
+			String votName = (votTask.getName()+i);
+			int first = (1 << i) - 1;
+			int last = (1 << (i + 1)) - 1;
+			
+			for (int p = first; p < last; p++) {
+				tree[2 * p + 1] = new State(2 * p + 1, votName, 0);
+				tree[2 * p + 2] = new State(2 * p + 2, votName, 0);
+				Transition t = new Transition(tree[p], tree[2 * p + 1], tree[2 * p + 2]);
+				this.transitions.add(t);
 			}
-			nb_pred = nb_pred * 2;
 		}
 		
-		int end = cur - 1;
-		int count = nb_pred;
+		for (State s : tree)
+			this.states.add(s);
+		
+		int end = nbStates - 1;
+		int count = nbLeaves;
 
-		for (int i = 0; i < nb_pred; i++) {
+		for (int i = 0; i < nbLeaves; i++) {
 			Transition t = null;
-			State src = this.getStates().get(end);
+			State src = tree[end];
 			// Mark
-			if (count > (nb_pred/2)) {
-				int test = (nb_pred/2) + 1;
+			if (count > (nbLeaves/2)) {
+				int test = (nbLeaves/2) + 1;
 				// Voter failed
 				if (count == test){
-					t = new Transition(src, this.getStates().get(0), null);
+					t = new Transition(src, tree[0], null);
 					t.setName(name+"_ok");
 				} else { // Voter suceeded
-					t = new Transition(src, this.getStates().get(0), null);
+					t = new Transition(src, tree[0], null);
 					t.setName(name+"_fail");
 				}
 
 			} else {
-				int test = (nb_pred/2);
+				int test = (nbLeaves/2);
 				if (count == test){
-					t = new Transition(src, this.getStates().get(0), null);
+					t = new Transition(src, tree[0], null);
 					t.setName(name+"_fail");
 				} else { 
-					t = new Transition(src, this.getStates().get(0), null);
+					t = new Transition(src, tree[0], null);
 					t.setName(name+"_ok");
 				}
 			}
@@ -133,98 +134,46 @@ public class FTM {
 	
 	/**
 	 * Finds a state with the id given as a paremeter.
+	 * State ids are their index in the list of states.
 	 * @param id
 	 * @return
 	 */
 	private State getStateByID(int id) {
-		for (State s : getStates()) {
-			if (s.getId() == id)
-				return s;
-		}
-		return null;
-	}
-	
-	/**
-	 * Converts an int to a BitSet.
-	 * @param k
-	 * @return
-	 */
-	private BitSet convert(int k) {
-		int idx = 0;
-
-		BitSet bs = new BitSet(this.getK()+1);
-		
-		while (k != 0) {
-			if (k % 2 != 0) {
-				bs.set(idx);
-			}
-			idx++;
-			k = k >>> 1;
-		}
-		return bs;
+		if (id < 0 || id >= getStates().size())
+			return null;
+		return getStates().get(id);
 	}
 	
 	/**
-	 * Converts a BitSet into an int.
-	 * @param bs
-	 * @return
-	 */
-	private int convert(BitSet bs) {
-		int ret = 0;
-		for (int i = 0; i < getK(); i++) {
-			ret += bs.get(i) ? (1 << i) : 0;
-		}
-		return ret;
-	}
-	
-	private BitSet shiftLeft (BitSet bs) {
-		BitSet ret = new BitSet(getK());
-		for (int i = 0; i < getK() - 1; i++) {
-			if (bs.get(i))
-				ret.set(i+1);
-		}
-		return ret;
-	}
-
-	
-	/**
-	 * Creates a M-k firm automaton
+	 * Creates a M-k firm automaton.
+	 * The state id is the window of the last K executions, bit 0 being the
+	 * most recent one. The window is a K-bit ring: a new execution shifts
+	 * it to the left and the oldest bit falls off.
 	 */
 	public void createMKFirm() {
-		BitSet bs = null;
+		int nbStates = 1 << getK();
+		int mask = nbStates - 1;
+		
+		this.states = new ArrayList<State>(nbStates);
+		this.transitions = new ArrayList<Transition>(2 * nbStates);
+		this.finTrans = new ArrayList<Transition>(nbStates);
 		
 		// K is the depth of the buffer
-		for (int i = 0; i < (int)Math.pow(2, getK()); i++) {
+		for (int i = 0; i < nbStates; i++) {
 			State s = new State(i, getName(), Actor.HI);
 			getStates().add(s);
 		}
 		
 		// Add the transitions between the states
 		for (State is : getStates()) {
-			// Check what happens when the bit operator is applied
-			// Shift to the right + 1
-			int calc = 0;
-			bs = convert(is.getId());
-			BitSet shifted = new BitSet(getK());
-			if (is.getId() != 0) {
-				shifted = shiftLeft(bs);
-			}
-			shifted.set(0);
-			calc = convert(shifted);
-			
-			State dst = getStateByID(calc);
+			// Shift to the left + 1
+			State dst = getStateByID(((is.getId() << 1) | 1) & mask);
 			Transition t1 = new Transition(is, dst, null);
 			t1.setName(getName()+"_end_ok");
 			getTransitions().add(t1);
 			
-			// Shift to the right + 0
-			shifted = bs;
-			if (is.getId() != 0) {
-				shifted = shiftLeft(bs);
-			}
-			calc = convert(shifted);
-			
-			dst = getStateByID(calc);
+			// Shift to the left + 0
+			dst = getStateByID((is.getId() << 1) & mask);
 			Transition t0 = new Transition(is, dst, null);
 			t0.setName(getName()+"_end_fail");
 			getTransitions().add(t0);
@@ -233,11 +182,9 @@ public class FTM {
 		// M number of bites that need to be 1
 		for (State is : getStates()) {
 			// Add final transitions
-			bs = convert(is.getId());
-
 			Transition tf = new Transition(is, is, null);
 			
-			if (bs.cardinality() >= getM())
+			if (Integer.bitCount(is.getId()) >= getM())
 				tf.setName(getName()+"_ok");
 			else
 				tf.setName(getName()+"_fail");
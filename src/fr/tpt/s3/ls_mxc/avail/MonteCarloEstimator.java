@@ -0,0 +1,456 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.avail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.tpt.s3.ls_mxc.model.Actor;
+
+/**
+ * Monte Carlo estimation of the availability of LO outputs. The scheduling
+ * tables, through the automaton built from them, are executed for many
+ * hyperperiods while failures are injected with the failure probability of
+ * each actor. Voters and m-k firm mechanisms are simulated explicitly.
+ *
+ * Each thread runs its own chain of hyperperiods with an independent random
+ * stream. Chains are run by batches and the confidence interval is obtained
+ * with the batch means method, since consecutive hyperperiods are correlated
+ * by the m-k firm windows. The estimation stops once every interval is
+ * narrower than the target width.
+ * @author roberto
+ *
+ */
+public class MonteCarloEstimator {
+
+	// Kinds of positions of the LO zone
+	private static final short INIT = 0;
+	private static final short HI_TASK = 1;
+	private static final short VOTER = 2;
+	private static final short LO_TASK = 3;
+	private static final short MK_RUN = 4;
+	private static final short SYNCHED = 5;
+	private static final short EXIT = 6;
+	private static final short FINAL = 7;
+
+	private Automata auto;
+	private int nbThreads;
+	private long maxCycles;
+	private int batchSize;
+	private double targetWidth;
+	private double z;
+	private long seed;
+
+	// Compiled LO zone
+	private int loSize;
+	private short kind[];
+	private double prob[];
+	private int okNext[];
+	private int failNext[];
+	private int nbVot[];
+	private int mkIdx[];
+	private int exitOut[];
+	private long failMask[][];
+	private int mkK[];
+	private int mkM[];
+	private List<String> outputs;
+	private int outWords;
+
+	// Results
+	private long nbCycles;
+	private long nbBatches;
+	private double availability[];
+	private double halfWidth[];
+	private double modeSwitchRate;
+	private double modeSwitchHalfWidth;
+
+	public MonteCarloEstimator (Automata auto, int nbThreads) {
+		setAuto(auto);
+		setNbThreads(nbThreads);
+		setMaxCycles(100000000);
+		setBatchSize(100000);
+		setTargetWidth(1e-4);
+		setZ(1.96);
+		setSeed(System.nanoTime());
+	}
+
+	/**
+	 * Compiles the LO zone of the automaton into arrays indexed by position
+	 */
+	private void compile () {
+		List<State> los = auto.getLo_sched();
+		Map<State, Integer> posIdx = new IdentityHashMap<State, Integer>();
+		Map<String, Integer> mkByName = new HashMap<String, Integer>();
+		List<FTM> mks = new ArrayList<FTM>();
+
+		loSize = los.size();
+		for (int p = 0; p < loSize; p++)
+			posIdx.put(los.get(p), p);
+
+		outputs = new ArrayList<String>();
+		List<Formula> formulas = new ArrayList<Formula>(auto.getL_outs_b());
+		for (Formula f : formulas)
+			outputs.add(f.getName());
+		outWords = (outputs.size() + 63) / 64;
+
+		for (FTM ftm : auto.getFtms()) {
+			if (ftm.getType() == Actor.MKFIRM) {
+				mkByName.put(ftm.getName(), mks.size());
+				mks.add(ftm);
+			}
+		}
+		mkK = new int[mks.size()];
+		mkM = new int[mks.size()];
+		for (int j = 0; j < mks.size(); j++) {
+			mkK[j] = mks.get(j).getK();
+			mkM[j] = mks.get(j).getM();
+		}
+
+		kind = new short[loSize];
+		prob = new double[loSize];
+		okNext = new int[loSize];
+		failNext = new int[loSize];
+		nbVot = new int[loSize];
+		mkIdx = new int[loSize];
+		exitOut = new int[loSize];
+		failMask = new long[loSize][outWords];
+
+		Transition outTrans[] = new Transition[loSize];
+		for (Transition t : auto.getL_transitions())
+			outTrans[posIdx.get(t.getSrc())] = t;
+
+		for (int p = 0; p < loSize; p++) {
+			State s = los.get(p);
+			Transition t = outTrans[p];
+
+			mkIdx[p] = -1;
+			exitOut[p] = -1;
+			if (s == auto.getFinalLO()) {
+				kind[p] = FINAL;
+				continue;
+			}
+
+			// Leaving the LO zone is a mode switch
+			Integer ok = posIdx.get(t.getDestOk());
+			Integer fail = (t.getDestFail() != null) ? posIdx.get(t.getDestFail()) : ok;
+			okNext[p] = (ok != null) ? ok : loSize;
+			failNext[p] = (fail != null) ? fail : loSize;
+			prob[p] = t.getP();
+
+			for (int o = 0; o < formulas.size(); o++) {
+				for (AutoBoolean ab : formulas.get(o).getLab()) {
+					if (ab.getTask().contentEquals(s.getTask()))
+						failMask[p][o >>> 6] |= 1L << (o & 63);
+				}
+			}
+
+			if (p == 0) {
+				kind[p] = INIT;
+			} else if (s.getMode() == Actor.HI) {
+				kind[p] = HI_TASK;
+				for (FTM ftm : auto.getFtms()) {
+					if (s.isfMechanism() && ftm.getType() == Actor.VOTER && ftm.getName().contentEquals(s.getTask())) {
+						kind[p] = VOTER;
+						nbVot[p] = ftm.getNbVot();
+						prob[p] = ftm.getVotTask().getfProb();
+					}
+				}
+			} else if (s.isSynched()) {
+				kind[p] = SYNCHED;
+				mkIdx[p] = mkByName.containsKey(s.getTask()) ? mkByName.get(s.getTask()) : -1;
+			} else if (s.isExit()) {
+				kind[p] = EXIT;
+				exitOut[p] = outputs.indexOf(s.getTask());
+			} else if (s.isVoted() && mkByName.containsKey(s.getTask())) {
+				kind[p] = MK_RUN;
+				mkIdx[p] = mkByName.get(s.getTask());
+			} else {
+				kind[p] = LO_TASK;
+			}
+		}
+	}
+
+	/**
+	 * Runs the simulation until the target width or the maximum number of
+	 * hyperperiods is reached.
+	 * @return Map from the name of the output to its estimated availability
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public Map<String, Double> estimate () throws InterruptedException, ExecutionException {
+		compile();
+
+		int nbOut = outputs.size();
+		int threads = Math.max(1, nbThreads);
+		SplittableRandom root = new SplittableRandom(seed);
+		List<Chain> chains = new ArrayList<Chain>();
+		for (int i = 0; i < threads; i++)
+			chains.add(new Chain(root.split()));
+
+		// Sums of batch means and of their squares, last slot is the mode switch rate
+		double sum[] = new double[nbOut + 1];
+		double sumSq[] = new double[nbOut + 1];
+		nbCycles = 0;
+		nbBatches = 0;
+		availability = new double[nbOut];
+		halfWidth = new double[nbOut];
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			boolean done = false;
+			while (!done) {
+				// The last round is shrunk so that at most maxCycles are simulated
+				long left = maxCycles - nbCycles;
+				final int size[] = new int[chains.size()];
+				for (int i = 0; i < size.length; i++)
+					size[i] = (int) Math.min(batchSize, left / size.length + ((i < left % size.length) ? 1 : 0));
+				
+				List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+				List<Integer> sizes = new ArrayList<Integer>();
+				for (int i = 0; i < size.length; i++) {
+					if (size[i] == 0)
+						continue;
+					final Chain c = chains.get(i);
+					final int n = size[i];
+					futures.add(executor.submit(new Callable<long[]>() {
+						@Override
+						public long[] call() {
+							return c.runBatch(n);
+						}
+					}));
+					sizes.add(n);
+				}
+
+				for (int i = 0; i < futures.size(); i++) {
+					long counts[] = futures.get(i).get();
+					int n = sizes.get(i);
+					for (int o = 0; o <= nbOut; o++) {
+						double mean = (double) counts[o] / n;
+						sum[o] += mean;
+						sumSq[o] += mean * mean;
+					}
+					nbCycles += n;
+					nbBatches++;
+				}
+
+				double maxWidth = 0.0;
+				for (int o = 0; o <= nbOut; o++) {
+					double mean = sum[o] / nbBatches;
+					double var = (nbBatches > 1) ? Math.max(0.0, (sumSq[o] - nbBatches * mean * mean) / (nbBatches - 1)) : 0.0;
+					double half = (nbBatches > 1) ? z * Math.sqrt(var / nbBatches) : Double.POSITIVE_INFINITY;
+
+					if (o < nbOut) {
+						availability[o] = mean;
+						halfWidth[o] = half;
+					} else {
+						modeSwitchRate = mean;
+						modeSwitchHalfWidth = half;
+					}
+					maxWidth = Math.max(maxWidth, 2 * half);
+				}
+				done = (maxWidth <= targetWidth) || (nbCycles >= maxCycles);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		Map<String, Double> ret = new TreeMap<String, Double>();
+		for (int o = 0; o < nbOut; o++)
+			ret.put(outputs.get(o), availability[o]);
+		return ret;
+	}
+
+	/**
+	 * Half width of the confidence interval of each output
+	 * @return
+	 */
+	public Map<String, Double> getHalfWidths () {
+		Map<String, Double> ret = new TreeMap<String, Double>();
+		for (int o = 0; o < outputs.size(); o++)
+			ret.put(outputs.get(o), halfWidth[o]);
+		return ret;
+	}
+
+	/**
+	 * Sequence of hyperperiods simulated by one thread. The m-k firm windows
+	 * are kept from one batch to the next.
+	 */
+	private class Chain {
+		private SplittableRandom rng;
+		private int windows[];
+		private long flags[];
+
+		Chain (SplittableRandom rng) {
+			this.rng = rng;
+			this.windows = new int[mkK.length];
+			this.flags = new long[outWords];
+			for (int j = 0; j < mkK.length; j++)
+				windows[j] = (1 << mkK[j]) - 1;
+		}
+
+		/**
+		 * Simulates n hyperperiods
+		 * @param n
+		 * @return Number of correct productions per output, then the number of mode switches
+		 */
+		long[] runBatch (int n) {
+			long counts[] = new long[outputs.size() + 1];
+
+			for (int i = 0; i < n; i++) {
+				int p = 0;
+				while (p < loSize && kind[p] != FINAL) {
+					switch (kind[p]) {
+					case INIT:
+						for (int w = 0; w < outWords; w++)
+							flags[w] = -1L;
+						p = okNext[p];
+						break;
+					case HI_TASK:
+						p = (rng.nextDouble() < prob[p]) ? failNext[p] : okNext[p];
+						break;
+					case VOTER:
+						int succ = 0;
+						for (int r = 0; r < nbVot[p]; r++) {
+							if (rng.nextDouble() >= prob[p])
+								succ++;
+						}
+						p = (succ > nbVot[p] / 2) ? okNext[p] : failNext[p];
+						break;
+					case MK_RUN:
+						int bit = (rng.nextDouble() < prob[p]) ? 0 : 1;
+						int j = mkIdx[p];
+						windows[j] = ((windows[j] << 1) | bit) & ((1 << mkK[j]) - 1);
+						p = okNext[p];
+						break;
+					case SYNCHED:
+						if (mkIdx[p] >= 0 && Integer.bitCount(windows[mkIdx[p]]) < mkM[mkIdx[p]])
+							clearFlags(p);
+						p = okNext[p];
+						break;
+					case EXIT:
+						int o = exitOut[p];
+						if (o >= 0 && (flags[o >>> 6] & (1L << (o & 63))) != 0)
+							counts[o]++;
+						p = okNext[p];
+						break;
+					default:
+						if (rng.nextDouble() < prob[p]) {
+							clearFlags(p);
+							p = failNext[p];
+						} else {
+							p = okNext[p];
+						}
+						break;
+					}
+				}
+				if (p >= loSize)
+					counts[outputs.size()]++;
+			}
+			return counts;
+		}
+
+		private void clearFlags (int p) {
+			for (int w = 0; w < outWords; w++)
+				flags[w] &= ~failMask[p][w];
+		}
+	}
+
+	/*
+	 * Getters & Setters
+	 */
+	public Automata getAuto() {
+		return auto;
+	}
+
+	public void setAuto(Automata auto) {
+		this.auto = auto;
+	}
+
+	public int getNbThreads() {
+		return nbThreads;
+	}
+
+	public void setNbThreads(int nbThreads) {
+		this.nbThreads = nbThreads;
+	}
+
+	public long getMaxCycles() {
+		return maxCycles;
+	}
+
+	public void setMaxCycles(long maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public double getTargetWidth() {
+		return targetWidth;
+	}
+
+	public void setTargetWidth(double targetWidth) {
+		this.targetWidth = targetWidth;
+	}
+
+	public double getZ() {
+		return z;
+	}
+
+	public void setZ(double z) {
+		this.z = z;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public long getNbCycles() {
+		return nbCycles;
+	}
+
+	public long getNbBatches() {
+		return nbBatches;
+	}
+
+	public double getModeSwitchRate() {
+		return modeSwitchRate;
+	}
+
+	public double getModeSwitchHalfWidth() {
+		return modeSwitchHalfWidth;
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary columnar output. Rows are gathered in blocks and each block is
+ * written column after column, which keeps values of the same type
+ * together for post-processing tools.
+ *
+ * Layout (big endian, java.io.DataOutput encoding):
+ * magic "MCRS", version, number of columns, column names, then blocks of
+ * [number of rows, for each column: type tag, values]. Type tags are
+ * 'I' (int), 'J' (long), 'D' (double), 'Z' (boolean) and 'S' (string).
+ * A block with 0 rows marks the end of the file.
+ * @author roberto
+ *
+ */
+public class ColumnarResultFormat implements ResultFormat {
+
+	public static final int MAGIC = 0x4D435253;
+	public static final int VERSION = 1;
+
+	private DataOutputStream out;
+	private FileOutputStream fos;
+	private int blockRows;
+	private Object[][] block;
+	private int nbRows;
+	private int nbCols;
+
+	public ColumnarResultFormat (String file, int blockRows) throws IOException {
+		fos = new FileOutputStream(file);
+		out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+		this.blockRows = blockRows;
+		this.nbRows = 0;
+	}
+
+	public ColumnarResultFormat (String file) throws IOException {
+		this(file, 4096);
+	}
+
+	@Override
+	public void writeHeader (String[] columns) throws IOException {
+		nbCols = columns.length;
+		block = new Object[nbCols][blockRows];
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(nbCols);
+		for (String c : columns)
+			out.writeUTF(c);
+	}
+
+	@Override
+	public void writeRow (Object[] row) throws IOException {
+		if (block == null)
+			throw new IOException("ColumnarResultFormat: header has to be written before the rows");
+		if (row.length != nbCols)
+			throw new IOException("ColumnarResultFormat: expected "+nbCols+" columns, got "+row.length);
+
+		for (int c = 0; c < nbCols; c++)
+			block[c][nbRows] = row[c];
+		nbRows++;
+		if (nbRows == blockRows)
+			writeBlock();
+	}
+
+	/**
+	 * Writes the rows gathered so far as one block
+	 * @throws IOException
+	 */
+	private void writeBlock () throws IOException {
+		if (nbRows == 0)
+			return;
+
+		out.writeInt(nbRows);
+		for (int c = 0; c < nbCols; c++) {
+			char type = typeOf(block[c][0]);
+			out.writeByte(type);
+			for (int r = 0; r < nbRows; r++) {
+				Object o = block[c][r];
+				switch (type) {
+				case 'I':
+					out.writeInt(((Number) o).intValue());
+					break;
+				case 'J':
+					out.writeLong(((Number) o).longValue());
+					break;
+				case 'D':
+					out.writeDouble(((Number) o).doubleValue());
+					break;
+				case 'Z':
+					out.writeBoolean((Boolean) o);
+					break;
+				default:
+					out.writeUTF(String.valueOf(o));
+					break;
+				}
+				block[c][r] = null;
+			}
+		}
+		nbRows = 0;
+	}
+
+	private char typeOf (Object o) {
+		if (o instanceof Integer || o instanceof Short || o instanceof Byte)
+			return 'I';
+		else if (o instanceof Long)
+			return 'J';
+		else if (o instanceof Double || o instanceof Float)
+			return 'D';
+		else if (o instanceof Boolean)
+			return 'Z';
+		return 'S';
+	}
+
+	@Override
+	public void flush () throws IOException {
+		writeBlock();
+		out.flush();
+	}
+
+	@Override
+	public void sync () throws IOException {
+		flush();
+		fos.getFD().sync();
+	}
+
+	@Override
+	public void close () throws IOException {
+		writeBlock();
+		out.writeInt(0);
+		out.close();
+	}
+}
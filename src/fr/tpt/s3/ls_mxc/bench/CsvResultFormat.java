@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Semicolon separated text output, in the format used by the benchmarks
+ * since their first version.
+ * @author roberto
+ *
+ */
+public class CsvResultFormat implements ResultFormat {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Writer out;
+	private FileOutputStream fos;
+	private StringBuilder line;
+	private boolean append;
+
+	public CsvResultFormat (String file) throws IOException {
+		this(file, false);
+	}
+
+	/**
+	 * @param file
+	 * @param append Rows are added at the end of an existing file, its
+	 * header is kept
+	 * @throws IOException
+	 */
+	public CsvResultFormat (String file, boolean append) throws IOException {
+		fos = new FileOutputStream(file, append);
+		out = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8), BUFFER_SIZE);
+		line = new StringBuilder();
+		this.append = append;
+	}
+
+	/**
+	 * Prepares the results of a campaign to be resumed: the header and the
+	 * first row of each input done are kept, rows of the other inputs and
+	 * a last line cut by a crash are removed. The file is replaced
+	 * atomically.
+	 * @param file
+	 * @param done Inputs in the journal
+	 * @param keyColumn Column holding the input of a row
+	 * @return Inputs that have a row in the results
+	 * @throws IOException
+	 */
+	public static Set<String> reconcile (String file, Set<String> done, int keyColumn) throws IOException {
+		Set<String> kept = new HashSet<String>();
+		Path src = Paths.get(file);
+		Path tmp = Paths.get(file + ".tmp");
+		long end = Journal.lastLineEnd(file);
+		long read = 0;
+		FileOutputStream tmpOut = new FileOutputStream(tmp.toFile());
+		Writer w = new BufferedWriter(new OutputStreamWriter(tmpOut, StandardCharsets.UTF_8), BUFFER_SIZE);
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+		boolean header = true;
+		String l;
+
+		try {
+			while (read < end && (l = br.readLine()) != null) {
+				read += l.getBytes(StandardCharsets.UTF_8).length + 1;
+				if (!header) {
+					String cols[] = l.split(";");
+					if (cols.length <= keyColumn)
+						continue;
+					String key = cols[keyColumn].trim();
+					if (!done.contains(key) || !kept.add(key))
+						continue;
+				}
+				header = false;
+				w.write(l);
+				w.write('\n');
+			}
+			w.flush();
+			tmpOut.getFD().sync();
+		} finally {
+			br.close();
+			w.close();
+		}
+		Files.move(tmp, src, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return kept;
+	}
+
+	@Override
+	public void writeHeader (String[] columns) throws IOException {
+		if (append)
+			return;
+		line.setLength(0);
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0)
+				line.append("; ");
+			line.append(columns[i]);
+		}
+		line.append('\n');
+		out.write(line.toString());
+	}
+
+	@Override
+	public void writeRow (Object[] row) throws IOException {
+		line.setLength(0);
+		for (Object o : row) {
+			if (o instanceof Boolean)
+				line.append(((Boolean) o) ? 1 : 0);
+			else
+				line.append(o);
+			line.append("; ");
+		}
+		line.setLength(line.length() - 1);
+		line.append('\n');
+		out.write(line.toString());
+	}
+
+	@Override
+	public void flush () throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void sync () throws IOException {
+		out.flush();
+		fos.getFD().sync();
+	}
+
+	@Override
+	public void close () throws IOException {
+		out.close();
+	}
+}
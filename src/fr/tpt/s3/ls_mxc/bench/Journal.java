@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checkpoint journal of a campaign: one line per input whose result row
+ * has been written. The ResultSink adds the inputs of the rows it writes
+ * and commits them by batches, after forcing the rows to the disk, so an
+ * input in the journal always has its row in the results.
+ * When a campaign is resumed, the inputs of the journal are read back
+ * and a line cut by a crash is dropped.
+ * @author roberto
+ *
+ */
+public class Journal implements AutoCloseable {
+	
+	private String file;
+	private FileChannel channel;
+	private boolean resumed;
+	private Set<String> done;
+	private StringBuilder pending;
+	private int nbPending;
+	
+	/**
+	 * Opens the journal of a campaign
+	 * @param file
+	 * @param resume Reads the inputs already done and appends to the
+	 * journal, otherwise the journal starts empty
+	 * @throws IOException
+	 */
+	public Journal (String file, boolean resume) throws IOException {
+		this.file = file;
+		this.done = new HashSet<String>();
+		this.pending = new StringBuilder();
+		this.nbPending = 0;
+		this.resumed = resume;
+		
+		if (resume) {
+			channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			read();
+		} else {
+			channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Reads the complete lines of the journal and truncates the last
+	 * one if it was cut
+	 * @throws IOException
+	 */
+	private void read () throws IOException {
+		long end = lastLineEnd(file);
+		BufferedReader br = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel.position(0)), StandardCharsets.UTF_8));
+		long read = 0;
+		String line;
+		
+		while (read < end && (line = br.readLine()) != null) {
+			read += line.getBytes(StandardCharsets.UTF_8).length + 1;
+			if (!line.isEmpty())
+				done.add(line);
+		}
+		channel.truncate(end);
+		channel.position(end);
+	}
+	
+	/**
+	 * Size of a text file without its last line if it does not end with
+	 * a new line
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static long lastLineEnd (String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		
+		try {
+			long pos = raf.length();
+			while (pos > 0) {
+				raf.seek(pos - 1);
+				if (raf.read() == '\n')
+					break;
+				pos--;
+			}
+			return pos;
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * An input has been done in a previous run of the campaign
+	 * @param input
+	 * @return
+	 */
+	public boolean isDone (String input) {
+		return done.contains(input);
+	}
+	
+	/**
+	 * An input can be journaled: the journal has one input per line and
+	 * the results are separated by semicolons and read back trimmed
+	 * @param input
+	 * @return
+	 */
+	public static boolean isValidInput (String input) {
+		return !input.isEmpty() && input.equals(input.trim())
+				&& input.indexOf(';') < 0 && input.indexOf('\n') < 0 && input.indexOf('\r') < 0;
+	}
+	
+	/**
+	 * An input has to be skipped: it has been done in a previous run of
+	 * the campaign, or it can not be journaled and would break the resume
+	 * @param input
+	 * @return
+	 */
+	public boolean skip (String input) {
+		if (!isValidInput(input)) {
+			System.err.println("[BENCH Journal] Skipping "+input+": inputs with ';', line breaks or surrounding blanks can not be resumed.");
+			return true;
+		}
+		return done.contains(input);
+	}
+	
+	/**
+	 * Keeps only the inputs found in the results, the other ones have
+	 * to be done again
+	 * @param inResults
+	 */
+	public void retainDone (Set<String> inResults) {
+		done.retainAll(inResults);
+	}
+	
+	/**
+	 * Adds an input done, it is written at the next commit
+	 * @param input
+	 */
+	public void add (String input) {
+		pending.append(input).append('\n');
+		nbPending++;
+	}
+	
+	/**
+	 * Writes the inputs added and forces them to the disk
+	 * @throws IOException
+	 */
+	public void commit () throws IOException {
+		if (nbPending == 0)
+			return;
+		
+		ByteBuffer bb = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+		while (bb.hasRemaining())
+			channel.write(bb);
+		channel.force(false);
+		pending.setLength(0);
+		nbPending = 0;
+	}
+	
+	/**
+	 * Closes the journal, inputs added since the last commit are dropped
+	 * @throws IOException
+	 */
+	@Override
+	public void close () throws IOException {
+		channel.close();
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	public Set<String> getDone() {
+		return done;
+	}
+
+	public int getNbPending() {
+		return nbPending;
+	}
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench;
+
+import java.io.IOException;
+
+/**
+ * Output format used by the ResultSink. Implementations are only called
+ * from the writer thread of the sink and do not need to be thread safe.
+ * @author roberto
+ *
+ */
+public interface ResultFormat {
+
+	/**
+	 * Writes the names of the columns
+	 * @param columns
+	 * @throws IOException
+	 */
+	public void writeHeader (String[] columns) throws IOException;
+
+	/**
+	 * Writes one result row
+	 * @param row
+	 * @throws IOException
+	 */
+	public void writeRow (Object[] row) throws IOException;
+
+	/**
+	 * Pushes buffered rows to the underlying stream
+	 * @throws IOException
+	 */
+	public void flush () throws IOException;
+
+	/**
+	 * Flushes and forces the rows written to the storage device
+	 * @throws IOException
+	 */
+	public void sync () throws IOException;
+
+	public void close () throws IOException;
+}
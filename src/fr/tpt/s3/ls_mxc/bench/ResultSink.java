@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous sink shared by the benchmark threads. Producers enqueue
+ * their rows in a lock-free queue and return immediately, a single writer
+ * thread drains the queue by batches into a ResultFormat. Buffered rows
+ * are flushed when the writer becomes idle (at most once per flush
+ * interval) and when the sink is closed.
+ * With a journal, the input of each row written is added to the journal
+ * and committed after the rows are forced to the disk, every syncBatch
+ * rows or flush interval (one fsync for a batch of rows).
+ * @author roberto
+ *
+ */
+public class ResultSink implements AutoCloseable {
+
+	private ResultFormat format;
+	private ConcurrentLinkedQueue<Object[]> queue;
+	private Thread writer;
+	private volatile boolean closed;
+	private volatile IOException error;
+
+	private Journal journal;
+	private int keyColumn;
+
+	private int batchSize;
+	private int syncBatch;
+	private long flushInterval;
+	private long nbRows;
+
+	public ResultSink (ResultFormat format, String[] columns) throws IOException {
+		this(format, columns, null, -1);
+	}
+
+	/**
+	 * @param format
+	 * @param columns
+	 * @param journal Journal of the inputs written (can be null)
+	 * @param keyColumn Column holding the input of a row
+	 * @throws IOException
+	 */
+	public ResultSink (ResultFormat format, String[] columns, Journal journal, int keyColumn) throws IOException {
+		this.format = format;
+		this.journal = journal;
+		this.keyColumn = keyColumn;
+		this.syncBatch = 256;
+		this.queue = new ConcurrentLinkedQueue<Object[]>();
+		this.batchSize = 1024;
+		this.flushInterval = TimeUnit.SECONDS.toNanos(1);
+		this.nbRows = 0;
+		this.closed = false;
+
+		format.writeHeader(columns);
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "result-sink");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Opens a sink on a file
+	 * @param file
+	 * @param binary Columnar binary output instead of CSV
+	 * @param columns
+	 * @return
+	 * @throws IOException
+	 */
+	public static ResultSink open (String file, boolean binary, String[] columns) throws IOException {
+		ResultFormat format = binary ? new ColumnarResultFormat(file) : new CsvResultFormat(file);
+		return new ResultSink(format, columns);
+	}
+
+	/**
+	 * Opens a sink on a file with a checkpoint journal. When the journal
+	 * is resumed, the results are reconciled with it (CSV only) and the
+	 * new rows are appended.
+	 * @param file
+	 * @param binary
+	 * @param columns
+	 * @param journal
+	 * @param keyColumn Column holding the input of a row
+	 * @return
+	 * @throws IOException
+	 */
+	public static ResultSink open (String file, boolean binary, String[] columns, Journal journal, int keyColumn) throws IOException {
+		boolean append = false;
+
+		if (journal.isResumed()) {
+			if (binary)
+				throw new IOException("ResultSink: only CSV results can be resumed");
+			if (Files.exists(Paths.get(file))) {
+				journal.retainDone(CsvResultFormat.reconcile(file, journal.getDone(), keyColumn));
+				append = Files.size(Paths.get(file)) > 0;
+			} else {
+				journal.getDone().clear();
+			}
+		}
+		ResultFormat format = binary ? new ColumnarResultFormat(file) : new CsvResultFormat(file, append);
+		return new ResultSink(format, columns, journal, keyColumn);
+	}
+
+	/**
+	 * Enqueues a result row. Never blocks.
+	 * @param row
+	 * @throws IOException if the writer thread failed or the sink is closed
+	 */
+	public void submit (Object... row) throws IOException {
+		if (error != null)
+			throw error;
+		if (closed)
+			throw new IOException("ResultSink: submit after close");
+
+		queue.offer(row);
+		LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Writer thread: drains by batches, flushes when idle
+	 */
+	private void drainLoop () {
+		long lastFlush = System.nanoTime();
+		long lastSync = lastFlush;
+		boolean dirty = false;
+
+		try {
+			while (true) {
+				int n = 0;
+				Object[] row;
+				while (n < batchSize && (row = queue.poll()) != null) {
+					format.writeRow(row);
+					if (journal != null)
+						journal.add(String.valueOf(row[keyColumn]));
+					n++;
+				}
+				nbRows += n;
+				dirty |= (n > 0);
+
+				if (journal != null && journal.getNbPending() > 0
+						&& (journal.getNbPending() >= syncBatch || System.nanoTime() - lastSync >= flushInterval)) {
+					checkpoint();
+					lastSync = lastFlush = System.nanoTime();
+					dirty = false;
+				}
+
+				if (n == 0) {
+					if (closed && queue.isEmpty())
+						break;
+					if (dirty && System.nanoTime() - lastFlush >= flushInterval) {
+						format.flush();
+						lastFlush = System.nanoTime();
+						dirty = false;
+					}
+					LockSupport.parkNanos(this, flushInterval);
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (RuntimeException | Error e) {
+			// A failing format must not leave the producers queueing rows
+			// that are never written
+			error = new IOException("ResultSink: writer thread failed", e);
+		}
+	}
+
+	/**
+	 * Forces the rows to the disk then commits their inputs to the journal
+	 * @throws IOException
+	 */
+	private void checkpoint () throws IOException {
+		format.sync();
+		journal.commit();
+	}
+
+	/**
+	 * Waits for the queued rows to be written and closes the output
+	 * and the journal
+	 * @throws IOException
+	 */
+	@Override
+	public void close () throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (error == null && journal != null)
+			checkpoint();
+		format.close();
+		if (journal != null)
+			journal.close();
+		if (error != null)
+			throw error;
+	}
+
+	/*
+	 * Getters & Setters
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getSyncBatch() {
+		return syncBatch;
+	}
+
+	public void setSyncBatch(int syncBatch) {
+		this.syncBatch = syncBatch;
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public long getNbRows() {
+		return nbRows;
+	}
+}
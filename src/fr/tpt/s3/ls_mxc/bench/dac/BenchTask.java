@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench.dac;
+
+import fr.tpt.s3.ls_mxc.util.DedupCache;
+
+/**
+ * Bench of one file, run by MainBench. run() reads the file then tests it,
+ * the I/O split calls the two steps on different threads.
+ * @author roberto
+ *
+ */
+public interface BenchTask extends Runnable {
+
+	/**
+	 * Reads the file
+	 */
+	public void parse ();
+
+	/**
+	 * Tests the systems read and sends the results to the sink
+	 */
+	public void bench ();
+
+	public void setDedup (DedupCache<Object[]> dedup);
+
+	public void setTimeLimit (long timeLimit);
+
+	public void setSlotLimit (long slotLimit);
+}
@@ -16,42 +16,77 @@
  *******************************************************************************/
 package fr.tpt.s3.ls_mxc.bench.dac;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import fr.tpt.s3.ls_mxc.alloc.Budget;
+import fr.tpt.s3.ls_mxc.alloc.BudgetExceededException;
 import fr.tpt.s3.ls_mxc.alloc.LS;
 import fr.tpt.s3.ls_mxc.alloc.MultiDAG;
 import fr.tpt.s3.ls_mxc.alloc.SchedulingException;
+import fr.tpt.s3.ls_mxc.bench.ResultSink;
 import fr.tpt.s3.ls_mxc.model.Actor;
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.parser.MCParser;
+import fr.tpt.s3.ls_mxc.util.CanonicalHash;
+import fr.tpt.s3.ls_mxc.util.DedupCache;
 import fr.tpt.s3.ls_mxc.util.MathMCDAG;
 
-public class BenchThread implements Runnable {
+public class BenchThread implements BenchTask {
+	
+	// Verdict written when the test did not finish within the budget
+	public static final int TIMEOUT = -1;
 
 	private Set<DAG> dags;
 	private MCParser mcp;
 	private String inputFile;
-	private String outputFile;
+	private ResultSink sink;
 	private boolean debug;
 	
 	private boolean schedFede;
 	
-	public BenchThread (String input, String output, boolean debug) {
+	// Results of the core search
+	private int fCores;
+	private int lCores;
+	private boolean schedLax;
+	// Laxity verdict with the minimum number of cores, null if not known yet
+	private Boolean schedLaxMin;
+	
+	// Budget of the file (0 for no limit) and tests that exceeded it
+	private long timeLimit;
+	private long slotLimit;
+	private boolean fedTimedOut;
+	private boolean laxTimedOut;
+	
+	// Results shared by isomorphic systems, null if not deduplicated
+	private DedupCache<Object[]> dedup;
+	
+	public BenchThread (String input, ResultSink sink, boolean debug) {
 		setInputFile(input);
 		dags = new HashSet<DAG>();
-		setOutputFile(output);
+		setSink(sink);
 		setDebug(debug);
 		setSchedFede(true);
 		mcp = new MCParser(inputFile, null, null, dags);
 	}
 	
+	/**
+	 * Bench on DAGs that have already been read, results are not sent
+	 * to a sink (see test())
+	 * @param input
+	 * @param dags
+	 * @param debug
+	 */
+	public BenchThread (String input, Set<DAG> dags, boolean debug) {
+		setInputFile(input);
+		setDags(dags);
+		setDebug(debug);
+		setSchedFede(true);
+	}
+	
 	/**
 	 * Internal function that calculates the minimum number of cores to use
 	 * with a federated scheduler
@@ -118,26 +153,30 @@ public class BenchThread implements Runnable {
 	}
 	
 	/**
-	 * Writes the results of the thread in the text file
-	 * @throws IOException 
+	 * Results of the tests, without the thread and the file
+	 * @return
 	 */
-	private synchronized void writeResults (int fCores, boolean fSched, int lCores, boolean lSched) throws IOException {
-		Writer output;
+	private Object[] results () {
 		double uDAGs = 0.0;
-		output = new BufferedWriter(new FileWriter(getOutputFile(), true));
-		
-		int outBFSched = 0;
-		if (isSchedFede())
-			outBFSched = 1;
-		int outBLSched = 0;
-		if (lSched)
-			outBLSched = 1;
 		
 		for (DAG d : dags)
 			uDAGs += d.getU();
 		
-		output.write(Thread.currentThread().getName()+"; "+getInputFile()+"; "+fCores+"; "+outBFSched+"; "+lCores+"; "+outBLSched+"; "+uDAGs+";\n");
-		output.close();
+		return new Object[] {fCores, verdict(isSchedFede(), fedTimedOut), lCores, verdict(schedLax, laxTimedOut), uDAGs};
+	}
+	
+	/**
+	 * Sends the results of the thread to the shared sink
+	 * @param res Results without the thread and the file
+	 * @throws IOException 
+	 */
+	private void writeResults (Object[] res) throws IOException {
+		Object row[] = new Object[res.length + 2];
+		
+		row[0] = Thread.currentThread().getName();
+		row[1] = getInputFile();
+		System.arraycopy(res, 0, row, 2, res.length);
+		sink.submit(row);
 	}
 	
 	/**
@@ -155,10 +194,24 @@ public class BenchThread implements Runnable {
 	}
 	
 	
+	/**
+	 * Value written for a verdict: 1 schedulable, 0 not schedulable,
+	 * TIMEOUT if the test did not finish
+	 * @param sched
+	 * @param timedOut
+	 * @return
+	 */
+	static int verdict (boolean sched, boolean timedOut) {
+		if (timedOut)
+			return TIMEOUT;
+		return sched ? 1 : 0;
+	}
+	
 	private boolean testFederated (DAG d, int cores) throws SchedulingException {
 		boolean ret = false;
 		
 		LS ls = new LS(d.getDeadline(), cores, d);
+		ls.setFeasibilityOnly(true);
 		
 		ret = ls.CheckBaruah();
 		
@@ -190,6 +243,9 @@ public class BenchThread implements Runnable {
 				while (!schedFed && addedQuota < maxQuota - d.getMinCores()) {
 					try {
 						schedFed = testFederated(d, d.getMinCores() + addedQuota);
+					} catch (BudgetExceededException be) {
+						fedTimedOut = true;
+						return ret;
 					} catch (SchedulingException se) {
 						addedQuota++;
 						if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] Incrementing the number of cores Federated: " + addedQuota);
@@ -216,13 +272,66 @@ public class BenchThread implements Runnable {
 	
 	@Override
 	public void run () {
-		int bcores = 0;
-		int lcores = 0;
-		
-		// Read the file
+		parse();
+		bench();
+	}
+	
+	/**
+	 * Reads the file
+	 */
+	public void parse () {
 		if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] Reading file "+inputFile);
 
 		mcp.readXML();
+	}
+	
+	/**
+	 * Runs the federated and laxity allocations on the DAGs read and
+	 * sends the results to the sink
+	 */
+	public void bench () {
+		Object res[] = null;
+		long key = 0;
+		
+		// An isomorphic system already tested gives its results
+		if (dedup != null) {
+			key = CanonicalHash.hash(dags, mcp.getNbCores());
+			res = dedup.claim(key);
+		}
+		if (res == null) {
+			try {
+				Budget.begin(timeLimit, slotLimit);
+				try {
+					test();
+				} finally {
+					Budget.end();
+				}
+				if (isTimedOut())
+					System.out.println("[BENCH "+Thread.currentThread().getName()+"] Timeout: "+getInputFile());
+				res = results();
+			} finally {
+				// Timeouts depend on the load, they are not reused
+				if (dedup != null)
+					dedup.publish(key, isTimedOut() ? null : res);
+			}
+		}
+			
+		// Write results
+		try {
+			writeResults(res);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Searches the number of cores needed by the federated and the laxity
+	 * approaches. The allocations are checked against the budget bound
+	 * to the thread, if any.
+	 */
+	public void test () {
+		int bcores = 0;
+		int lcores = 0;
 		
 		// Calc the min number of cores for Baruah
 		lcores = minCoresLaxity();
@@ -257,6 +366,14 @@ public class BenchThread implements Runnable {
 			maxFCores += (int) Math.ceil(uRestMax);
 		}
 		
+		// The budget is exhausted, the laxity search can not run
+		if (fedTimedOut) {
+			laxTimedOut = true;
+			fCores = maxFCores;
+			lCores = lcores;
+			return;
+		}
+		
 		// Maximum num of cores reached but still non schedulable
 		if (!isSchedFede())
 			System.out.println("[BENCH "+Thread.currentThread().getName()+"] Non-schedulable with Federated approach and " + maxFCores);
@@ -266,25 +383,32 @@ public class BenchThread implements Runnable {
 		if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] Minimum number of cores Laxity = " + lcores+"; max cores = "+maxLCores);
 		
 		// Allocate with our method.
-		boolean schedLax = false;
+		schedLax = false;
 		MultiDAG mdag = new MultiDAG(dags, lcores, false);
+		mdag.setFeasibilityOnly(true);
+		
+		// The first try may already have been done
+		if (schedLaxMin != null) {
+			if (schedLaxMin.booleanValue())
+				schedLax = true;
+			else
+				lcores++;
+		}
 		
 		while (!schedLax && lcores <= maxLCores) {
 			try {
 				mdag.setNbCores(lcores);
 				schedLax = mdag.allocAll();
+			} catch (BudgetExceededException be) {
+				laxTimedOut = true;
+				break;
 			} catch (SchedulingException se) {
 				lcores++;
 				if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] LAXITY incrementing number of cores: " + lcores);
 			}
 		}
-			
-		// Write results
-		try {
-			writeResults(maxFCores, schedFede, lcores, schedLax);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		fCores = maxFCores;
+		lCores = lcores;
 	}
 	
 	/*
@@ -322,12 +446,12 @@ public class BenchThread implements Runnable {
 		this.debug = debug;
 	}
 
-	public String getOutputFile() {
-		return outputFile;
+	public ResultSink getSink() {
+		return sink;
 	}
 
-	public void setOutputFile(String outputFile) {
-		this.outputFile = outputFile;
+	public void setSink(ResultSink sink) {
+		this.sink = sink;
 	}
 
 	public boolean isSchedFede() {
@@ -337,4 +461,60 @@ public class BenchThread implements Runnable {
 	public void setSchedFede(boolean schedFede) {
 		this.schedFede = schedFede;
 	}
+
+	public int getfCores() {
+		return fCores;
+	}
+
+	public int getlCores() {
+		return lCores;
+	}
+
+	public boolean isSchedLax() {
+		return schedLax;
+	}
+
+	public boolean isFedTimedOut() {
+		return fedTimedOut;
+	}
+
+	public boolean isLaxTimedOut() {
+		return laxTimedOut;
+	}
+
+	public boolean isTimedOut() {
+		return fedTimedOut || laxTimedOut;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public long getSlotLimit() {
+		return slotLimit;
+	}
+
+	public void setSlotLimit(long slotLimit) {
+		this.slotLimit = slotLimit;
+	}
+
+	public Boolean getSchedLaxMin() {
+		return schedLaxMin;
+	}
+
+	public void setSchedLaxMin(Boolean schedLaxMin) {
+		this.schedLaxMin = schedLaxMin;
+	}
+
+	public DedupCache<Object[]> getDedup() {
+		return dedup;
+	}
+
+	public void setDedup(DedupCache<Object[]> dedup) {
+		this.dedup = dedup;
+	}
 }
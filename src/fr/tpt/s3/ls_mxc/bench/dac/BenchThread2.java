@@ -1,35 +1,46 @@
 package fr.tpt.s3.ls_mxc.bench.dac;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.util.HashSet;
 import java.util.Set;
 
+import fr.tpt.s3.ls_mxc.alloc.Budget;
+import fr.tpt.s3.ls_mxc.alloc.BudgetExceededException;
 import fr.tpt.s3.ls_mxc.alloc.LS;
 import fr.tpt.s3.ls_mxc.alloc.MultiDAG;
 import fr.tpt.s3.ls_mxc.alloc.SchedulingException;
+import fr.tpt.s3.ls_mxc.bench.ResultSink;
 import fr.tpt.s3.ls_mxc.model.Actor;
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.parser.MCParser;
+import fr.tpt.s3.ls_mxc.util.CanonicalHash;
+import fr.tpt.s3.ls_mxc.util.DedupCache;
 import fr.tpt.s3.ls_mxc.util.MathMCDAG;
 
-public class BenchThread2 implements Runnable {
+public class BenchThread2 implements BenchTask {
 	
 	private Set<DAG> dags;
 	private MCParser mcp;
 	private String inputFile;
-	private String outputFile;
+	private ResultSink sink;
 	private boolean debug;
 	
 	private boolean schedFede;
 	private boolean schedLax;
 	
-	public BenchThread2 (String input, String output, boolean debug) {
+	// Budget of the file (0 for no limit) and tests that exceeded it
+	private long timeLimit;
+	private long slotLimit;
+	private boolean fedTimedOut;
+	private boolean laxTimedOut;
+	
+	// Results shared by isomorphic systems, null if not deduplicated
+	private DedupCache<Object[]> dedup;
+	
+	public BenchThread2 (String input, ResultSink sink, boolean debug) {
 		setInputFile(input);
 		dags = new HashSet<DAG>();
-		setOutputFile(output);
+		setSink(sink);
 		setDebug(debug);
 		setSchedFede(false);
 		setSchedLax(true);
@@ -37,11 +48,26 @@ public class BenchThread2 implements Runnable {
 	}
 	
 	/**
-	 * Internal function that calculates the minimum number of cores
+	 * Bench on DAGs that have already been read, results are not sent
+	 * to a sink (see test())
+	 * @param input
+	 * @param dags
+	 * @param debug
+	 */
+	public BenchThread2 (String input, Set<DAG> dags, boolean debug) {
+		setInputFile(input);
+		setDags(dags);
+		setDebug(debug);
+		setSchedFede(false);
+		setSchedLax(true);
+	}
+	
+	/**
+	 * Calculates the minimum number of cores
 	 * to use with a laxity based scheduler
 	 * @return
 	 */
-	private int minCoresLaxity () {
+	public int minCoresLaxity () {
 		int ret = 0;
 		int hPeriod = 0;
 		int[] input = new int[getDags().size()];
@@ -89,26 +115,30 @@ public class BenchThread2 implements Runnable {
 	}
 	
 	/**
-	 * Writes the results of the thread in the text file
-	 * @throws IOException 
+	 * Results of the tests, without the thread and the file
+	 * @return
 	 */
-	private synchronized void writeResults (boolean fSched, boolean lSched) throws IOException {
-		Writer output;
+	private Object[] results () {
 		double uDAGs = 0.0;
-		output = new BufferedWriter(new FileWriter(getOutputFile(), true));
-		
-		int outBFSched = 0;
-		if (isSchedFede())
-			outBFSched = 1;
-		int outBLSched = 0;
-		if (lSched)
-			outBLSched = 1;
 		
 		for (DAG d : dags)
 			uDAGs += d.getU();
 		
-		output.write(Thread.currentThread().getName()+"; "+getInputFile()+"; "+outBFSched+"; "+outBLSched+"; "+uDAGs+";\n");
-		output.close();
+		return new Object[] {BenchThread.verdict(isSchedFede(), fedTimedOut), BenchThread.verdict(schedLax, laxTimedOut), uDAGs};
+	}
+	
+	/**
+	 * Sends the results of the thread to the shared sink
+	 * @param res Results without the thread and the file
+	 * @throws IOException 
+	 */
+	private void writeResults (Object[] res) throws IOException {
+		Object row[] = new Object[res.length + 2];
+		
+		row[0] = Thread.currentThread().getName();
+		row[1] = getInputFile();
+		System.arraycopy(res, 0, row, 2, res.length);
+		sink.submit(row);
 	}
 	
 	/**
@@ -143,8 +173,12 @@ public class BenchThread2 implements Runnable {
 		
 		for (DAG d : clusteredDAGs) {
 			LS ls = new LS(d.getDeadline(), d.getMinCores(), d);
+			ls.setFeasibilityOnly(true);
 			try {
 				ls.CheckBaruah();
+			} catch (BudgetExceededException be) {
+				fedTimedOut = true;
+				return;
 			} catch (SchedulingException se) {
 				setSchedFede(false);
 				return;
@@ -155,37 +189,99 @@ public class BenchThread2 implements Runnable {
 	
 	@Override
 	public void run() {
+		parse();
+		bench();
+	}
+	
+	/**
+	 * Reads the file
+	 */
+	public void parse () {
 		mcp.readXML();
-		int nbCores = minCoresLaxity();
-		
-		// Test federated approach		
-		if (allDAGsEDF(dags)) {
-			setSchedFede(true);
-			if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] FEDERATED all DAGs with EDF.");
-		} else {
-			testFederated(nbCores);
-		}
+	}
 	
-		// Test laxity
-		MultiDAG mdag = new MultiDAG(dags, nbCores, false);
+	/**
+	 * Tests the schedulability of the DAGs read and sends the results to the sink
+	 */
+	public void bench () {
+		Object res[] = null;
+		long key = 0;
 		
-		try {
-			mdag.allocAll();
-		} catch (SchedulingException se) {
-			setSchedLax(false);
-			if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] LAXITY non schedulable with "+nbCores+" cores.");
+		// An isomorphic system already tested gives its results
+		if (dedup != null) {
+			key = CanonicalHash.hash(dags, mcp.getNbCores());
+			res = dedup.claim(key);
+		}
+		if (res == null) {
+			try {
+				int nbCores;
+				
+				Budget.begin(timeLimit, slotLimit);
+				try {
+					nbCores = test(true, true);
+				} finally {
+					Budget.end();
+				}
+				if (fedTimedOut || laxTimedOut)
+					System.out.println("[BENCH "+Thread.currentThread().getName()+"] Timeout: "+getInputFile());
+				if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] Tested with "+nbCores+" cores.");
+				res = results();
+			} finally {
+				// Timeouts depend on the load, they are not reused
+				if (dedup != null)
+					dedup.publish(key, (fedTimedOut || laxTimedOut) ? null : res);
+			}
 		}
 		
 		// Write results
 		try {
-			writeResults(schedFede, schedLax);
-			if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] Writing results "+nbCores+" cores.");
+			writeResults(res);
 
 		} catch (IOException ie) {
 			ie.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Tests the schedulability of the DAGs with the minimum number of
+	 * cores of the laxity approach. The allocations are checked against
+	 * the budget bound to the thread, if any.
+	 * @param fede Test the federated approach
+	 * @param lax Test the laxity approach
+	 * @return The number of cores
+	 */
+	public int test (boolean fede, boolean lax) {
+		int nbCores = minCoresLaxity();
+		
+		// Test federated approach		
+		if (fede) {
+			if (allDAGsEDF(dags)) {
+				setSchedFede(true);
+				if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] FEDERATED all DAGs with EDF.");
+			} else {
+				testFederated(nbCores);
+			}
+		}
+	
+		// Test laxity, unless the budget is already exhausted
+		if (lax && fedTimedOut) {
+			laxTimedOut = true;
+		} else if (lax) {
+			MultiDAG mdag = new MultiDAG(dags, nbCores, false);
+			mdag.setFeasibilityOnly(true);
+			
+			try {
+				mdag.allocAll();
+			} catch (BudgetExceededException be) {
+				laxTimedOut = true;
+			} catch (SchedulingException se) {
+				setSchedLax(false);
+				if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] LAXITY non schedulable with "+nbCores+" cores.");
+			}
+		}
+		return nbCores;
+	}
+	
 	/*
 	 * Getters & Setters
 	 */
@@ -229,12 +325,12 @@ public class BenchThread2 implements Runnable {
 		this.schedFede = schedFede;
 	}
 
-	public String getOutputFile() {
-		return outputFile;
+	public ResultSink getSink() {
+		return sink;
 	}
 
-	public void setOutputFile(String outputFile) {
-		this.outputFile = outputFile;
+	public void setSink(ResultSink sink) {
+		this.sink = sink;
 	}
 
 	public boolean isSchedLax() {
@@ -245,5 +341,35 @@ public class BenchThread2 implements Runnable {
 		this.schedLax = schedLax;
 	}
 
+	public boolean isFedTimedOut() {
+		return fedTimedOut;
+	}
+
+	public boolean isLaxTimedOut() {
+		return laxTimedOut;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public long getSlotLimit() {
+		return slotLimit;
+	}
+
+	public void setSlotLimit(long slotLimit) {
+		this.slotLimit = slotLimit;
+	}
+
+	public DedupCache<Object[]> getDedup() {
+		return dedup;
+	}
 
+	public void setDedup(DedupCache<Object[]> dedup) {
+		this.dedup = dedup;
+	}
 }
@@ -17,9 +17,8 @@
 package fr.tpt.s3.ls_mxc.bench.dac;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
@@ -30,6 +29,17 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import fr.tpt.s3.ls_mxc.alloc.Budget;
+import fr.tpt.s3.ls_mxc.bench.Journal;
+import fr.tpt.s3.ls_mxc.bench.ResultSink;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+import fr.tpt.s3.ls_mxc.trace.Tracer;
+import fr.tpt.s3.ls_mxc.util.BoundedExecutor;
+import fr.tpt.s3.ls_mxc.util.DedupCache;
+import fr.tpt.s3.ls_mxc.util.InputCorpus;
+import fr.tpt.s3.ls_mxc.util.MemoryGovernor;
+import fr.tpt.s3.ls_mxc.util.SplitExecutor;
+
 /**
  * This benchmarks compares us to the state of the art techniques
  * of multiDAG scheduling for MxC systems
@@ -37,17 +47,155 @@ import org.apache.commons.cli.ParseException;
  *
  */
 public class MainBench {
+	
+	// Column of the input file in the results, used by the journals
+	private static final int FILE_COLUMN = 1;
+	
+	/**
+	 * Prints the share of the files that reused the results of an
+	 * isomorphic system
+	 * @param name
+	 * @param dedup
+	 */
+	private static void printDedup (String name, DedupCache<Object[]> dedup) {
+		if (dedup != null)
+			System.out.println("[BENCH Main] Dedup "+name+": "+dedup.getHits()+" of "+dedup.getLookups()
+					+" file(s) reused a result ("+String.format("%.1f", 100 * dedup.getRatio())+"%).");
+	}
+	
+	/**
+	 * Prints the number of files skipped by a resumed campaign
+	 * @param journal
+	 */
+	private static void printResume (Journal journal) {
+		if (journal.isResumed())
+			System.out.println("[BENCH Main] Resuming "+journal.getFile()+": "+journal.getDone().size()+" file(s) already done.");
+	}
+	
+	/**
+	 * Releases the memory charged for a file once its steps are done
+	 * @param governor
+	 * @param cost
+	 * @return
+	 */
+	private static Runnable releaser (final MemoryGovernor governor, final long cost) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				governor.release(cost);
+			}
+		};
+	}
+	
+	/**
+	 * Exports the trace and the metrics asked and reports the timeouts
+	 * @param cmd
+	 * @throws IOException
+	 */
+	private static void finish (CommandLine cmd) throws IOException {
+		if (cmd.hasOption("trace"))
+			Tracer.dump(cmd.getOptionValue("trace"));
+		if (cmd.hasOption("metrics"))
+			Metrics.export(cmd.getOptionValue("metrics"));
+		if (Budget.getNbExceeded() > 0)
+			System.out.println("[BENCH Main] "+Budget.getNbExceeded()+" test run(s) timed out.");
+		System.out.println("[BENCH Main] DONE");
+	}
+	
+	/**
+	 * Creates the bench of a file
+	 */
+	private interface BenchFactory {
+		public BenchTask create (String file);
+	}
+	
+	/**
+	 * Settings shared by the passes of a campaign
+	 */
+	private static class Campaign {
+		
+		private InputCorpus corpus;
+		private MemoryGovernor governor;
+		private int nbJobs;
+		private boolean ioSplit;
+		private long timeLimit;
+		private long slotLimit;
+		
+		public Campaign (InputCorpus corpus, MemoryGovernor governor, int nbJobs, boolean ioSplit, long timeLimit, long slotLimit) {
+			this.corpus = corpus;
+			this.governor = governor;
+			this.nbJobs = nbJobs;
+			this.ioSplit = ioSplit;
+			this.timeLimit = timeLimit;
+			this.slotLimit = slotLimit;
+		}
+		
+		/**
+		 * Benches the files of the corpus that the journal does not skip.
+		 * Each file is charged to the governor until its bench is done.
+		 * With the I/O split, files are read apart from the tests.
+		 * @param journal
+		 * @param dedup Results shared by isomorphic systems (can be null)
+		 * @param factory
+		 * @throws InterruptedException
+		 */
+		public void run (Journal journal, DedupCache<Object[]> dedup, BenchFactory factory) throws InterruptedException {
+			SplitExecutor se = ioSplit ? new SplitExecutor(nbJobs) : null;
+			ExecutorService executor = ioSplit ? null : BoundedExecutor.newFixedThreadPool(nbJobs);
+			
+			for (String f : corpus) {
+				if (journal.skip(f))
+					continue;
+				final BenchTask bt = factory.create(f);
+				bt.setDedup(dedup);
+				bt.setTimeLimit(timeLimit);
+				bt.setSlotLimit(slotLimit);
+				long cost = governor.estimate(f);
+				governor.acquire(cost);
+				
+				if (!ioSplit) {
+					executor.execute(governor.releasing(bt, cost));
+					continue;
+				}
+				se.submit(f, releaser(governor, cost), SplitExecutor.io(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						bt.parse();
+						return true;
+					}
+				}), SplitExecutor.cpu(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						bt.bench();
+						return true;
+					}
+				}));
+			}
+			
+			if (ioSplit) {
+				se.awaitAll();
+			} else {
+				executor.shutdown();
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
 
 	public static void main (String[] args) throws IOException, InterruptedException {
 		
 		// Command line options
 		Options options = new Options();
 		
-		Option input = new Option("i", "input", true, "MC-DAG XML models.");
-		input.setRequired(true);
+		Option input = new Option("i", "input", true, "MC-DAG XML models: files, directories or quoted globs (e.g. 'bench/*.xml').");
+		input.setRequired(false);
 		input.setArgs(Option.UNLIMITED_VALUES);
 		options.addOption(input);
 		
+		Option manifestOpt = new Option("mf", "manifest", true, "Text file listing the MC-DAG XML models, one per line.");
+		manifestOpt.setRequired(false);
+		manifestOpt.setArgs(Option.UNLIMITED_VALUES);
+		options.addOption(manifestOpt);
+		
 		Option output = new Option("o", "output", true, "File where results have to be written.");
 		output.setRequired(true);
 		options.addOption(output);
@@ -56,6 +204,53 @@ public class MainBench {
 		jobs.setRequired(false);
 		options.addOption(jobs);
 		
+		Option timeOpt = new Option("tl", "time-limit", true, "Time budget in ms for the tests of each file, unfinished tests are written as -1.");
+		timeOpt.setRequired(false);
+		options.addOption(timeOpt);
+		
+		Option slotOpt = new Option("sl", "slot-limit", true, "Budget of slots allocated by the tests of each file, unfinished tests are written as -1.");
+		slotOpt.setRequired(false);
+		options.addOption(slotOpt);
+		
+		Option memOpt = new Option("mb", "memory-budget", true, "Heap in MB for the files in flight, estimated from their size (default: half of the maximum heap).");
+		memOpt.setRequired(false);
+		options.addOption(memOpt);
+		
+		Option oldGenOpt = new Option("og", "old-gen-limit", true, "Stop submitting files while the old generation is above this occupancy (default: 0.8).");
+		oldGenOpt.setRequired(false);
+		options.addOption(oldGenOpt);
+		
+		Option resumeOpt = new Option("r", "resume", false, "Resume a campaign: skip the files in the journals of the outputs (<output>.journal) and keep their rows (CSV only).");
+		resumeOpt.setRequired(false);
+		options.addOption(resumeOpt);
+		
+		Option dedupOpt = new Option("dd", "dedup", false, "Reuse the results of a recently tested isomorphic system (same canonical hash). "
+				+ "Timeouts are not reused. Schedulers break ties by actor id, so reused results may differ from the ones of a full test; "
+				+ "with -j > 1 the twin tested first is not deterministic. Reused rows are not marked in the results file.");
+		dedupOpt.setRequired(false);
+		options.addOption(dedupOpt);
+		
+		Option ioOpt = new Option("io", "io-split", false, "Read files on virtual threads (cached threads before Java 21) and allocate on a pool sized to the cores (or -j).");
+		ioOpt.setRequired(false);
+		options.addOption(ioOpt);
+		
+		Option singleOpt = new Option("s", "single-pass", true, "Read each file once and write one row with all the tests: comma separated list of fed, lax, hlfet and cores (default: all).");
+		singleOpt.setRequired(false);
+		singleOpt.setOptionalArg(true);
+		options.addOption(singleOpt);
+		
+		Option format = new Option("f", "format", true, "Output format: csv (default) or bin (columnar binary).");
+		format.setRequired(false);
+		options.addOption(format);
+		
+		Option metricsOpt = new Option("m", "metrics", true, "Export timers and counters to a file (JSON, or CSV with a .csv extension).");
+		metricsOpt.setRequired(false);
+		options.addOption(metricsOpt);
+		
+		Option traceOpt = new Option("t", "trace", true, "Record allocation decisions into a binary trace file (see TraceDecoder).");
+		traceOpt.setRequired(false);
+		options.addOption(traceOpt);
+		
 		Option debug = new Option("d", "debug", false, "Debug logs.");
 		debug.setRequired(false);
 		options.addOption(debug);
@@ -73,56 +268,113 @@ public class MainBench {
 			return;
 		}
 		
-		String inputFilePath[] = cmd.getOptionValues("input");
+		if (!cmd.hasOption("input") && !cmd.hasOption("manifest")) {
+			System.err.println("Missing input: -i or -mf");
+			formatter.printHelp("Benchmarks MultiDAG", options);
+			System.exit(1);
+			return;
+		}
+		
+		// Files are enumerated lazily, once per pass
+		InputCorpus corpus = new InputCorpus(cmd.getOptionValues("input"), cmd.getOptionValues("manifest"));
 		String outputFilePath = cmd.getOptionValue("output");
-		boolean boolDebug = cmd.hasOption("debug");
+		final boolean boolDebug = cmd.hasOption("debug");
+		boolean binary = cmd.hasOption("format") && cmd.getOptionValue("format").contentEquals("bin");
+		boolean ioSplit = cmd.hasOption("io-split");
+		boolean resume = cmd.hasOption("resume");
+		boolean bDedup = cmd.hasOption("dedup");
+		
+		if (resume && binary) {
+			System.err.println("Only CSV results can be resumed");
+			System.exit(1);
+			return;
+		}
 		int nbJobs = 1;
-		int nbFiles = inputFilePath.length;
 				
 		if (cmd.hasOption("jobs"))
 			nbJobs = Integer.parseInt(cmd.getOptionValue("jobs"));
+		else if (ioSplit)
+			nbJobs = Runtime.getRuntime().availableProcessors();
+		
+		long timeLimit = 0;
+		if (cmd.hasOption("time-limit"))
+			timeLimit = Long.parseLong(cmd.getOptionValue("time-limit"));
+		long slotLimit = 0;
+		if (cmd.hasOption("slot-limit"))
+			slotLimit = Long.parseLong(cmd.getOptionValue("slot-limit"));
+		
+		long memBudget = Runtime.getRuntime().maxMemory() / 2;
+		if (cmd.hasOption("memory-budget"))
+			memBudget = Long.parseLong(cmd.getOptionValue("memory-budget")) * 1024 * 1024;
+		double oldGenLimit = 0.8;
+		if (cmd.hasOption("old-gen-limit"))
+			oldGenLimit = Double.parseDouble(cmd.getOptionValue("old-gen-limit"));
+		final MemoryGovernor governor = new MemoryGovernor(memBudget, oldGenLimit);
+		
+		if (cmd.hasOption("trace"))
+			Tracer.setEnabled(true);
+		
+		Campaign campaign = new Campaign(corpus, governor, nbJobs, ioSplit, timeLimit, slotLimit);
+		
+		if (cmd.hasOption("single-pass")) {
+			final int tests = UnifiedBenchThread.parseTests(cmd.getOptionValue("single-pass"));
+			Journal journal = new Journal(outputFilePath+".journal", resume);
+			final ResultSink sink = ResultSink.open(outputFilePath, binary, UnifiedBenchThread.columns(tests), journal, FILE_COLUMN);
+			printResume(journal);
+			DedupCache<Object[]> dedup = bDedup ? new DedupCache<Object[]>() : null;
+			
+			campaign.run(journal, dedup, new BenchFactory() {
+				@Override
+				public BenchTask create(String file) {
+					return new UnifiedBenchThread(file, sink, tests, boolDebug);
+				}
+			});
+			sink.close();
+			printDedup(outputFilePath, dedup);
+			finish(cmd);
+			return;
+		}
 		
 		/*
-		 * Write the fields at the beginning of the output file
+		 * The header is written by the sink, results are sent to
+		 * it by the threads and written asynchronously
 		 */
-		PrintWriter writer = new PrintWriter(outputFilePath, "UTF-8");
-		writer.println("Thread; File; Federated; FSched (?) ; Laxity; LSched (?); Utilization");
-		writer.close();
+		Journal journal = new Journal(outputFilePath+".journal", resume);
+		final ResultSink sink = ResultSink.open(outputFilePath, binary,
+				new String[] {"Thread", "File", "Federated", "FSched (?) ", "Laxity", "LSched (?)", "Utilization"},
+				journal, FILE_COLUMN);
+		printResume(journal);
+		DedupCache<Object[]> dedup = bDedup ? new DedupCache<Object[]>() : null;
 		
 		/*
 		 *  While files need to be allocated
 		 *  run the tests in the pool of threads
 		 */
+		campaign.run(journal, dedup, new BenchFactory() {
+			@Override
+			public BenchTask create(String file) {
+				return new BenchThread(file, sink, boolDebug);
+			}
+		});
+		sink.close();
 		
-		int i_files = 0;
-		ExecutorService executor = Executors.newFixedThreadPool(nbJobs);
+		String outFile2 = outputFilePath.substring(0, outputFilePath.lastIndexOf('.')).concat(binary ? "-schedulability.bin" : "-schedulability.csv");
+		Journal journal2 = new Journal(outFile2+".journal", resume);
+		final ResultSink sink2 = ResultSink.open(outFile2, binary,
+				new String[] {"Thread", "File", "FSched (?) ", "LSched (?)", "Utilization"},
+				journal2, FILE_COLUMN);
+		printResume(journal2);
+		DedupCache<Object[]> dedup2 = bDedup ? new DedupCache<Object[]>() : null;
 		
-		while (i_files != nbFiles) {
-			BenchThread bt = new BenchThread(inputFilePath[i_files], outputFilePath, boolDebug);
-			
-			executor.execute(bt);
-			i_files++;
-		}
-		executor.shutdown();
-		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-		
-		int i_files2 = 0;
-		String outFile2 = outputFilePath.substring(0, outputFilePath.lastIndexOf('.')).concat("-schedulability.csv");
-		writer = new PrintWriter(outFile2, "UTF-8");
-		writer.println("Thread; File; FSched (?) ; LSched (?); Utilization");
-		writer.close();
-		
-		ExecutorService executor2 = Executors.newFixedThreadPool(nbJobs);
-		while (i_files2 != nbFiles) {
-			BenchThread2 bt2 = new BenchThread2(inputFilePath[i_files2], outFile2, boolDebug);
-			
-			executor2.execute(bt2);
-			i_files2++;
-		}
-		
-		executor2.shutdown();
-		executor2.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-
-		System.out.println("[BENCH Main] DONE");
+		campaign.run(journal2, dedup2, new BenchFactory() {
+			@Override
+			public BenchTask create(String file) {
+				return new BenchThread2(file, sink2, boolDebug);
+			}
+		});
+		sink2.close();
+		printDedup(outputFilePath, dedup);
+		printDedup(outFile2, dedup2);
+		finish(cmd);
 	}
 }
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench.dac;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import fr.tpt.s3.ls_mxc.bench.ResultSink;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+
+/**
+ * Sensitivity analysis: breakdown scaling factor and utilization of
+ * each system for MultiDAG, LS and the federated approach
+ * @author roberto
+ *
+ */
+public class MainSensitivity {
+
+	public static void main (String[] args) throws IOException, InterruptedException {
+		
+		// Command line options
+		Options options = new Options();
+		
+		Option input = new Option("i", "input", true, "MC-DAG XML models.");
+		input.setRequired(true);
+		input.setArgs(Option.UNLIMITED_VALUES);
+		options.addOption(input);
+		
+		Option output = new Option("o", "output", true, "File where results have to be written.");
+		output.setRequired(true);
+		options.addOption(output);
+		
+		Option jobs = new Option("j", "jobs", true, "Number of threads to be launched.");
+		jobs.setRequired(false);
+		options.addOption(jobs);
+		
+		Option scaleOpt = new Option("s", "scale", true, "Budgets to scale: lo, hi or both (default).");
+		scaleOpt.setRequired(false);
+		options.addOption(scaleOpt);
+		
+		Option actorOpt = new Option("a", "per-actor", false, "Also search the factor of each actor alone.");
+		actorOpt.setRequired(false);
+		options.addOption(actorOpt);
+		
+		Option coresOpt = new Option("c", "cores", true, "Number of cores (default: minimum for the unscaled system).");
+		coresOpt.setRequired(false);
+		options.addOption(coresOpt);
+		
+		Option epsOpt = new Option("e", "epsilon", true, "Precision of the binary search (default 0.01).");
+		epsOpt.setRequired(false);
+		options.addOption(epsOpt);
+		
+		Option maxOpt = new Option("x", "max-factor", true, "Largest factor tested (default 16).");
+		maxOpt.setRequired(false);
+		options.addOption(maxOpt);
+		
+		Option format = new Option("f", "format", true, "Output format: csv (default) or bin (columnar binary).");
+		format.setRequired(false);
+		options.addOption(format);
+		
+		Option metricsOpt = new Option("m", "metrics", true, "Export timers and counters to a file (JSON, or CSV with a .csv extension).");
+		metricsOpt.setRequired(false);
+		options.addOption(metricsOpt);
+		
+		Option debug = new Option("d", "debug", false, "Debug logs.");
+		debug.setRequired(false);
+		options.addOption(debug);
+		
+		CommandLineParser parser = new DefaultParser();
+		HelpFormatter formatter = new HelpFormatter();
+		CommandLine cmd;
+		
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e ) {
+			System.err.println(e.getMessage());
+			formatter.printHelp("Sensitivity analysis", options);
+			System.exit(1);
+			return;
+		}
+		
+		String inputFilePath[] = cmd.getOptionValues("input");
+		String outputFilePath = cmd.getOptionValue("output");
+		boolean boolDebug = cmd.hasOption("debug");
+		boolean binary = cmd.hasOption("format") && cmd.getOptionValue("format").contentEquals("bin");
+		boolean perActor = cmd.hasOption("per-actor");
+		int nbJobs = 1;
+		int nbCores = 0;
+		double epsilon = 0.01;
+		double maxFactor = 16.0;
+		short scale = SensitivityThread.SCALE_BOTH;
+		
+		if (cmd.hasOption("jobs"))
+			nbJobs = Integer.parseInt(cmd.getOptionValue("jobs"));
+		if (cmd.hasOption("cores"))
+			nbCores = Integer.parseInt(cmd.getOptionValue("cores"));
+		if (cmd.hasOption("epsilon"))
+			epsilon = Double.parseDouble(cmd.getOptionValue("epsilon"));
+		if (cmd.hasOption("max-factor"))
+			maxFactor = Double.parseDouble(cmd.getOptionValue("max-factor"));
+		if (cmd.hasOption("scale")) {
+			String s = cmd.getOptionValue("scale");
+			if (s.equalsIgnoreCase("lo"))
+				scale = SensitivityThread.SCALE_LO;
+			else if (s.equalsIgnoreCase("hi"))
+				scale = SensitivityThread.SCALE_HI;
+			else if (!s.equalsIgnoreCase("both")) {
+				System.err.println("Unknown scale "+s);
+				formatter.printHelp("Sensitivity analysis", options);
+				System.exit(1);
+				return;
+			}
+		}
+		if (epsilon <= 0 || maxFactor <= 0) {
+			System.err.println("Epsilon and the maximum factor have to be positive");
+			System.exit(1);
+			return;
+		}
+		
+		ResultSink sink = ResultSink.open(outputFilePath, binary,
+				new String[] {"Thread", "File", "Heuristic", "Actor", "Factor", "Breakdown U", "Probes"});
+		
+		// Systems are independent: one task per file
+		ExecutorService executor = Executors.newFixedThreadPool(nbJobs);
+		for (String f : inputFilePath)
+			executor.execute(new SensitivityThread(f, sink, scale, perActor, nbCores, epsilon, maxFactor, boolDebug));
+		
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		sink.close();
+		
+		if (cmd.hasOption("metrics"))
+			Metrics.export(cmd.getOptionValue("metrics"));
+		System.out.println("[SENSITIVITY Main] DONE");
+	}
+}
@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench.dac;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.tpt.s3.ls_mxc.alloc.IncrementalLS;
+import fr.tpt.s3.ls_mxc.alloc.LS;
+import fr.tpt.s3.ls_mxc.alloc.ModelDelta;
+import fr.tpt.s3.ls_mxc.alloc.MultiDAG;
+import fr.tpt.s3.ls_mxc.alloc.SchedulingException;
+import fr.tpt.s3.ls_mxc.bench.ResultSink;
+import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.model.DAG;
+import fr.tpt.s3.ls_mxc.parser.MCParser;
+import fr.tpt.s3.ls_mxc.util.MathMCDAG;
+
+/**
+ * Sensitivity analysis of a system: binary search of the largest factor
+ * the budgets can be scaled by before the system becomes unschedulable
+ * with MultiDAG, LS (federated clusters allocated with LS) and the
+ * federated approach. The search is done for the whole system or for
+ * each actor alone.
+ * @author roberto
+ *
+ */
+public class SensitivityThread implements Runnable {
+	
+	public static final short SCALE_LO = 0;
+	public static final short SCALE_HI = 1;
+	public static final short SCALE_BOTH = 2;
+	
+	private static final String HEURISTICS[] = {"MultiDAG", "LS", "Federated"};
+	private static final int MULTIDAG = 0;
+	private static final int LSCHED = 1;
+	private static final int FEDERATED = 2;
+
+	private Set<DAG> dags;
+	private MCParser mcp;
+	private String inputFile;
+	private ResultSink sink;
+	private boolean debug;
+	
+	private short scale;
+	private boolean perActor;
+	private int nbCores;
+	private double epsilon;
+	private double maxFactor;
+	
+	// Budgets of the model as read from the file: {C_LO, C_HI}
+	private Map<Actor, int[]> base;
+	
+	// Structures kept from one probe to the next
+	private MultiDAG mdag;
+	private Map<DAG, IncrementalLS> incLS;
+	private Map<DAG, Integer> incCores;
+	private Map<DAG, int[][]> incBudgets;
+	private int probes;
+	
+	public SensitivityThread (String input, ResultSink sink, short scale, boolean perActor, int nbCores,
+			double epsilon, double maxFactor, boolean debug) {
+		setInputFile(input);
+		dags = new HashSet<DAG>();
+		setSink(sink);
+		setScale(scale);
+		setPerActor(perActor);
+		setNbCores(nbCores);
+		setEpsilon(epsilon);
+		setMaxFactor(maxFactor);
+		setDebug(debug);
+		mcp = new MCParser(inputFile, null, null, dags);
+		base = new IdentityHashMap<Actor, int[]>();
+		incLS = new IdentityHashMap<DAG, IncrementalLS>();
+		incCores = new IdentityHashMap<DAG, Integer>();
+		incBudgets = new IdentityHashMap<DAG, int[][]>();
+	}
+	
+	/**
+	 * Minimum number of cores for the unscaled system (same as the benchmarks)
+	 * @return
+	 */
+	private int minCoresLaxity () {
+		int[] input = new int[dags.size()];
+		int i = 0;
+		double uLO = 0.0;
+		double uHI = 0.0;
+		
+		for (DAG d : dags) {
+			input[i] = d.getDeadline();
+			i++;
+		}
+		int hPeriod = MathMCDAG.lcm(input);
+		
+		for (DAG d : dags) {
+			int nbActivations = hPeriod / d.getDeadline();
+			
+			for (Actor a : d.getNodes()) {
+				if (a.getCHI() != 0)
+					uHI += nbActivations * a.getCHI();
+				uLO += nbActivations * a.getCLO();
+			}
+		}
+		uLO = uLO / hPeriod;
+		uHI = uHI / hPeriod;
+		
+		return (int) Math.ceil((uHI > uLO) ? uHI : uLO);
+	}
+	
+	/**
+	 * Scaled budget, a non null budget stays non null
+	 * @param c
+	 * @param f
+	 * @return
+	 */
+	private int scaled (int c, double f) {
+		if (c == 0)
+			return 0;
+		return Math.max(1, (int) Math.round(c * f));
+	}
+	
+	/**
+	 * Sets the budgets of the model: the target actor (or all actors
+	 * if null) is scaled by f, the others get their original budgets
+	 * @param f
+	 * @param target
+	 */
+	private void setBudgets (double f, Actor target) {
+		for (Map.Entry<Actor, int[]> e : base.entrySet()) {
+			Actor a = e.getKey();
+			int[] c = e.getValue();
+			boolean scaled = (target == null || target == a);
+			
+			a.setCLO((scaled && scale != SCALE_HI) ? scaled(c[0], f) : c[0]);
+			a.setCHI((scaled && scale != SCALE_LO) ? scaled(c[1], f) : c[1]);
+		}
+	}
+	
+	/**
+	 * Partitions the DAGs for a federated allocation: DAGs with U >= 1
+	 * get their own cluster, the others share cores with EDF.
+	 * @param heavy Filled with the DAGs having their cluster
+	 * @return False if the cores are not enough
+	 */
+	private boolean partition (List<DAG> heavy) {
+		int coresBudget = nbCores;
+		double uRestLO = 0.0;
+		double uRestHI = 0.0;
+		
+		for (DAG d : dags) {
+			if (d.getUHI() >= 1 || d.getULO() >= 1) {
+				heavy.add(d);
+				coresBudget -= d.getMinCores();
+			} else {
+				uRestLO += d.getULO();
+				uRestHI += d.getUHI();
+			}
+		}
+		coresBudget -= (int) Math.ceil((uRestHI > uRestLO) ? uRestHI : uRestLO);
+		
+		return coresBudget >= 0;
+	}
+	
+	/**
+	 * LS allocation of a cluster. The previous allocation of the DAG is
+	 * reused when the cluster has the same size: only the budgets that
+	 * changed are given to the incremental scheduler.
+	 * @param d
+	 * @return
+	 */
+	private boolean allocLS (DAG d) {
+		int cores = d.getMinCores();
+		IncrementalLS inc = incLS.get(d);
+		
+		if (inc != null && incCores.get(d) == cores) {
+			List<ModelDelta> deltas = new LinkedList<ModelDelta>();
+			int[][] prev = incBudgets.get(d);
+			
+			// Go back to the model of the last allocation, then apply the deltas
+			for (Actor a : d.getNodes()) {
+				int id = a.getId();
+				if (a.getCLO() != prev[0][id])
+					deltas.add(ModelDelta.setCLO(a.getName(), a.getCLO()));
+				if (a.getCHI() != prev[1][id])
+					deltas.add(ModelDelta.setCHI(a.getName(), a.getCHI()));
+				a.setCLO(prev[0][id]);
+				a.setCHI(prev[1][id]);
+			}
+			try {
+				inc.apply(deltas);
+			} catch (SchedulingException se) {
+				return false;
+			}
+			saveBudgets(d);
+			return true;
+		}
+		
+		LS ls = new LS(d.getDeadline(), cores, d);
+		try {
+			ls.AllocAll();
+		} catch (SchedulingException se) {
+			return false;
+		}
+		incLS.put(d, new IncrementalLS(ls));
+		incCores.put(d, cores);
+		saveBudgets(d);
+		return true;
+	}
+	
+	/**
+	 * Keeps the budgets of the last LS allocation of the DAG
+	 * @param d
+	 */
+	private void saveBudgets (DAG d) {
+		int[][] b = new int[2][d.getNodes().size()];
+		
+		for (Actor a : d.getNodes()) {
+			b[0][a.getId()] = a.getCLO();
+			b[1][a.getId()] = a.getCHI();
+		}
+		incBudgets.put(d, b);
+	}
+	
+	/**
+	 * Tests the schedulability of the system with the budgets scaled by f
+	 * @param heuristic
+	 * @param f
+	 * @param target
+	 * @return
+	 */
+	private boolean probe (int heuristic, double f, Actor target) {
+		probes++;
+		setBudgets(f, target);
+		
+		if (heuristic == MULTIDAG) {
+			try {
+				return mdag.allocAll();
+			} catch (SchedulingException se) {
+				return false;
+			}
+		}
+		
+		List<DAG> heavy = new LinkedList<DAG>();
+		if (!partition(heavy))
+			return false;
+		
+		for (DAG d : heavy) {
+			if (heuristic == LSCHED) {
+				if (!allocLS(d))
+					return false;
+			} else {
+				LS ls = new LS(d.getDeadline(), d.getMinCores(), d);
+				ls.setFeasibilityOnly(true);
+				try {
+					ls.CheckBaruah();
+				} catch (SchedulingException se) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Searches the largest schedulable factor: exponential search from
+	 * the seed, then bisection until the interval is below epsilon.
+	 * @param heuristic
+	 * @param seed Starting factor (result of a previous search)
+	 * @param target
+	 * @return 0 if the system is not schedulable with any factor
+	 */
+	private double search (int heuristic, double seed, Actor target) {
+		double lo = 0.0;
+		double hi = -1.0;
+		double f = (seed > 0) ? Math.min(seed, maxFactor) : 1.0;
+		
+		while (hi < 0) {
+			if (probe(heuristic, f, target)) {
+				lo = f;
+				if (f >= maxFactor)
+					return maxFactor;
+				f = Math.min(f * 2, maxFactor);
+			} else {
+				hi = f;
+			}
+		}
+		
+		while (hi - lo > epsilon) {
+			double mid = (lo + hi) / 2;
+			if (probe(heuristic, mid, target))
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * Utilization of the system with the budgets scaled by f
+	 * @param f
+	 * @param target
+	 * @return
+	 */
+	private double utilization (double f, Actor target) {
+		double u = 0.0;
+		
+		if (f <= 0)
+			return u;
+		setBudgets(f, target);
+		for (DAG d : dags)
+			u += d.getU();
+		return u;
+	}
+	
+	@Override
+	public void run () {
+		mcp.readXML();
+		
+		for (DAG d : dags) {
+			for (Actor a : d.getNodes())
+				base.put(a, new int[] {a.getCLO(), a.getCHI()});
+		}
+		if (nbCores <= 0)
+			nbCores = minCoresLaxity();
+		mdag = new MultiDAG(dags, nbCores, false);
+		mdag.setFeasibilityOnly(true);
+		
+		if (isDebug()) System.out.println("[SENSITIVITY "+Thread.currentThread().getName()+"] "+inputFile+" on "+nbCores+" cores.");
+		
+		try {
+			double seed = 1.0;
+			for (int h = 0; h < HEURISTICS.length; h++) {
+				probes = 0;
+				double f = search(h, seed, null);
+				sink.submit(Thread.currentThread().getName(), inputFile, HEURISTICS[h], "-", f, utilization(f, null), probes);
+				if (isDebug()) System.out.println("[SENSITIVITY "+Thread.currentThread().getName()+"] "+HEURISTICS[h]+" breakdown factor "+f);
+				
+				if (perActor) {
+					for (DAG d : dags) {
+						for (Actor a : d.getNodes()) {
+							if (scale == SCALE_HI && a.getCHI() == 0)
+								continue;
+							probes = 0;
+							double fa = search(h, f, a);
+							sink.submit(Thread.currentThread().getName(), inputFile, HEURISTICS[h], a.getName(), fa, utilization(fa, a), probes);
+						}
+					}
+				}
+				if (f > 0)
+					seed = f;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		setBudgets(1.0, null);
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public Set<DAG> getDags() {
+		return dags;
+	}
+
+	public void setDags(Set<DAG> dags) {
+		this.dags = dags;
+	}
+
+	public String getInputFile() {
+		return inputFile;
+	}
+
+	public void setInputFile(String inputFile) {
+		this.inputFile = inputFile;
+	}
+
+	public ResultSink getSink() {
+		return sink;
+	}
+
+	public void setSink(ResultSink sink) {
+		this.sink = sink;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+
+	public short getScale() {
+		return scale;
+	}
+
+	public void setScale(short scale) {
+		this.scale = scale;
+	}
+
+	public boolean isPerActor() {
+		return perActor;
+	}
+
+	public void setPerActor(boolean perActor) {
+		this.perActor = perActor;
+	}
+
+	public int getNbCores() {
+		return nbCores;
+	}
+
+	public void setNbCores(int nbCores) {
+		this.nbCores = nbCores;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	public double getMaxFactor() {
+		return maxFactor;
+	}
+
+	public void setMaxFactor(double maxFactor) {
+		this.maxFactor = maxFactor;
+	}
+}
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.bench.dac;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import fr.tpt.s3.ls_mxc.alloc.Budget;
+import fr.tpt.s3.ls_mxc.alloc.BudgetExceededException;
+import fr.tpt.s3.ls_mxc.alloc.LS;
+import fr.tpt.s3.ls_mxc.bench.ResultSink;
+import fr.tpt.s3.ls_mxc.model.DAG;
+import fr.tpt.s3.ls_mxc.parser.MCParser;
+import fr.tpt.s3.ls_mxc.util.CanonicalHash;
+import fr.tpt.s3.ls_mxc.util.DedupCache;
+
+/**
+ * Runs several schedulability tests on a system read only once and
+ * writes a single row with all the verdicts. Tests are run one after the
+ * other: the schedulers store their state on the actors. The budget is
+ * shared by all the tests of the file, once it is exhausted the verdicts
+ * left are written as timeouts.
+ * @author roberto
+ *
+ */
+public class UnifiedBenchThread implements BenchTask {
+	
+	// Federated and laxity with the minimum number of cores (BenchThread2)
+	public static final int FEDERATED = 1;
+	public static final int LAXITY = 2;
+	// Federated with HLFET list scheduling for the heavy DAGs
+	public static final int HLFET = 4;
+	// Search of the number of cores (BenchThread)
+	public static final int CORES = 8;
+	public static final int ALL = FEDERATED | LAXITY | HLFET | CORES;
+	
+	private Set<DAG> dags;
+	private MCParser mcp;
+	private String inputFile;
+	private ResultSink sink;
+	private int tests;
+	private boolean debug;
+	
+	// Budget of the file, 0 for no limit
+	private long timeLimit;
+	private long slotLimit;
+	
+	// Results shared by isomorphic systems, null if not deduplicated
+	private DedupCache<Object[]> dedup;
+	
+	public UnifiedBenchThread (String input, ResultSink sink, int tests, boolean debug) {
+		setInputFile(input);
+		dags = new HashSet<DAG>();
+		setSink(sink);
+		setTests(tests);
+		setDebug(debug);
+		mcp = new MCParser(inputFile, null, null, dags);
+	}
+	
+	/**
+	 * Reads the tests to run
+	 * @param spec Comma separated list of fed, lax, hlfet and cores
+	 * @return
+	 */
+	public static int parseTests (String spec) {
+		int ret = 0;
+		
+		if (spec == null || spec.isEmpty())
+			return ALL;
+		
+		for (String t : spec.split(",")) {
+			switch (t.trim()) {
+			case "fed":
+				ret |= FEDERATED;
+				break;
+			case "lax":
+				ret |= LAXITY;
+				break;
+			case "hlfet":
+				ret |= HLFET;
+				break;
+			case "cores":
+				ret |= CORES;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown test: "+t);
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Header of the results for the tests chosen
+	 * @param tests
+	 * @return
+	 */
+	public static String[] columns (int tests) {
+		List<String> ret = new ArrayList<String>();
+		
+		ret.add("Thread");
+		ret.add("File");
+		if ((tests & FEDERATED) != 0)
+			ret.add("FSched (?)");
+		if ((tests & LAXITY) != 0)
+			ret.add("LSched (?)");
+		if ((tests & HLFET) != 0)
+			ret.add("HSched (?)");
+		if ((tests & CORES) != 0) {
+			ret.add("Federated");
+			ret.add("FSched cores (?)");
+			ret.add("Laxity");
+			ret.add("LSched cores (?)");
+		}
+		ret.add("Utilization");
+		return ret.toArray(new String[0]);
+	}
+	
+	/**
+	 * Federated approach where heavy DAGs get their minimum number of cores
+	 * and are scheduled with HLFET in both modes. Light DAGs share the
+	 * remaining cores.
+	 * @param nbCores
+	 * @return
+	 * @throws BudgetExceededException
+	 */
+	private boolean testHLFET (int nbCores) throws BudgetExceededException {
+		Set<DAG> heavyDAGs = new HashSet<DAG>();
+		int coresBudget = nbCores;
+		double uRestLO = 0.0;
+		double uRestHI = 0.0;
+		
+		for (DAG d : dags) {
+			if (d.getUHI() >= 1 || d.getULO() >= 1) {
+				heavyDAGs.add(d);
+				coresBudget -= d.getMinCores();
+			} else {
+				uRestLO += d.getULO();
+				uRestHI += d.getUHI();
+			}
+		}
+		coresBudget -= (int) Math.ceil((uRestHI > uRestLO) ? uRestHI : uRestLO);
+		
+		if (coresBudget < 0)
+			return false;
+		
+		for (DAG d : heavyDAGs) {
+			LS ls = new LS(d.getDeadline(), d.getMinCores(), d);
+			ls.setFeasibilityOnly(true);
+			
+			if (!ls.HLFETSchedulable() || !ls.HLFETSchedulableHI())
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public void run () {
+		parse();
+		bench();
+	}
+	
+	/**
+	 * Reads the file
+	 */
+	public void parse () {
+		if (isDebug()) System.out.println("[BENCH "+Thread.currentThread().getName()+"] Reading file "+inputFile);
+		
+		mcp.readXML();
+	}
+	
+	/**
+	 * Runs the tests chosen and sends one row to the sink
+	 */
+	public void bench () {
+		List<Object> row = new ArrayList<Object>();
+		
+		Object res[] = null;
+		long key = 0;
+		
+		row.add(Thread.currentThread().getName());
+		row.add(getInputFile());
+		
+		// An isomorphic system already tested gives its verdicts
+		if (dedup != null) {
+			key = CanonicalHash.hash(dags, mcp.getNbCores());
+			res = dedup.claim(key);
+		}
+		if (res != null) {
+			row.addAll(Arrays.asList(res));
+		} else {
+			boolean timedOut = true;
+			
+			try {
+				Budget b = Budget.begin(timeLimit, slotLimit);
+				try {
+					test(row);
+				} finally {
+					Budget.end();
+				}
+				timedOut = b.isExceeded();
+				if (timedOut)
+					System.out.println("[BENCH "+Thread.currentThread().getName()+"] Timeout: "+getInputFile());
+				res = row.subList(2, row.size()).toArray();
+			} finally {
+				// Timeouts depend on the load, they are not reused
+				if (dedup != null)
+					dedup.publish(key, timedOut ? null : res);
+			}
+		}
+		
+		try {
+			sink.submit(row.toArray());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Runs the tests chosen
+	 * @param row Verdicts are appended to the row
+	 */
+	private void test (List<Object> row) {
+		Boolean schedLaxMin = null;
+		double uDAGs = 0.0;
+		
+		if ((tests & (FEDERATED | LAXITY)) != 0) {
+			BenchThread2 bt2 = new BenchThread2(inputFile, dags, isDebug());
+			
+			bt2.test((tests & FEDERATED) != 0, (tests & LAXITY) != 0);
+			if ((tests & FEDERATED) != 0)
+				row.add(BenchThread.verdict(bt2.isSchedFede(), bt2.isFedTimedOut()));
+			if ((tests & LAXITY) != 0) {
+				row.add(BenchThread.verdict(bt2.isSchedLax(), bt2.isLaxTimedOut()));
+				if (!bt2.isLaxTimedOut())
+					schedLaxMin = bt2.isSchedLax();
+			}
+		}
+		
+		if ((tests & HLFET) != 0) {
+			BenchThread2 bt2 = new BenchThread2(inputFile, dags, isDebug());
+			
+			try {
+				row.add(testHLFET(bt2.minCoresLaxity()) ? 1 : 0);
+			} catch (BudgetExceededException be) {
+				row.add(BenchThread.TIMEOUT);
+			}
+		}
+		
+		if ((tests & CORES) != 0) {
+			BenchThread bt = new BenchThread(inputFile, dags, isDebug());
+			
+			// The laxity test above is the first step of the search
+			bt.setSchedLaxMin(schedLaxMin);
+			bt.test();
+			row.add(bt.getfCores());
+			row.add(BenchThread.verdict(bt.isSchedFede(), bt.isFedTimedOut()));
+			row.add(bt.getlCores());
+			row.add(BenchThread.verdict(bt.isSchedLax(), bt.isLaxTimedOut()));
+		}
+		
+		for (DAG d : dags)
+			uDAGs += d.getU();
+		row.add(uDAGs);
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public Set<DAG> getDags() {
+		return dags;
+	}
+
+	public void setDags(Set<DAG> dags) {
+		this.dags = dags;
+	}
+
+	public MCParser getMcp() {
+		return mcp;
+	}
+
+	public void setMcp(MCParser mcp) {
+		this.mcp = mcp;
+	}
+
+	public String getInputFile() {
+		return inputFile;
+	}
+
+	public void setInputFile(String inputFile) {
+		this.inputFile = inputFile;
+	}
+
+	public ResultSink getSink() {
+		return sink;
+	}
+
+	public void setSink(ResultSink sink) {
+		this.sink = sink;
+	}
+
+	public int getTests() {
+		return tests;
+	}
+
+	public void setTests(int tests) {
+		this.tests = tests;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	public void setDebug(boolean debug) {
+		this.debug = debug;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public void setTimeLimit(long timeLimit) {
+		this.timeLimit = timeLimit;
+	}
+
+	public long getSlotLimit() {
+		return slotLimit;
+	}
+
+	public void setSlotLimit(long slotLimit) {
+		this.slotLimit = slotLimit;
+	}
+
+	public DedupCache<Object[]> getDedup() {
+		return dedup;
+	}
+
+	public void setDedup(DedupCache<Object[]> dedup) {
+		this.dedup = dedup;
+	}
+}
@@ -17,10 +17,18 @@
 package fr.tpt.s3.ls_mxc.generator;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.tpt.s3.ls_mxc.metrics.Histogram;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
 import fr.tpt.s3.ls_mxc.parser.MCParser;
 
 public class GeneratorThread implements Runnable{
 
+	private static final Histogram T_GRAPH = Metrics.timer("generator.graph");
+	private static final LongAdder GRAPHS = Metrics.counter("generator.graphs");
+	private static final LongAdder REJECTIONS = Metrics.counter("generator.rejections");
+
 	private UtilizationGenerator ug;
 	private MCParser mcp;
 	private boolean graphBool;
@@ -28,8 +36,9 @@ public class GeneratorThread implements Runnable{
 	
 	public GeneratorThread (double uLO, double uHI, int cp, int edProb,
 			double uHIinLO, double lowerU, int para, int cores, int nbDags, String outFile,
-			boolean graphBool, boolean debug) {
+			boolean graphBool, boolean constructive, boolean debug) {
 		ug = new UtilizationGenerator(uLO, uHI, cp, edProb, uHIinLO, lowerU, para, cores, nbDags, debug);
+		ug.setConstructive(constructive);
 		mcp = new MCParser(outFile, ug);
 		setDebug(debug);
 		setGraphBool(graphBool);
@@ -39,8 +48,15 @@ public class GeneratorThread implements Runnable{
 	public void run() {
 		for (int i = 0; i < ug.getNbDags(); i++) {
 			if (isDebug()) System.out.println("[DEBUG] Generating DAG #"+i);
-			ug.GenenrateGraph();
+			long t0 = System.nanoTime();
+			if (ug.isConstructive())
+				ug.GenerateGraphConstructive();
+			else
+				ug.GenenrateGraph();
+			T_GRAPH.recordSince(t0);
+			GRAPHS.increment();
 		}
+		REJECTIONS.add(ug.getRejections());
 
 		// Write the file
 		try {
@@ -51,7 +67,7 @@ public class GeneratorThread implements Runnable{
 				
 				mcp.writeDot();
 			}
-			System.out.println(Thread.currentThread().getName()+"> Written generated DAG(s)!");
+			System.out.println(Thread.currentThread().getName()+"> Written generated DAG(s)! Rejection iterations: "+ug.getRejections());
 		} catch (IOException e) {
 			System.err.println("[ERROR] Failed to write the XML file in the generator " + e.getMessage());
 			System.exit(1);
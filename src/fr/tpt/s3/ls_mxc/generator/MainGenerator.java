@@ -16,8 +16,12 @@
  *******************************************************************************/
 package fr.tpt.s3.ls_mxc.generator;
 
+import java.io.IOException;
+
 import org.apache.commons.cli.*;
 
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+
 /**
  * Main for the Graph generator interface
  * @author Roberto Medina
@@ -83,10 +87,18 @@ public class MainGenerator {
 		graphOpt.setRequired(false);
 		options.addOption(graphOpt);
 		
+		Option constructOpt = new Option("cg", "constructive", false, "Constructive generation, utilizations are met without retry loops");
+		constructOpt.setRequired(false);
+		options.addOption(constructOpt);
+		
 		Option debugOpt = new Option("d", "debug", false, "Enabling debug");
 		debugOpt.setRequired(false);
 		options.addOption(debugOpt);
 		
+		Option metricsOpt = new Option("m", "metrics", true, "Export timers and counters to a file (JSON, or CSV with a .csv extension).");
+		metricsOpt.setRequired(false);
+		options.addOption(metricsOpt);
+		
 		Option jobsOpt = new Option("j", "jobs", true, "Number of jobs");
 		jobsOpt.setRequired(false);
 		options.addOption(jobsOpt);
@@ -116,6 +128,7 @@ public class MainGenerator {
 		int para = Integer.parseInt(cmd.getOptionValue("parallelism"));
 		int cores = Integer.parseInt(cmd.getOptionValue("cores"));
 		boolean graph = cmd.hasOption("graphviz");	
+		boolean constructive = cmd.hasOption("constructive");
 		boolean debug = cmd.hasOption("debug");	
 		String output = cmd.getOptionValue("output");
 		int nbJobs = 1;
@@ -141,7 +154,7 @@ public class MainGenerator {
 			
 			for (int i = 0; i < nbJobs && count < nbFiles; i++) {
 				String outFile = output.substring(0, output.lastIndexOf('.')).concat("-"+count+".xml");
-				GeneratorThread gt = new GeneratorThread(userLO, userHI, cp, edgeProb, UserHIinLO, userLowerBound, para, cores, nbDags, outFile, graph, debug);
+				GeneratorThread gt = new GeneratorThread(userLO, userHI, cp, edgeProb, UserHIinLO, userLowerBound, para, cores, nbDags, outFile, graph, constructive, debug);
 				threads[i] = new Thread(gt);
 				threads[i].setName("GeneratorThread-"+i);
 				launched++;
@@ -158,5 +171,13 @@ public class MainGenerator {
 				}
 			}
 		}
+		
+		if (cmd.hasOption("metrics")) {
+			try {
+				Metrics.export(cmd.getOptionValue("metrics"));
+			} catch (IOException e) {
+				System.err.println("[WARNING] Unable to write the metrics file "+e.getMessage());
+			}
+		}
 	}
 }
@@ -16,13 +16,18 @@
  *******************************************************************************/
 package fr.tpt.s3.ls_mxc.generator;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.model.Edge;
 import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.util.UnionFind;
 
 public class UtilizationGenerator {
 	
@@ -42,6 +47,11 @@ public class UtilizationGenerator {
 	private int deadline;
 	private boolean debug;
 	
+	// Constructive mode: budgets are met on the first pass
+	private boolean constructive;
+	// Number of retry passes done by the generator (deflation + sanity check)
+	private long rejections;
+	
 	private int possibleDeadlines[] = {10, 15, 20, 30, 14, 12}; 
 	
 	public UtilizationGenerator (double U_LO, double U_HI, int cp, int edgeProb, double UHIinLO, double lU, int para, int cores, int nbDags, boolean debug) {
@@ -158,6 +168,7 @@ public class UtilizationGenerator {
 		Iterator<Actor> it_n;
 		
 		while (wantedHIinLO < actualBudget && !allHIareMin(nodes)) {
+			rejections++;
 			it_n = nodes.iterator();
 			while (it_n.hasNext()) {
 				Actor n = it_n.next();
@@ -255,6 +266,347 @@ public class UtilizationGenerator {
 		getGenDAG().add(d);
 	}
 	
+	/**
+	 * Generates a DAG constructively: the HI budget, the HI budget in LO mode
+	 * and the LO budget are split among the nodes with UUniFast so that the
+	 * utilizations are met on the first pass. Connectivity is ensured with
+	 * a union-find over the nodes instead of the sanity check, nothing is
+	 * drawn again.
+	 */
+	public void GenerateGraphConstructive() {
+		DAG d = new DAG();
+		Set<Actor> nodes = new HashSet<Actor>();
+		List<Actor> order = new ArrayList<Actor>();
+
+		int idxDead = rng.randomUnifInt(0, possibleDeadlines.length - 1);
+		int rDead = possibleDeadlines[idxDead];
+		double rULO = rng.randomUnifDouble(lowerU, userU_LO);
+		double rUHItest = rng.randomUnifDouble(lowerU, userU_HI);
+		double rUHI = (rUHItest <= rULO) ? rUHItest : rULO;
+
+		int budgetHI = (int) Math.ceil(rDead * rUHI);
+		int budgetLO = (int) Math.ceil(rDead * rULO);
+		// Two nodes always fit in the deadline, see connectComponents
+		int CHIBound = rDead / 2;
+		int CLOBound = rDead / 2;
+
+		if (isDebug()) {
+			System.out.println("[DEBUG] GenerateGraphConstructive: Generating a graph with parameters, ULO = "+rULO+", UHI = "+rUHI+
+					" deadline = "+rDead);
+		}
+
+		// HI tasks: split the HI budget, then the HI budget in LO mode
+		int nbHI = rollNbNodes(budgetHI, 2, CHIBound);
+		int minCHI = (budgetHI >= 2 * nbHI) ? 2 : 1;
+		int[] maxCHI = new int[nbHI];
+		for (int i = 0; i < nbHI; i++)
+			maxCHI[i] = CHIBound;
+		int[] cHI = splitBudget(budgetHI, minCHI, maxCHI);
+
+		int wantedHIinLO = (int) Math.ceil(uHIinLO * rDead);
+		if (wantedHIinLO < nbHI)
+			wantedHIinLO = nbHI;
+		if (wantedHIinLO > budgetHI)
+			wantedHIinLO = budgetHI;
+		int[] cLOofHI = splitBudget(wantedHIinLO, 1, cHI);
+
+		int id = 0;
+		int rank = 0;
+		int placed = 0;
+		while (placed < nbHI) {
+			int nodesPerRank = rng.randomUnifInt(1, paraDegree);
+			for (int j = 0; j < nodesPerRank && placed < nbHI; j++) {
+				Actor n = new Actor(id, Integer.toString(id), cLOofHI[placed], cHI[placed]);
+				n.setRank(rank);
+				for (Actor src : order) {
+					if (rng.randomUnifInt(1, 100) <= edgeProb && n.getRank() > src.getRank()
+							&& src.getCpFromNode_HI() + n.getCHI() <= rDead) {
+						@SuppressWarnings("unused")
+						Edge e = new Edge(src, n);
+					}
+				}
+				n.CPfromNode(Actor.HI);
+				nodes.add(n);
+				order.add(n);
+				placed++;
+				id++;
+			}
+			rank++;
+		}
+
+		for (Actor n : order)
+			n.CPfromNode(Actor.LO);
+
+		// LO tasks get what is left from the LO budget
+		int budgetLOleft = budgetLO - wantedHIinLO;
+		if (budgetLOleft > 0) {
+			int nbLO = rollNbNodes(budgetLOleft, 1, CLOBound);
+			int[] maxCLO = new int[nbLO];
+			for (int i = 0; i < nbLO; i++)
+				maxCLO[i] = CLOBound;
+			int[] cLO = splitBudget(budgetLOleft, 1, maxCLO);
+
+			int loPara = (paraDegree / 2 > 1) ? paraDegree / 2 : 1;
+			rank = 1;
+			placed = 0;
+			while (placed < nbLO) {
+				int nodesPerRank = rng.randomUnifInt(1, loPara);
+				for (int j = 0; j < nodesPerRank && placed < nbLO; j++) {
+					Actor n = new Actor(id, Integer.toString(id), cLO[placed], 0);
+					n.setRank(rank);
+					for (Actor src : order) {
+						if (rng.randomUnifInt(1, 100) <= edgeProb && n.getRank() > src.getRank()
+								&& src.getCpFromNode_LO() + n.getCLO() <= rDead &&
+								allowedCommunitcation(src, n)) {
+							@SuppressWarnings("unused")
+							Edge e = new Edge(src, n);
+						}
+					}
+					n.CPfromNode(Actor.LO);
+					nodes.add(n);
+					order.add(n);
+					placed++;
+					id++;
+				}
+				rank++;
+			}
+		}
+
+		connectComponents(order, rDead);
+
+		for (Actor n : order) {
+			n.checkifSink();
+			n.checkifSource();
+		}
+
+		if (isDebug()) {
+			System.out.println("[DEBUG] GenerateGraphConstructive(): >>> DAG generated.");
+			for (Actor a : order)
+				debugNode(a, "GenerateGraphConstructive()");
+		}
+
+		d.setNodes(nodes);
+		d.setDeadline(rDead);
+		d.setId(getGenDAG().size());
+		getGenDAG().add(d);
+	}
+
+	/**
+	 * Rolls a number of nodes so that the budget can be split in parts
+	 * between minC and maxC.
+	 * @param budget
+	 * @param minC
+	 * @param maxC
+	 * @return
+	 */
+	private int rollNbNodes (int budget, int minC, int maxC) {
+		if (budget <= 0)
+			return 0;
+
+		int lb = (int) Math.ceil((double) budget / maxC);
+		int ub = budget / ((minC + maxC) / 2);
+		if (ub < lb)
+			ub = lb;
+
+		return rng.randomUnifInt(lb, ub);
+	}
+
+	/**
+	 * Splits the budget in as many parts as max has entries. Part i lies in
+	 * [min, max[i]] and the parts sum exactly to the budget. Shares are
+	 * drawn with UUniFast, the rounding leftover is given to the parts that
+	 * still have room.
+	 * @param budget
+	 * @param min
+	 * @param max
+	 * @return
+	 */
+	private int[] splitBudget (int budget, int min, int[] max) {
+		int n = max.length;
+		int[] ret = new int[n];
+
+		if (n == 0)
+			return ret;
+
+		int free = budget - n * min;
+		double sumU = 1.0;
+		int given = 0;
+
+		for (int i = 0; i < n; i++) {
+			double share;
+			if (i < n - 1) {
+				double next = sumU * Math.pow(rng.randomUnifDouble(0, 1), 1.0 / (n - i - 1));
+				share = sumU - next;
+				sumU = next;
+			} else {
+				share = sumU;
+			}
+			int extra = (int) Math.floor(share * free);
+			if (extra > max[i] - min)
+				extra = max[i] - min;
+			ret[i] = min + extra;
+			given += extra;
+		}
+
+		// Hand out the leftover starting from a random part
+		int left = free - given;
+		int start = rng.randomUnifInt(0, n - 1);
+		for (int k = 0; k < n && left > 0; k++) {
+			int i = (start + k) % n;
+			int room = max[i] - ret[i];
+			int add = (room < left) ? room : left;
+			ret[i] += add;
+			left -= add;
+		}
+		return ret;
+	}
+
+	/**
+	 * Links the connected components of the DAG. Edges have to respect the
+	 * allowed communications and the deadline: the critical path to the
+	 * source of the edge plus the longest path from its destination must
+	 * fit in both modes. Edges going from a lower rank to a higher rank are
+	 * tried first. The components left are then linked from a source of one
+	 * to a sink of the other: both budgets are at most rDead / 2, so the
+	 * path through the edge always fits.
+	 * @param order Actors in topological order
+	 * @param rDead
+	 */
+	private void connectComponents (List<Actor> order, int rDead) {
+		UnionFind uf = new UnionFind(order.size());
+
+		for (Actor a : order) {
+			for (Edge e : a.getSndEdges())
+				uf.union(a.getId(), e.getDest().getId());
+		}
+
+		for (int i = 0; i < order.size() && uf.getNbSets() > 1; i++) {
+			Actor u = order.get(i);
+			for (int j = 0; j < order.size() && uf.getNbSets() > 1; j++) {
+				Actor v = order.get(j);
+				if (u.getRank() >= v.getRank() || uf.connected(u.getId(), v.getId())
+						|| !allowedCommunitcation(u, v))
+					continue;
+
+				if (u.getCpFromNode_LO() + longestPathFrom(v, Actor.LO, new HashMap<Actor, Integer>()) > rDead)
+					continue;
+				if (u.getCpFromNode_HI() + longestPathFrom(v, Actor.HI, new HashMap<Actor, Integer>()) > rDead)
+					continue;
+
+				link(u, v, order, uf);
+			}
+		}
+		
+		// The components are disjoint, an edge between two of them can not
+		// close a cycle whatever the ranks. The component of the first actor
+		// holds a HI actor if there is one.
+		Actor first = order.get(0);
+		for (Actor a : order) {
+			if (uf.connected(first.getId(), a.getId()))
+				continue;
+			
+			int main = uf.find(first.getId());
+			int other = uf.find(a.getId());
+			Actor u = componentEnd(order, uf, main, true, true);
+			Actor v;
+			if (u != null) {
+				v = componentEnd(order, uf, other, false, false);
+			} else {
+				u = componentEnd(order, uf, other, true, true);
+				if (u != null) {
+					v = componentEnd(order, uf, main, false, false);
+				} else {
+					u = componentEnd(order, uf, main, true, false);
+					v = componentEnd(order, uf, other, false, false);
+				}
+			}
+			
+			if (u.getCpFromNode_LO() + longestPathFrom(v, Actor.LO, new HashMap<Actor, Integer>()) > rDead ||
+					u.getCpFromNode_HI() + longestPathFrom(v, Actor.HI, new HashMap<Actor, Integer>()) > rDead)
+				throw new IllegalStateException("Components of a generated DAG can not be linked within the deadline "+rDead);
+			link(u, v, order, uf);
+		}
+	}
+	
+	/**
+	 * Adds an edge between two components and updates the critical paths
+	 * @param u
+	 * @param v
+	 * @param order Actors in topological order
+	 * @param uf
+	 */
+	private void link (Actor u, Actor v, List<Actor> order, UnionFind uf) {
+		@SuppressWarnings("unused")
+		Edge e = new Edge(u, v);
+		uf.union(u.getId(), v.getId());
+		
+		// The critical paths of v and its descendants grew
+		Set<Actor> desc = new HashSet<Actor>();
+		descendants(v, desc);
+		for (Actor a : order) {
+			if (desc.contains(a)) {
+				if (a.getCHI() != 0)
+					a.CPfromNode(Actor.HI);
+				a.CPfromNode(Actor.LO);
+			}
+		}
+	}
+	
+	/**
+	 * First source (or sink) of a component. A component with HI actors has
+	 * a HI source since LO actors can not send to HI actors.
+	 * @param order
+	 * @param uf
+	 * @param root Representative of the component
+	 * @param source Looks for a source if true, a sink otherwise
+	 * @param hi Only HI actors
+	 * @return Null if there is none
+	 */
+	private Actor componentEnd (List<Actor> order, UnionFind uf, int root, boolean source, boolean hi) {
+		for (Actor a : order) {
+			if (uf.find(a.getId()) != root || (hi && a.getCHI() == 0))
+				continue;
+			if ((source && a.getRcvEdges().isEmpty()) || (!source && a.getSndEdges().isEmpty()))
+				return a;
+		}
+		return null;
+	}
+	
+	/**
+	 * Longest path from an actor (included) to the sinks of the DAG
+	 * @param a
+	 * @param mode
+	 * @param memo Lengths already computed
+	 * @return
+	 */
+	private int longestPathFrom (Actor a, short mode, Map<Actor, Integer> memo) {
+		Integer known = memo.get(a);
+		if (known != null)
+			return known;
+		
+		int max = 0;
+		for (Edge e : a.getSndEdges()) {
+			int tmp = longestPathFrom(e.getDest(), mode, memo);
+			if (tmp > max)
+				max = tmp;
+		}
+		max += (mode == Actor.LO) ? a.getCLO() : a.getCHI();
+		memo.put(a, max);
+		return max;
+	}
+	
+	/**
+	 * Adds an actor and all its successors (transitively) to the set
+	 * @param a
+	 * @param desc
+	 */
+	private void descendants (Actor a, Set<Actor> desc) {
+		if (!desc.add(a))
+			return;
+		for (Edge e : a.getSndEdges())
+			descendants(e.getDest(), desc);
+	}
+
 	/**
 	 * Tests if all HI nodes are minimal execution <=> C LO = 1
 	 * @param nodes
@@ -316,6 +668,7 @@ public class UtilizationGenerator {
 			if (n.getRcvEdges().size() == 0 && n.getSndEdges().size() == 0) {
 				
 				while (added == false) {
+					rejections++;
 					Iterator<Actor> it_n2 = d.getNodes().iterator();
 					while (it_n2.hasNext() && added == false) {
 						Actor n2 = it_n2.next();
@@ -509,4 +862,16 @@ public class UtilizationGenerator {
 	public void setLowerU(double lowerU) {
 		this.lowerU = lowerU;
 	}
+
+	public boolean isConstructive() {
+		return constructive;
+	}
+
+	public void setConstructive(boolean constructive) {
+		this.constructive = constructive;
+	}
+
+	public long getRejections() {
+		return rejections;
+	}
 }
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Common attributes of the JFR events emitted by the allocators
+ * @author roberto
+ *
+ */
+@Category({"MC-DAG", "Scheduler"})
+public abstract class AllocationEvent extends Event {
+
+	@Label("Scheduler")
+	public String scheduler;
+
+	@Label("DAG id")
+	public int dagId;
+
+	@Label("DAGs")
+	public int nbDags;
+
+	@Label("Actors")
+	public int nbActors;
+
+	@Label("Cores")
+	public int nbCores;
+
+	@Label("Hyperperiod")
+	public int hyperperiod;
+
+	@Label("Outcome")
+	public String outcome;
+
+	/**
+	 * Fills the attributes and commits the event if it is recorded
+	 * @param scheduler
+	 * @param dagId Id of the DAG, -1 when several DAGs are allocated
+	 * @param nbDags
+	 * @param nbActors
+	 * @param nbCores
+	 * @param hyperperiod
+	 * @param ok
+	 */
+	public void commit (String scheduler, int dagId, int nbDags, int nbActors, int nbCores, int hyperperiod, boolean ok) {
+		end();
+		if (shouldCommit()) {
+			this.scheduler = scheduler;
+			this.dagId = dagId;
+			this.nbDags = nbDags;
+			this.nbActors = nbActors;
+			this.nbCores = nbCores;
+			this.hyperperiod = hyperperiod;
+			this.outcome = ok ? "schedulable" : "not schedulable";
+			commit();
+		}
+	}
+}
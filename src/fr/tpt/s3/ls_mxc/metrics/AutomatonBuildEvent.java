@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event: construction of the automaton from the scheduling tables
+ * @author roberto
+ *
+ */
+@Name("fr.tpt.s3.ls_mxc.AutomatonBuild")
+@Label("Automaton build")
+@Description("Construction of the availability automaton from the scheduling tables")
+@Category({"MC-DAG", "Availability"})
+public class AutomatonBuildEvent extends Event {
+
+	@Label("DAG id")
+	public int dagId;
+
+	@Label("Actors")
+	public int nbActors;
+
+	@Label("Cores")
+	public int nbCores;
+
+	@Label("Hyperperiod")
+	public int hyperperiod;
+
+	@Label("States")
+	public int nbStates;
+
+	@Label("Outcome")
+	public String outcome;
+}
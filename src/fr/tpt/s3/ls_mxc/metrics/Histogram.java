@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent latency histogram with log-linear buckets, in the spirit of
+ * HdrHistogram: values below 2^SUB_BITS are counted exactly, larger values
+ * fall in buckets whose width is 1/2^(SUB_BITS-1) of their magnitude
+ * (around 3% relative error). Recording is lock-free.
+ * @author roberto
+ *
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int HALF = SUB >> 1;
+	private static final int NB_BUCKETS = SUB + (64 - SUB_BITS) * HALF;
+
+	private String name;
+	private AtomicLongArray counts;
+	private LongAdder count;
+	private LongAdder sum;
+	private AtomicLong min;
+	private AtomicLong max;
+
+	public Histogram (String name) {
+		this.name = name;
+		counts = new AtomicLongArray(NB_BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		min = new AtomicLong(Long.MAX_VALUE);
+		max = new AtomicLong(0);
+	}
+
+	/**
+	 * Bucket of a positive value
+	 * @param v
+	 * @return
+	 */
+	private static int indexOf (long v) {
+		if (v < SUB)
+			return (int) v;
+
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS + 1;
+		int top = (int) (v >>> shift);
+		return SUB + (shift - 1) * HALF + (top - HALF);
+	}
+
+	/**
+	 * Middle of the values counted in a bucket
+	 * @param idx
+	 * @return
+	 */
+	private static long valueOf (int idx) {
+		if (idx < SUB)
+			return idx;
+
+		int k = idx - SUB;
+		int shift = k / HALF + 1;
+		long top = (k % HALF) + HALF;
+		return (top << shift) + ((1L << shift) >> 1);
+	}
+
+	/**
+	 * Records a value (a duration in ns for timers)
+	 * @param v
+	 */
+	public void record (long v) {
+		if (v < 0)
+			v = 0;
+
+		counts.incrementAndGet(indexOf(v));
+		count.increment();
+		sum.add(v);
+		min.accumulateAndGet(v, Math::min);
+		max.accumulateAndGet(v, Math::max);
+	}
+
+	/**
+	 * Records the time elapsed since start
+	 * @param start Value returned by System.nanoTime()
+	 */
+	public void recordSince (long start) {
+		record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Value under which a fraction p of the recorded values are
+	 * @param p in [0, 1]
+	 * @return
+	 */
+	public long getPercentile (double p) {
+		long total = count.sum();
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(p * total));
+		long acc = 0;
+		for (int i = 0; i < NB_BUCKETS; i++) {
+			acc += counts.get(i);
+			if (acc >= rank)
+				return Math.max(getMin(), Math.min(valueOf(i), getMax()));
+		}
+		return getMax();
+	}
+
+	public void reset () {
+		for (int i = 0; i < NB_BUCKETS; i++)
+			counts.set(i, 0);
+		count.reset();
+		sum.reset();
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	/*
+	 * Getters
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public double getMean() {
+		long c = count.sum();
+		return (c == 0) ? 0.0 : (double) sum.sum() / c;
+	}
+
+	public long getMin() {
+		return (count.sum() == 0) ? 0 : min.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+}
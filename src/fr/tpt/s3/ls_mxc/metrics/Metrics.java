@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.metrics;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide registry of counters and phase timers. The scheduler,
+ * parser and generator keep references to their counters and timers in
+ * static fields so that reporting costs a LongAdder update in hot loops.
+ * A snapshot of all metrics can be exported in JSON or CSV at the end of
+ * a run.
+ * @author roberto
+ *
+ */
+public final class Metrics {
+
+	private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+	private static final ConcurrentHashMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+
+	private Metrics () {}
+
+	/**
+	 * Returns the counter registered under a name, creating it if needed
+	 * @param name
+	 * @return
+	 */
+	public static LongAdder counter (String name) {
+		return counters.computeIfAbsent(name, k -> new LongAdder());
+	}
+
+	/**
+	 * Returns the phase timer registered under a name, creating it if needed.
+	 * Durations are recorded in nanoseconds.
+	 * @param name
+	 * @return
+	 */
+	public static Histogram timer (String name) {
+		return timers.computeIfAbsent(name, k -> new Histogram(k));
+	}
+
+	/**
+	 * Resets all the registered metrics
+	 */
+	public static void reset () {
+		for (LongAdder c : counters.values())
+			c.reset();
+		for (Histogram h : timers.values())
+			h.reset();
+	}
+
+	/**
+	 * Writes a snapshot of the metrics, the format is chosen from the
+	 * extension of the file (.csv, JSON otherwise)
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void export (String file) throws IOException {
+		if (file.endsWith(".csv"))
+			writeCSV(file);
+		else
+			writeJSON(file);
+	}
+
+	public static void writeJSON (String file) throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write("{\n  \"counters\": {");
+			boolean first = true;
+			for (Map.Entry<String, Long> e : counterSnapshot().entrySet()) {
+				out.write((first ? "\n" : ",\n")+"    \""+e.getKey()+"\": "+e.getValue());
+				first = false;
+			}
+			out.write("\n  },\n  \"timers\": {");
+			first = true;
+			for (Histogram h : timerSnapshot().values()) {
+				out.write((first ? "\n" : ",\n")+"    \""+h.getName()+"\": {\"count\": "+h.getCount()+", \"total_ns\": "+h.getSum()
+						+", \"mean_ns\": "+h.getMean()+", \"min_ns\": "+h.getMin()+", \"p50_ns\": "+h.getPercentile(0.5)
+						+", \"p90_ns\": "+h.getPercentile(0.9)+", \"p99_ns\": "+h.getPercentile(0.99)+", \"max_ns\": "+h.getMax()+"}");
+				first = false;
+			}
+			out.write("\n  }\n}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void writeCSV (String file) throws IOException {
+		Writer out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write("Metric; Type; Count; Total (ns); Mean (ns); Min (ns); P50 (ns); P90 (ns); P99 (ns); Max (ns)\n");
+			for (Map.Entry<String, Long> e : counterSnapshot().entrySet())
+				out.write(e.getKey()+"; counter; "+e.getValue()+";;;;;;;\n");
+			for (Histogram h : timerSnapshot().values()) {
+				out.write(h.getName()+"; timer; "+h.getCount()+"; "+h.getSum()+"; "+h.getMean()+"; "+h.getMin()+"; "
+						+h.getPercentile(0.5)+"; "+h.getPercentile(0.9)+"; "+h.getPercentile(0.99)+"; "+h.getMax()+"\n");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static Map<String, Long> counterSnapshot () {
+		Map<String, Long> ret = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> e : counters.entrySet())
+			ret.put(e.getKey(), e.getValue().sum());
+		return ret;
+	}
+
+	private static Map<String, Histogram> timerSnapshot () {
+		return new TreeMap<String, Histogram>(timers);
+	}
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event: parsing of an MC-DAG XML model
+ * @author roberto
+ *
+ */
+@Name("fr.tpt.s3.ls_mxc.Parse")
+@Label("Parse")
+@Description("Parsing of an MC-DAG XML model")
+@Category({"MC-DAG", "Parser"})
+public class ParseEvent extends Event {
+
+	@Label("File")
+	public String file;
+
+	@Label("DAGs")
+	public int nbDags;
+
+	@Label("Actors")
+	public int nbActors;
+
+	@Label("Cores")
+	public int nbCores;
+
+	@Label("Outcome")
+	public String outcome;
+}
@@ -17,12 +17,19 @@
 package fr.tpt.s3.ls_mxc.parser;
 
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
@@ -46,12 +53,24 @@ import fr.tpt.s3.ls_mxc.avail.Formula;
 import fr.tpt.s3.ls_mxc.avail.State;
 import fr.tpt.s3.ls_mxc.avail.Transition;
 import fr.tpt.s3.ls_mxc.generator.UtilizationGenerator;
+import fr.tpt.s3.ls_mxc.metrics.Histogram;
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+import fr.tpt.s3.ls_mxc.metrics.ParseEvent;
+import fr.tpt.s3.ls_mxc.metrics.PrismWriteEvent;
 import fr.tpt.s3.ls_mxc.model.DAG;
 import fr.tpt.s3.ls_mxc.model.Edge;
 import fr.tpt.s3.ls_mxc.model.Actor;
 
 public class MCParser {
 
+	private static final Histogram T_READ = Metrics.timer("parser.readXML");
+	// First bytes of the binary models: "MCDG"
+	public static final int BINARY_MAGIC = 0x4D434447;
+	
+	private static final Histogram T_WRITE_SCHED = Metrics.timer("parser.writeSched");
+	private static final Histogram T_WRITE_PRISM = Metrics.timer("parser.writePRISM");
+	private static final Histogram T_WRITE_GEN = Metrics.timer("parser.writeGennedDAG");
+
 	private String inputFile;
 	private String outputFile;
 	private String outSchedFile;
@@ -84,12 +103,51 @@ public class MCParser {
 	 */
 	public void readXML () {
 		try {
-			File iFile = new File(inputFile);
+			readXML(null, false);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reads an XML model from a stream and creates actors and edges.
+	 * The stream may come from another user: DTDs and external entities
+	 * are refused.
+	 * @param in
+	 * @throws IOException If the model could not be read entirely
+	 */
+	public void readXML (InputStream in) throws IOException {
+		try {
+			readXML(in, true);
+		} catch (IOException ie) {
+			throw ie;
+		} catch (Exception e) {
+			throw new IOException(e.toString(), e);
+		}
+	}
+	
+	/**
+	 * Reads an XML model from a stream (the input file if null)
+	 * @param in
+	 * @param secure Refuse DTDs and external entities
+	 * @throws Exception
+	 */
+	private void readXML (InputStream in, boolean secure) throws Exception {
+		long t0 = System.nanoTime();
+		ParseEvent ev = new ParseEvent();
+		ev.begin();
+		ev.outcome = "ok";
+		try {
 			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+			if (secure) {
+				dbFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+				dbFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+				dbFactory.setExpandEntityReferences(false);
+			}
 			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
 			
 			// Root element
-			Document doc = dBuilder.parse(iFile);
+			Document doc = (in == null) ? dBuilder.parse(new File(inputFile)) : dBuilder.parse(in);
 			doc.getDocumentElement().normalize();
 			
 			NodeList eList = doc.getElementsByTagName("mcdag");
@@ -169,14 +227,164 @@ public class MCParser {
 			Element c = (Element) cList.item(0);
 			setNbCores(Integer.parseInt(c.getAttribute("number")));
 		} catch (Exception e) {
-			e.printStackTrace();
+			ev.outcome = "error: "+e.getMessage();
+			throw e;
+		} finally {
+			T_READ.recordSince(t0);
+			ev.end();
+			if (ev.shouldCommit()) {
+				int nbActors = 0;
+				for (DAG d : dags)
+					nbActors += d.getNodes().size();
+				ev.file = inputFile;
+				ev.nbDags = dags.size();
+				ev.nbActors = nbActors;
+				ev.nbCores = nbCores;
+				ev.commit();
+			}
+		}
+	}
+	
+	/**
+	 * Checks a value read from a binary model
+	 * @param what
+	 * @param value
+	 * @param min
+	 * @param max
+	 * @return The value
+	 * @throws IOException If the value is out of [min, max]
+	 */
+	private static int checkRange (String what, int value, int min, int max) throws IOException {
+		if (value < min || value > max)
+			throw new IOException("Bad binary MC-DAG model: "+what+" = "+value);
+		return value;
+	}
+	
+	/**
+	 * Reads a model in the binary format written by writeBinary. Nothing
+	 * read from the stream is trusted: counts, budgets and edge ends are
+	 * checked before they are used.
+	 * @param in
+	 * @param size Size of the model in bytes, no count can be larger
+	 * @throws IOException If the model is malformed
+	 */
+	public void readBinary (InputStream in, int size) throws IOException {
+		long t0 = System.nanoTime();
+		try {
+			DataInputStream dis = new DataInputStream(in);
+			
+			if (dis.readInt() != BINARY_MAGIC)
+				throw new IOException("Not a binary MC-DAG model");
+			setNbCores(checkRange("cores", dis.readInt(), 1, size));
+			int nbDags = checkRange("DAGs", dis.readInt(), 1, size);
+			
+			for (int d = 0; d < nbDags; d++) {
+				DAG dag = new DAG();
+				dag.setId(d);
+				dag.setDeadline(checkRange("deadline", dis.readInt(), 1, Integer.MAX_VALUE));
+				
+				int nbActors = checkRange("actors", dis.readInt(), 0, size);
+				// Grows with the actors actually read
+				List<Actor> actors = new ArrayList<Actor>();
+				for (int i = 0; i < nbActors; i++) {
+					String name = dis.readUTF();
+					int cLO = checkRange("C(LO)", dis.readInt(), 0, dag.getDeadline());
+					int cHI = checkRange("C(HI)", dis.readInt(), 0, dag.getDeadline());
+					Actor a = new Actor(i, name, cLO, cHI);
+					a.setfProb(dis.readDouble());
+					a.setGraphDead(dag.getDeadline());
+					
+					short type = dis.readShort();
+					if (type == Actor.VOTER) {
+						a.setfMechanism(true);
+						a.setfMechType(Actor.VOTER);
+						a.setVotTask(dis.readUTF());
+						a.setNbReplicas(checkRange("replicas", dis.readInt(), 1, size));
+					} else if (type == Actor.MKFIRM) {
+						a.setfMechanism(true);
+						a.setfMechType(Actor.MKFIRM);
+						int m = dis.readInt();
+						a.setK(checkRange("k", dis.readInt(), 1, 30));
+						a.setM(checkRange("m", m, 0, a.getK()));
+					}
+					a.setVoted(dis.readBoolean());
+					actors.add(a);
+					dag.getNodes().add(a);
+				}
+				
+				int nbEdges = checkRange("edges", dis.readInt(), 0, size);
+				for (int i = 0; i < nbEdges; i++) {
+					int src = checkRange("edge source", dis.readInt(), 0, nbActors - 1);
+					int dst = checkRange("edge destination", dis.readInt(), 0, nbActors - 1);
+					if (src == dst)
+						throw new IOException("Bad binary MC-DAG model: self edge on actor "+src);
+					@SuppressWarnings("unused")
+					Edge ed = new Edge(actors.get(src), actors.get(dst));
+				}
+				dag.sanityChecks();
+				dags.add(dag);
+			}
+		} finally {
+			T_READ.recordSince(t0);
 		}
 	}
 	
+	/**
+	 * Writes the DAGs in a compact binary format: no XML parsing is
+	 * needed to read them back
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeBinary (OutputStream out) throws IOException {
+		DataOutputStream dos = new DataOutputStream(out);
+		
+		dos.writeInt(BINARY_MAGIC);
+		dos.writeInt(getNbCores());
+		dos.writeInt(dags.size());
+		for (DAG dag : dags) {
+			Actor actors[] = new Actor[dag.getNodes().size()];
+			int nbEdges = 0;
+			for (Actor a : dag.getNodes()) {
+				actors[a.getId()] = a;
+				nbEdges += a.getSndEdges().size();
+			}
+			
+			dos.writeInt(dag.getDeadline());
+			dos.writeInt(actors.length);
+			for (Actor a : actors) {
+				dos.writeUTF(a.getName());
+				dos.writeInt(a.getCLO());
+				dos.writeInt(a.getCHI());
+				dos.writeDouble(a.getfProb());
+				
+				short type = a.isfMechanism() ? a.getfMechType() : 0;
+				dos.writeShort(type);
+				if (type == Actor.VOTER) {
+					dos.writeUTF(a.getVotTask());
+					dos.writeInt(a.getNbReplicas());
+				} else if (type == Actor.MKFIRM) {
+					dos.writeInt(a.getM());
+					dos.writeInt(a.getK());
+				}
+				dos.writeBoolean(a.isVoted());
+			}
+			
+			dos.writeInt(nbEdges);
+			for (Actor a : actors) {
+				for (Edge e : a.getSndEdges()) {
+					dos.writeInt(e.getSrc().getId());
+					dos.writeInt(e.getDest().getId());
+				}
+			}
+		}
+		dos.flush();
+	}
+	
 	/**
 	 * Writes the scheduling tables
 	 */
 	public void writeSched () throws IOException {
+		long t0 = System.nanoTime();
 		try {
 			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
 			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
@@ -234,6 +442,8 @@ public class MCParser {
 			trans.transform(dSource, sResult);
 		} catch (Exception ie) {
 			ie.printStackTrace();
+		} finally {
+			T_WRITE_SCHED.recordSince(t0);
 		}
 	}
 	
@@ -282,6 +492,10 @@ public class MCParser {
 	 * Writes a model for the PRISM model checker
 	 */
 	public void writePRISM () throws IOException {
+		long t0 = System.nanoTime();
+		PrismWriteEvent ev = new PrismWriteEvent();
+		ev.begin();
+		ev.outcome = "error";
 		BufferedWriter out = null;
 		try {
 			DAG dag = dags.iterator().next();
@@ -518,11 +732,20 @@ public class MCParser {
 			out.write("\n");
 			
 			writePCTL();
+			ev.outcome = "ok";
 		} catch (IOException ie){
 			System.out.println(ie.getMessage());
 		} finally {
 			if (out != null)
 				out.close();
+			T_WRITE_PRISM.recordSince(t0);
+			ev.end();
+			if (ev.shouldCommit()) {
+				ev.file = outputFile;
+				ev.dagId = (auto != null) ? auto.getD().getId() : -1;
+				ev.nbStates = (auto != null) ? auto.getNbStates() : 0;
+				ev.commit();
+			}
 		}
 	}
 	
@@ -531,6 +754,7 @@ public class MCParser {
 	 * @throws IOException
 	 */
 	public void writeGennedDAG () throws IOException {
+		long t0 = System.nanoTime();
 		try {
 			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
 			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
@@ -610,6 +834,8 @@ public class MCParser {
 			trans.transform(dSource, sResult);
 		} catch (Exception ie) {
 			ie.printStackTrace();
+		} finally {
+			T_WRITE_GEN.recordSince(t0);
 		}
 	}
 	
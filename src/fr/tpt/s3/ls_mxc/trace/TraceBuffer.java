@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.trace;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Ring buffer of trace records owned by one thread. A record is four longs:
+ * timestamp, [type | mode | core | slot], [run | actor], [value].
+ * Only the owner thread writes; the buffer is read when the trace is dumped,
+ * once the workers are done. The oldest records are overwritten when the
+ * ring is full, and the actor names of a run are dropped with its last
+ * record.
+ * @author roberto
+ *
+ */
+public class TraceBuffer {
+
+	public static final int RECORD_LONGS = 4;
+
+	private String threadName;
+	private long ring[];
+	private int mask;
+	private long written;
+	// Runs of the owner that may still have records in the ring, oldest first
+	private LinkedList<Run> runs;
+
+	/**
+	 * Actor names of a run and position of its first record
+	 */
+	static final class Run {
+		final int id;
+		final long start;
+		final String names[];
+		final int dags[];
+
+		Run (int id, long start, String names[], int dags[]) {
+			this.id = id;
+			this.start = start;
+			this.names = names;
+			this.dags = dags;
+		}
+	}
+
+	public TraceBuffer (String threadName, int capacity) {
+		int cap = Integer.highestOneBit(Math.max(1, capacity));
+		this.threadName = threadName;
+		this.ring = new long[cap * RECORD_LONGS];
+		this.mask = cap - 1;
+		this.written = 0;
+		this.runs = new LinkedList<Run>();
+	}
+
+	/**
+	 * Registers a run of the owner thread. The runs whose records have
+	 * all been overwritten are forgotten.
+	 * @param id
+	 * @param names
+	 * @param dags
+	 */
+	public void addRun (int id, String names[], int dags[]) {
+		// The previous run did not record anything
+		if (!runs.isEmpty() && runs.getLast().start == written)
+			runs.removeLast();
+		runs.add(new Run(id, written, names, dags));
+
+		long first = written - getSize();
+		while (runs.size() > 1 && runs.get(1).start <= first)
+			runs.removeFirst();
+	}
+
+	public void record (int type, int mode, int run, int slot, int core, int actor, long value) {
+		int i = (int) (written & mask) * RECORD_LONGS;
+
+		ring[i] = System.nanoTime();
+		ring[i + 1] = ((long) (type & 0xFF) << 56) | ((long) (mode & 0xFF) << 48)
+				| ((long) (core & 0xFFFF) << 32) | (slot & 0xFFFFFFFFL);
+		ring[i + 2] = ((long) run << 32) | (actor & 0xFFFFFFFFL);
+		ring[i + 3] = value;
+		written++;
+	}
+
+	/**
+	 * Number of records still held by the ring
+	 * @return
+	 */
+	public int getSize () {
+		return (int) Math.min(written, mask + 1);
+	}
+
+	/**
+	 * Copies the i-th oldest record still held by the ring
+	 * @param i
+	 * @param dst
+	 */
+	public void get (int i, long dst[]) {
+		long first = written - getSize();
+		int idx = (int) ((first + i) & mask) * RECORD_LONGS;
+		System.arraycopy(ring, idx, dst, 0, RECORD_LONGS);
+	}
+
+	public void clear () {
+		written = 0;
+		runs.clear();
+	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	public long getWritten() {
+		return written;
+	}
+
+	public long getDropped() {
+		return written - getSize();
+	}
+
+	List<Run> getRuns() {
+		return runs;
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import fr.tpt.s3.ls_mxc.model.Actor;
+
+/**
+ * Decodes a binary trace written by the Tracer into a semicolon separated
+ * text file, one line per record.
+ * @author roberto
+ *
+ */
+public class TraceDecoder {
+
+	private static final String EVENTS[] = {"?", "SLOT", "READY", "PROMOTION", "DAG_ACTIVATION", "FAILURE"};
+
+	public static void decode (String input, Writer out) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(input), 1 << 16));
+		Map<Integer, String[]> names = new HashMap<Integer, String[]>();
+		Map<Integer, int[]> dags = new HashMap<Integer, int[]>();
+
+		try {
+			if (in.readInt() != Tracer.MAGIC)
+				throw new IOException("TraceDecoder: "+input+" is not a trace file");
+			int version = in.readInt();
+			if (version != Tracer.VERSION)
+				throw new IOException("TraceDecoder: unsupported trace version "+version);
+
+			int nbRuns = in.readInt();
+			for (int r = 0; r < nbRuns; r++) {
+				int id = in.readInt();
+				int n = in.readInt();
+				String runNames[] = new String[n];
+				int runDags[] = new int[n];
+				for (int i = 0; i < n; i++) {
+					runDags[i] = in.readInt();
+					runNames[i] = in.readUTF();
+				}
+				names.put(id, runNames);
+				dags.put(id, runDags);
+			}
+
+			out.write("Thread; Time (ns); Run; Event; Mode; Slot; Core; DAG; Actor; Value\n");
+			int nbThreads = in.readInt();
+			for (int t = 0; t < nbThreads; t++) {
+				String thread = in.readUTF();
+				long written = in.readLong();
+				int size = in.readInt();
+				long first = 0;
+
+				if (written > size)
+					System.err.println("[WARNING] TraceDecoder: "+(written - size)+" oldest records of "+thread+" were overwritten");
+
+				for (int i = 0; i < size; i++) {
+					long ts = in.readLong();
+					long w1 = in.readLong();
+					long w2 = in.readLong();
+					long value = in.readLong();
+
+					if (i == 0)
+						first = ts;
+					int type = (int) (w1 >>> 56);
+					int mode = (int) ((w1 >>> 48) & 0xFF);
+					int core = (int) ((w1 >>> 32) & 0xFFFF);
+					int slot = (int) w1;
+					int run = (int) (w2 >>> 32);
+					int actor = (int) w2;
+
+					String aName = "-";
+					String dag = "-";
+					if (actor >= 0 && names.containsKey(run)) {
+						aName = names.get(run)[actor];
+						dag = String.valueOf(dags.get(run)[actor]);
+					} else if (type == TraceRun.DAG_ACTIVATION) {
+						dag = String.valueOf(value);
+					}
+
+					out.write(thread+"; "+(ts - first)+"; "+run+"; "+((type < EVENTS.length) ? EVENTS[type] : "?")+"; "
+							+((mode == Actor.HI) ? "HI" : "LO")+"; "+slot+"; "+core+"; "+dag+"; "+aName+"; "+value+"\n");
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public static void main (String[] args) throws IOException {
+		Options options = new Options();
+
+		Option input = new Option("i", "input", true, "Binary trace file.");
+		input.setRequired(true);
+		options.addOption(input);
+
+		Option output = new Option("o", "output", true, "Decoded output file (standard output otherwise).");
+		output.setRequired(false);
+		options.addOption(output);
+
+		CommandLineParser parser = new DefaultParser();
+		HelpFormatter formatter = new HelpFormatter();
+		CommandLine cmd;
+
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			formatter.printHelp("Trace decoder", options);
+			System.exit(1);
+			return;
+		}
+
+		Writer out = cmd.hasOption("output") ? new BufferedWriter(new FileWriter(cmd.getOptionValue("output")))
+											 : new BufferedWriter(new OutputStreamWriter(System.out));
+		try {
+			decode(cmd.getOptionValue("input"), out);
+		} finally {
+			out.close();
+		}
+	}
+}
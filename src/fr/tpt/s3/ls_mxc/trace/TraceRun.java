@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.trace;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.model.DAG;
+
+/**
+ * Trace handle of one allocation run. It numbers the actors of the run so
+ * that allocation decisions are recorded as integers, the names are only
+ * written once in the trace file. A run is used by a single thread.
+ * @author roberto
+ *
+ */
+public class TraceRun {
+
+	// Event types
+	public static final int SLOT = 1;
+	public static final int READY = 2;
+	public static final int PROMOTION = 3;
+	public static final int DAG_ACTIVATION = 4;
+	public static final int FAILURE = 5;
+
+	private int id;
+	private TraceBuffer buffer;
+	private Map<Actor, Integer> index;
+	private String names[];
+	private int dags[];
+
+	public TraceRun (int id, TraceBuffer buffer, Collection<DAG> runDags) {
+		this.id = id;
+		this.buffer = buffer;
+		this.index = new IdentityHashMap<Actor, Integer>();
+
+		int n = 0;
+		for (DAG d : runDags)
+			n += d.getNodes().size();
+		names = new String[n];
+		dags = new int[n];
+
+		int i = 0;
+		for (DAG d : runDags) {
+			for (Actor a : d.getNodes()) {
+				index.put(a, i);
+				names[i] = a.getName();
+				dags[i] = d.getId();
+				i++;
+			}
+		}
+	}
+
+	private int indexOf (Actor a) {
+		Integer i = index.get(a);
+		return (i == null) ? -1 : i;
+	}
+
+	/**
+	 * A slot of a core has been given to an actor
+	 */
+	public void slot (int mode, int slot, int core, Actor a) {
+		buffer.record(SLOT, mode, id, slot, core, indexOf(a), 0);
+	}
+
+	/**
+	 * An actor is in the ready list with a given laxity/priority
+	 */
+	public void ready (int mode, int slot, Actor a, int laxity) {
+		buffer.record(READY, mode, id, slot, 0, indexOf(a), laxity);
+	}
+
+	public void promotion (int mode, int slot, Actor a) {
+		buffer.record(PROMOTION, mode, id, slot, 0, indexOf(a), 0);
+	}
+
+	public void dagActivation (int mode, int slot, DAG d) {
+		buffer.record(DAG_ACTIVATION, mode, id, slot, 0, -1, d.getId());
+	}
+
+	public void failure (int mode, int slot) {
+		buffer.record(FAILURE, mode, id, slot, 0, -1, 0);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String[] getNames() {
+		return names;
+	}
+
+	public int[] getDags() {
+		return dags;
+	}
+}
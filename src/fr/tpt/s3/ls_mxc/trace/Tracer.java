@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.tpt.s3.ls_mxc.model.DAG;
+
+/**
+ * Structured tracing of the allocators. When enabled, each thread records
+ * allocation decisions into its own ring buffer (no locks, no strings, no
+ * System.out); the buffers are dumped to a binary file at the end of the
+ * run and read back with TraceDecoder.
+ *
+ * File layout (java.io.DataOutput encoding): magic "MCTR", version,
+ * number of runs, for each run [id, number of actors, (dag id, name)*],
+ * number of threads, for each thread [name, records written, records
+ * kept, records (4 longs each)].
+ * @author roberto
+ *
+ */
+public final class Tracer {
+
+	public static final int MAGIC = 0x4D435452;
+	public static final int VERSION = 1;
+
+	private static volatile boolean enabled = false;
+	private static int capacity = 1 << 16;
+
+	private static final AtomicInteger runIds = new AtomicInteger();
+	private static final ConcurrentLinkedQueue<TraceBuffer> buffers = new ConcurrentLinkedQueue<TraceBuffer>();
+	private static final ThreadLocal<TraceBuffer> local = new ThreadLocal<TraceBuffer>() {
+		@Override
+		protected TraceBuffer initialValue() {
+			TraceBuffer b = new TraceBuffer(Thread.currentThread().getName(), capacity);
+			buffers.add(b);
+			return b;
+		}
+	};
+
+	private Tracer () {}
+
+	/**
+	 * Starts the trace of an allocation run
+	 * @param dags DAGs allocated by the run
+	 * @return The handle of the run or null when tracing is disabled
+	 */
+	public static TraceRun newRun (Collection<DAG> dags) {
+		if (!enabled)
+			return null;
+
+		TraceBuffer b = local.get();
+		TraceRun r = new TraceRun(runIds.getAndIncrement(), b, dags);
+		// Only the names are kept once the run is over, not the model
+		b.addRun(r.getId(), r.getNames(), r.getDags());
+		return r;
+	}
+
+	public static TraceRun newRun (DAG dag) {
+		return newRun(Collections.singleton(dag));
+	}
+
+	/**
+	 * Writes all the buffers to a binary trace file
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void dump (String file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		long rec[] = new long[TraceBuffer.RECORD_LONGS];
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			int nbRuns = 0;
+			for (TraceBuffer b : buffers)
+				nbRuns += b.getRuns().size();
+			out.writeInt(nbRuns);
+			for (TraceBuffer b : buffers) {
+				for (TraceBuffer.Run run : b.getRuns()) {
+					out.writeInt(run.id);
+					out.writeInt(run.names.length);
+					for (int i = 0; i < run.names.length; i++) {
+						out.writeInt(run.dags[i]);
+						out.writeUTF(run.names[i]);
+					}
+				}
+			}
+
+			out.writeInt(buffers.size());
+			for (TraceBuffer b : buffers) {
+				int size = b.getSize();
+				out.writeUTF(b.getThreadName());
+				out.writeLong(b.getWritten());
+				out.writeInt(size);
+				for (int i = 0; i < size; i++) {
+					b.get(i, rec);
+					for (long l : rec)
+						out.writeLong(l);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Tracer.enabled = enabled;
+	}
+
+	public static int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Number of records kept per thread, has to be set before tracing starts
+	 * @param capacity
+	 */
+	public static void setCapacity(int capacity) {
+		Tracer.capacity = capacity;
+	}
+}
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.utests;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import fr.tpt.s3.ls_mxc.alloc.IncrementalLS;
+import fr.tpt.s3.ls_mxc.alloc.LS;
+import fr.tpt.s3.ls_mxc.alloc.ModelDelta;
+import fr.tpt.s3.ls_mxc.alloc.SchedulingException;
+import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.model.DAG;
+import fr.tpt.s3.ls_mxc.model.Edge;
+
+/**
+ * Checks that the tables of the incremental scheduler are the ones
+ * a full LS allocation gives on random DAGs and random deltas, and that
+ * the model and the tables are left untouched when a delta fails
+ * @author roberto
+ *
+ */
+public class IncrementalLSTests {
+
+	private static final long SEED = 0x1C5L;
+	private static final int NB_DAGS = 300;
+	private static final int NB_DELTAS = 12;
+
+	/**
+	 * Description of a model: the DAGs compared are built from it
+	 */
+	private static class Model {
+		int deadline;
+		int nbCores;
+		int cLO[];
+		int cHI[];
+		List<int[]> edges;
+
+		Model copy () {
+			Model m = new Model();
+			m.deadline = deadline;
+			m.nbCores = nbCores;
+			m.cLO = cLO.clone();
+			m.cHI = cHI.clone();
+			m.edges = new ArrayList<int[]>(edges);
+			return m;
+		}
+
+		DAG build () {
+			DAG d = new DAG();
+			Actor actors[] = new Actor[cLO.length];
+
+			d.setId(0);
+			d.setDeadline(deadline);
+			for (int i = 0; i < actors.length; i++) {
+				actors[i] = new Actor(i, name(i), cLO[i], cHI[i]);
+				actors[i].setGraphDead(deadline);
+				d.getNodes().add(actors[i]);
+			}
+			for (int[] e : edges) {
+				@SuppressWarnings("unused")
+				Edge ed = new Edge(actors[e[0]], actors[e[1]]);
+			}
+			d.sanityChecks();
+			return d;
+		}
+
+		boolean hasEdge (int src, int dst) {
+			for (int[] e : edges) {
+				if (e[0] == src && e[1] == dst)
+					return true;
+			}
+			return false;
+		}
+
+		boolean reaches (int src, int dst) {
+			if (src == dst)
+				return true;
+			for (int[] e : edges) {
+				if (e[0] == src && reaches(e[1], dst))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private Random rng;
+	private int nbCompared;
+	private int nbFailed;
+
+	public IncrementalLSTests () {
+		rng = new Random(SEED);
+	}
+
+	private static String name (int i) {
+		return "T"+i;
+	}
+
+	/**
+	 * Layered DAG, HI actors first: LO actors never send to HI actors
+	 * @return
+	 */
+	private Model randomModel () {
+		Model m = new Model();
+		int nbHI = 2 + rng.nextInt(6);
+		int nbLO = 1 + rng.nextInt(6);
+		int n = nbHI + nbLO;
+
+		m.deadline = 10 + rng.nextInt(21);
+		m.nbCores = 1 + rng.nextInt(4);
+		m.cLO = new int[n];
+		m.cHI = new int[n];
+		m.edges = new ArrayList<int[]>();
+		for (int i = 0; i < n; i++) {
+			if (i < nbHI) {
+				m.cHI[i] = 1 + rng.nextInt(m.deadline / 4);
+				m.cLO[i] = 1 + rng.nextInt(m.cHI[i]);
+			} else {
+				m.cLO[i] = 1 + rng.nextInt(m.deadline / 4);
+			}
+			for (int j = 0; j < i; j++) {
+				if (rng.nextInt(100) < 25 && (m.cHI[j] != 0 || m.cHI[i] == 0))
+					m.edges.add(new int[] {j, i});
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * Random delta, applied to the description
+	 * @param m
+	 * @return
+	 */
+	private ModelDelta randomDelta (Model m) {
+		int n = m.cLO.length;
+		int a = rng.nextInt(n);
+
+		switch (rng.nextInt(3)) {
+		case 0:
+			int max = (m.cHI[a] != 0) ? m.cHI[a] : m.deadline / 3;
+			m.cLO[a] = 1 + rng.nextInt(max);
+			return ModelDelta.setCLO(name(a), m.cLO[a]);
+		case 1:
+			if (m.cHI[a] != 0) {
+				m.cHI[a] = m.cLO[a] + rng.nextInt(m.deadline / 3);
+				return ModelDelta.setCHI(name(a), m.cHI[a]);
+			}
+			// LO actor: fall through to an edge
+		default:
+			int b = rng.nextInt(n);
+			// Cycles and LO to HI edges are invalid, the delta has to be refused
+			if (m.cHI[a] == 0 && m.cHI[b] != 0) {
+				int tmp = a;
+				a = b;
+				b = tmp;
+			}
+			if (a != b && !m.reaches(b, a) && !m.hasEdge(a, b))
+				m.edges.add(new int[] {a, b});
+			return ModelDelta.addEdge(name(a), name(b));
+		}
+	}
+
+	private static String[][] copy (String[][] t) {
+		String c[][] = new String[t.length][];
+		for (int i = 0; i < t.length; i++)
+			c[i] = t[i].clone();
+		return c;
+	}
+
+	/**
+	 * Checks that the DAG is the one described
+	 * @param m
+	 * @param d
+	 */
+	private static void assertModel (Model m, DAG d) {
+		int nbEdges = 0;
+
+		for (Actor a : d.getNodes()) {
+			assertEquals(m.cLO[a.getId()], a.getCLO(), "C(LO) of "+a.getName());
+			assertEquals(m.cHI[a.getId()], a.getCHI(), "C(HI) of "+a.getName());
+			for (Edge e : a.getSndEdges()) {
+				assertTrue(m.hasEdge(e.getSrc().getId(), e.getDest().getId()), "Unexpected edge "+e.getSrc().getName()+" -> "+e.getDest().getName());
+				nbEdges++;
+			}
+		}
+		assertEquals(m.edges.size(), nbEdges, "Number of edges");
+	}
+
+	/**
+	 * Full allocation of a model
+	 * @param m
+	 * @return null if the model is not schedulable
+	 */
+	private static LS allocate (Model m) {
+		DAG d = m.build();
+		LS ls = new LS(m.deadline, m.nbCores, d);
+
+		try {
+			ls.AllocAll();
+		} catch (SchedulingException se) {
+			return null;
+		}
+		return ls;
+	}
+
+	/**
+	 * Random deltas applied one at a time: the incremental tables are
+	 * compared to the ones of a full allocation of the same model. When
+	 * the delta is refused or the model is not schedulable, the model and
+	 * the tables have to be the ones before the delta.
+	 */
+	@Test
+	public void TestIncrementalEqualsFull () {
+		for (int k = 0; k < NB_DAGS; k++) {
+			Model m = randomModel();
+			LS ls = allocate(m);
+			if (ls == null)
+				continue;
+			IncrementalLS inc = new IncrementalLS(ls);
+
+			for (int i = 0; i < NB_DELTAS; i++) {
+				Model next = m.copy();
+				ModelDelta delta = randomDelta(next);
+				String[][] oldHI = copy(ls.getS_HI());
+				String[][] oldLO = copy(ls.getS_LO());
+				String ctx = "DAG "+k+", delta "+i+" ("+delta+")";
+				boolean applied;
+
+				try {
+					inc.apply(delta);
+					applied = true;
+				} catch (SchedulingException | IllegalArgumentException e) {
+					applied = false;
+				}
+
+				// Only new edges that do not close a cycle are valid
+				boolean valid = delta.getType() != ModelDelta.ADD_EDGE || next.edges.size() > m.edges.size();
+				LS full = valid ? allocate(next) : null;
+				if (!valid && applied)
+					fail(ctx+": invalid delta accepted");
+				if (valid && applied != (full != null))
+					fail(ctx+": incremental allocation "+(applied ? "succeeded" : "failed")+", full allocation "+(applied ? "failed" : "succeeded"));
+				
+				if (applied) {
+					assertArrayEquals(full.getS_HI(), ls.getS_HI(), ctx+": HI table");
+					assertArrayEquals(full.getS_LO(), ls.getS_LO(), ctx+": LO table");
+					assertModel(next, ls.getMxcDag());
+					m = next;
+					nbCompared++;
+				} else {
+					assertArrayEquals(oldHI, ls.getS_HI(), ctx+": HI table after rollback");
+					assertArrayEquals(oldLO, ls.getS_LO(), ctx+": LO table after rollback");
+					assertModel(m, ls.getMxcDag());
+					nbFailed++;
+				}
+			}
+		}
+		assertTrue(nbCompared > 0, "No delta was compared");
+		assertTrue(nbFailed > 0, "The rollback was never exercised");
+	}
+
+	/**
+	 * Runs all incremental scheduling tests
+	 */
+	public void runAll () {
+		TestIncrementalEqualsFull();
+		System.out.println("[UTESTS] IncrementalLS: "+nbCompared+" deltas matched a full allocation, "+nbFailed+" rolled back.");
+	}
+}
@@ -16,6 +16,8 @@
  *******************************************************************************/
 package fr.tpt.s3.ls_mxc.utests;
 
+import java.io.IOException;
+
 /**
  * Main class with Unit tests for code integration
  * @author roberto
@@ -23,8 +25,12 @@ package fr.tpt.s3.ls_mxc.utests;
  */
 public class MainTests {
 
-	public static void main (String[] args) {
+	public static void main (String[] args) throws IOException {
 		SchedulingTests st = new SchedulingTests();
 		st.runAll();
+		IncrementalLSTests it = new IncrementalLSTests();
+		it.runAll();
+		ResumeTests rt = new ResumeTests();
+		rt.runAll();
 	}
 }
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.utests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import fr.tpt.s3.ls_mxc.bench.CsvResultFormat;
+import fr.tpt.s3.ls_mxc.bench.Journal;
+import fr.tpt.s3.ls_mxc.bench.ResultSink;
+
+/**
+ * Crash recovery of a campaign: journal and CSV results left by a run
+ * that was killed, then resumed
+ * @author roberto
+ *
+ */
+public class ResumeTests {
+
+	private static final String HEADER = "Thread; File; Result\n";
+	private static final int KEY = 1;
+
+	private Path dir;
+
+	private String file (String name, String content) throws IOException {
+		Path p = dir.resolve(name);
+		Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+		return p.toString();
+	}
+
+	private static String read (String file) throws IOException {
+		return new String(Files.readAllBytes(new File(file).toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static Set<String> set (String... s) {
+		return new HashSet<String>(Arrays.asList(s));
+	}
+
+	private void setUp () throws IOException {
+		dir = Files.createTempDirectory("resume-tests");
+	}
+
+	private void tearDown () throws IOException {
+		File files[] = dir.toFile().listFiles();
+		if (files != null) {
+			for (File f : files)
+				Files.delete(f.toPath());
+		}
+		Files.delete(dir);
+	}
+
+	/**
+	 * A journal line cut by a crash is dropped and overwritten by the
+	 * next commit
+	 */
+	@Test
+	public void TestTornJournalLine () throws IOException {
+		setUp();
+		try {
+			String j = file("out.csv.journal", "a.xml\nb.xml\nc.x");
+			Journal journal = new Journal(j, true);
+			assertEquals(set("a.xml", "b.xml"), journal.getDone(), "Inputs done");
+			assertFalse(journal.isDone("c.xml"), "Torn input done");
+
+			journal.add("c.xml");
+			journal.commit();
+			journal.close();
+			assertEquals("a.xml\nb.xml\nc.xml\n", read(j), "Journal after commit");
+		} finally {
+			tearDown();
+		}
+	}
+
+	/**
+	 * A result row cut by a crash is removed, its input has to be done
+	 * again even if it was journaled
+	 */
+	@Test
+	public void TestTornLastRow () throws IOException {
+		setUp();
+		try {
+			String csv = file("out.csv", HEADER+"t1; a.xml; 1;\nt2; b.xml; 0;\nt1; c.xml; ");
+			Set<String> kept = CsvResultFormat.reconcile(csv, set("a.xml", "b.xml", "c.xml"), KEY);
+			assertEquals(set("a.xml", "b.xml"), kept, "Inputs kept");
+			assertEquals(HEADER+"t1; a.xml; 1;\nt2; b.xml; 0;\n", read(csv), "Results");
+		} finally {
+			tearDown();
+		}
+	}
+
+	/**
+	 * Only the first row of an input is kept
+	 */
+	@Test
+	public void TestDuplicateRows () throws IOException {
+		setUp();
+		try {
+			String csv = file("out.csv", HEADER+"t1; a.xml; 1;\nt2; b.xml; 0;\nt3; a.xml; 0;\n");
+			Set<String> kept = CsvResultFormat.reconcile(csv, set("a.xml", "b.xml"), KEY);
+			assertEquals(set("a.xml", "b.xml"), kept, "Inputs kept");
+			assertEquals(HEADER+"t1; a.xml; 1;\nt2; b.xml; 0;\n", read(csv), "Results");
+		} finally {
+			tearDown();
+		}
+	}
+
+	/**
+	 * Inputs journaled without a row are done again, rows of inputs that
+	 * were not journaled are removed
+	 */
+	@Test
+	public void TestJournalAndResultsDisagree () throws IOException {
+		setUp();
+		try {
+			String csv = file("out.csv", HEADER+"t1; a.xml; 1;\nt2; d.xml; 1;\n");
+			String j = file("out.csv.journal", "a.xml\nb.xml\nc.xml\n");
+			Journal journal = new Journal(j, true);
+
+			journal.retainDone(CsvResultFormat.reconcile(csv, journal.getDone(), KEY));
+			journal.close();
+			assertEquals(set("a.xml"), journal.getDone(), "Inputs done");
+			assertFalse(journal.skip("b.xml"), "Journaled input without a row skipped");
+			assertFalse(journal.skip("d.xml"), "Input not journaled skipped");
+			assertEquals(HEADER+"t1; a.xml; 1;\n", read(csv), "Results");
+		} finally {
+			tearDown();
+		}
+	}
+
+	/**
+	 * A resumed sink keeps the rows done and appends the new ones without
+	 * a second header
+	 */
+	@Test
+	public void TestResumedSink () throws IOException {
+		setUp();
+		try {
+			String csv = file("out.csv", HEADER+"t1; a.xml; 1;\nt2; b.x");
+			String j = file("out.csv.journal", "a.xml\nb.xml\n");
+			Journal journal = new Journal(j, true);
+			ResultSink sink = ResultSink.open(csv, false, new String[] {"Thread", "File", "Result"}, journal, KEY);
+
+			assertTrue(journal.skip("a.xml"), "Input done not skipped");
+			assertFalse(journal.skip("b.xml"), "Torn input skipped");
+			sink.submit("t3", "b.xml", 0);
+			sink.close();
+			assertEquals(HEADER+"t1; a.xml; 1;\nt3; b.xml; 0;\n", read(csv), "Results");
+			// The journal is read back as a set, b.xml may be there twice
+			Journal reread = new Journal(j, true);
+			reread.close();
+			assertEquals(set("a.xml", "b.xml"), reread.getDone(), "Inputs done after the resumed run");
+		} finally {
+			tearDown();
+		}
+	}
+
+	/**
+	 * Inputs that the results can not hold are never run
+	 */
+	@Test
+	public void TestInvalidInputs () throws IOException {
+		setUp();
+		try {
+			Journal journal = new Journal(dir.resolve("out.csv.journal").toString(), false);
+			assertTrue(journal.skip("a;b.xml"), "Input with a separator");
+			assertTrue(journal.skip("a\nb.xml"), "Input with a line break");
+			assertTrue(journal.skip(" a.xml"), "Input with a blank");
+			assertFalse(journal.skip("dir/a b.xml"), "Valid input");
+			journal.close();
+		} finally {
+			tearDown();
+		}
+	}
+
+	/**
+	 * Runs all resume tests
+	 */
+	public void runAll () throws IOException {
+		TestTornJournalLine();
+		TestTornLastRow();
+		TestDuplicateRows();
+		TestJournalAndResultsDisagree();
+		TestResumedSink();
+		TestInvalidInputs();
+		System.out.println("[UTESTS] Resume: all tests passed.");
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed thread pools with a bounded work queue: once the queue is full,
+ * execute/submit blocks the submitting thread until a worker takes a task.
+ * Campaigns can then submit their files as they are discovered without
+ * queueing the whole corpus.
+ * @author roberto
+ *
+ */
+public class BoundedExecutor {
+	
+	private BoundedExecutor () {}
+	
+	/**
+	 * Fixed pool with a queue of capacity tasks
+	 * @param nThreads
+	 * @param capacity
+	 * @return
+	 */
+	public static ExecutorService newFixedThreadPool (int nThreads, int capacity) {
+		return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacity), new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+				if (executor.isShutdown())
+					throw new RejectedExecutionException("Executor has been shut down");
+				try {
+					executor.getQueue().put(r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException(e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Fixed pool with a queue of 4 tasks per thread
+	 * @param nThreads
+	 * @return
+	 */
+	public static ExecutorService newFixedThreadPool (int nThreads) {
+		return newFixedThreadPool(nThreads, 4 * nThreads);
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import fr.tpt.s3.ls_mxc.model.Actor;
+import fr.tpt.s3.ls_mxc.model.DAG;
+import fr.tpt.s3.ls_mxc.model.Edge;
+
+/**
+ * Canonical hash of a system of MC-DAGs, invariant to the names and ids
+ * of the actors and to the order of the DAGs. Actors are labelled with
+ * their budgets, then the labels are refined with the labels of their
+ * predecessors and successors (Weisfeiler-Lehman) until the partition
+ * of the actors is stable. A DAG hashes its deadline and the multiset of
+ * the labels, a system the number of cores and the multiset of its DAGs.
+ * Isomorphic systems have the same hash. The converse holds for the DAGs
+ * that WL distinguishes, which covers the generated corpora, up to 64-bit
+ * collisions.
+ * @author roberto
+ *
+ */
+public class CanonicalHash {
+	
+	private CanonicalHash () {}
+	
+	/**
+	 * 64-bit finalizer of SplitMix64
+	 * @param z
+	 * @return
+	 */
+	private static long mix (long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	private static long combine (long h, long v) {
+		return mix(h ^ (v + 0x9E3779B97F4A7C15L + (h << 6) + (h >>> 2)));
+	}
+	
+	/**
+	 * Order independent hash of a multiset of values (sorts them)
+	 * @param seed
+	 * @param values
+	 * @param n Number of values used
+	 * @return
+	 */
+	private static long multiset (long seed, long values[], int n) {
+		Arrays.sort(values, 0, n);
+		long h = combine(seed, n);
+		for (int i = 0; i < n; i++)
+			h = combine(h, values[i]);
+		return h;
+	}
+	
+	/**
+	 * Hash of a DAG
+	 * @param d
+	 * @return
+	 */
+	public static long hash (DAG d) {
+		Map<Actor, Integer> index = new IdentityHashMap<Actor, Integer>();
+		Actor actors[] = d.getNodes().toArray(new Actor[0]);
+		int n = actors.length;
+		long label[] = new long[n];
+		long next[] = new long[n];
+		long buf[] = new long[n];
+		int classes = 0;
+		
+		for (int i = 0; i < n; i++) {
+			Actor a = actors[i];
+			index.put(a, i);
+			label[i] = combine(combine(combine(1, a.getCLO()), a.getCHI()), Double.doubleToLongBits(a.getfProb()));
+		}
+		
+		// Refine until the number of classes does not grow
+		for (int round = 0; round < n; round++) {
+			Set<Long> distinct = new HashSet<Long>();
+			
+			for (int i = 0; i < n; i++) {
+				int k = 0;
+				for (Edge e : actors[i].getRcvEdges())
+					buf[k++] = label[index.get(e.getSrc())];
+				long h = multiset(combine(label[i], 2), buf, k);
+				
+				k = 0;
+				for (Edge e : actors[i].getSndEdges())
+					buf[k++] = label[index.get(e.getDest())];
+				next[i] = multiset(combine(h, 3), buf, k);
+				distinct.add(next[i]);
+			}
+			long tmp[] = label;
+			label = next;
+			next = tmp;
+			
+			if (distinct.size() == classes)
+				break;
+			classes = distinct.size();
+		}
+		
+		return multiset(combine(4, d.getDeadline()), label, n);
+	}
+	
+	/**
+	 * Hash of a system of DAGs
+	 * @param dags
+	 * @param nbCores Number of cores of the architecture
+	 * @return
+	 */
+	public static long hash (Collection<DAG> dags, int nbCores) {
+		long h[] = new long[dags.size()];
+		int i = 0;
+		
+		for (DAG d : dags)
+			h[i++] = hash(d);
+		return multiset(combine(5, nbCores), h, h.length);
+	}
+}
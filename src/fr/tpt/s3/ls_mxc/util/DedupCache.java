@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results shared by the inputs of a run that have the same key (see
+ * CanonicalHash). The inputs that find no result compute and publish
+ * theirs, the next ones with the same key reuse it. Nobody waits: an
+ * input whose twin is still being processed computes its own result.
+ * Only the most recently used results are kept, so the memory of a
+ * campaign does not grow with the number of distinct systems.
+ * @author roberto
+ *
+ * @param <V>
+ */
+public class DedupCache<V> {
+	
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	private Map<Long, V> results;
+	private LongAdder lookups;
+	private LongAdder hits;
+	
+	/**
+	 * @param capacity Number of results kept, least recently used first out
+	 */
+	public DedupCache (final int capacity) {
+		results = new LinkedHashMap<Long, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<Long, V> eldest) {
+				return size() > capacity;
+			}
+		};
+		lookups = new LongAdder();
+		hits = new LongAdder();
+	}
+	
+	public DedupCache () {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Looks for the result of an earlier input with the same key
+	 * @param key
+	 * @return The result to reuse, or null: the caller computes the
+	 * result itself and publishes it
+	 */
+	public V claim (long key) {
+		V v;
+		
+		lookups.increment();
+		synchronized (results) {
+			v = results.get(key);
+		}
+		if (v != null)
+			hits.increment();
+		return v;
+	}
+	
+	/**
+	 * Publishes the result computed for a key
+	 * @param key
+	 * @param value Result, null if it can not be reused
+	 */
+	public void publish (long key, V value) {
+		if (value == null)
+			return;
+		synchronized (results) {
+			results.put(key, value);
+		}
+	}
+	
+	/**
+	 * Share of the inputs that reused a result
+	 * @return
+	 */
+	public double getRatio () {
+		long l = lookups.sum();
+		return (l == 0) ? 0.0 : (double) hits.sum() / l;
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Input files of a campaign, enumerated lazily so that the list of files
+ * never needs to be held in memory. An input can be:
+ *  - a file,
+ *  - a directory: its XML models are found recursively (the *-sched.xml
+ *    files written by the framework are skipped),
+ *  - a glob (e.g. 'bench/u1-*.xml', quoted so the shell does not
+ *    expand it), the directories are walked from the part without
+ *    wildcards,
+ *  - a manifest: a text file with one input file per line, empty lines
+ *    and lines starting with '#' are ignored.
+ * Each call to iterator() starts a new enumeration.
+ * @author roberto
+ *
+ */
+public class InputCorpus implements Iterable<String> {
+	
+	private static final PathMatcher MODELS = FileSystems.getDefault().getPathMatcher("glob:*.xml");
+	private static final String SCHED_SUFFIX = "-sched.xml";
+	
+	private List<String> inputs;
+	private List<String> manifests;
+	
+	public InputCorpus (String inputs[], String manifests[]) {
+		this.inputs = (inputs == null) ? Collections.<String>emptyList() : Arrays.asList(inputs);
+		this.manifests = (manifests == null) ? Collections.<String>emptyList() : Arrays.asList(manifests);
+	}
+	
+	private static boolean isGlob (String s) {
+		for (char c : s.toCharArray()) {
+			if (c == '*' || c == '?' || c == '[' || c == '{')
+				return true;
+		}
+		return false;
+	}
+	
+	@Override
+	public Iterator<String> iterator() {
+		return new CorpusIterator();
+	}
+	
+	/**
+	 * Goes through the inputs, then the manifests. Only one directory
+	 * walk or manifest is open at a time, it is closed once exhausted.
+	 */
+	private class CorpusIterator implements Iterator<String>, Closeable {
+		private Iterator<String> nextInput = inputs.iterator();
+		private Iterator<String> nextManifest = manifests.iterator();
+		
+		// Current directory walk
+		private Stream<Path> walk;
+		private Iterator<Path> walkIt;
+		private PathMatcher matcher;
+		private Path relativeTo;
+		
+		// Current manifest
+		private BufferedReader manifest;
+		
+		private String next;
+		
+		/**
+		 * Starts the enumeration of an input
+		 * @param input
+		 * @throws IOException
+		 */
+		private void open (String input) throws IOException {
+			if (!isGlob(input)) {
+				Path p = Paths.get(input);
+				
+				if (Files.isDirectory(p)) {
+					walk = Files.walk(p);
+					walkIt = walk.iterator();
+					matcher = null;
+					relativeTo = null;
+				} else {
+					next = input;
+				}
+				return;
+			}
+			
+			// Walk from the longest prefix without wildcards
+			Path pattern = Paths.get(input);
+			Path base = pattern.isAbsolute() ? pattern.getRoot() : Paths.get("");
+			int depth = 0;
+			boolean deep = false;
+			boolean inBase = true;
+			
+			for (Path part : pattern) {
+				if (inBase && !isGlob(part.toString())) {
+					base = base.resolve(part);
+				} else {
+					inBase = false;
+					depth++;
+					if (part.toString().contains("**"))
+						deep = true;
+				}
+			}
+			Path start = base.toString().isEmpty() ? Paths.get(".") : base;
+			
+			if (!Files.isDirectory(start))
+				return;
+			
+			walk = Files.walk(start, deep ? Integer.MAX_VALUE : depth);
+			walkIt = walk.iterator();
+			matcher = FileSystems.getDefault().getPathMatcher("glob:"+input);
+			relativeTo = base.toString().isEmpty() ? start : null;
+		}
+		
+		/**
+		 * Next file of the current walk, null when exhausted
+		 * @return
+		 */
+		private String nextInWalk () {
+			while (walkIt.hasNext()) {
+				Path p = walkIt.next();
+				
+				if (matcher == null) {
+					if (Files.isRegularFile(p) && MODELS.matches(p.getFileName())
+							&& !p.getFileName().toString().endsWith(SCHED_SUFFIX))
+						return p.toString();
+				} else {
+					if (relativeTo != null)
+						p = relativeTo.relativize(p);
+					if (matcher.matches(p) && Files.isRegularFile(p))
+						return p.toString();
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Next entry of the current manifest, null when exhausted
+		 * @return
+		 * @throws IOException
+		 */
+		private String nextInManifest () throws IOException {
+			String line;
+			
+			while ((line = manifest.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					return line;
+			}
+			return null;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			try {
+				while (next == null) {
+					if (walk != null)
+						next = nextInWalk();
+					else if (manifest != null)
+						next = nextInManifest();
+					if (next != null)
+						break;
+					
+					close();
+					if (nextInput.hasNext())
+						open(nextInput.next());
+					else if (nextManifest.hasNext())
+						manifest = Files.newBufferedReader(Paths.get(nextManifest.next()));
+					else
+						return false;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return true;
+		}
+		
+		@Override
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String ret = next;
+			next = null;
+			return ret;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (walk != null) {
+				walk.close();
+				walk = null;
+				walkIt = null;
+			}
+			if (manifest != null) {
+				manifest.close();
+				manifest = null;
+			}
+		}
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public List<String> getInputs() {
+		return inputs;
+	}
+
+	public List<String> getManifests() {
+		return manifests;
+	}
+}
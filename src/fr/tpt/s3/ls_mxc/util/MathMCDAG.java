@@ -32,6 +32,15 @@ public class MathMCDAG {
 		return a;
 	}
 	
+	public static long gcd (long a, long b) {
+		while (b > 0) {
+			long tmp = b;
+			b = a % b;
+			a = tmp;
+		}
+		return a;
+	}
+	
 	public static int lcm (int a, int b) {
 		return a * (b / gcd(a, b));
 	}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+
+import fr.tpt.s3.ls_mxc.metrics.Metrics;
+
+/**
+ * Admission control of the files of a campaign based on memory. Each
+ * file is charged an estimate of the heap it needs (from its size) when
+ * it is submitted and credited back when its task is done: submissions
+ * block while the files in flight would exceed the budget, or while the
+ * old generation was still filled above its limit after the last
+ * collection (promoted models that are still alive).
+ * A file is always admitted when nothing is in flight, so a single big
+ * model can not block the campaign.
+ * @author roberto
+ *
+ */
+public class MemoryGovernor {
+	
+	// A parsed model keeps ~4 bytes of heap per byte of XML, the DOM and
+	// the allocator state double that while the file is processed
+	public static final long BYTES_PER_FILE_BYTE = 8;
+	public static final long BASE_COST = 16 * 1024;
+	
+	// Period at which a blocked submission checks the old generation again
+	private static final long POLL_MS = 20;
+	
+	private static final LongAdder THROTTLED = Metrics.counter("memory.throttled");
+	
+	private long budget;
+	private double oldGenLimit;
+	private MemoryPoolMXBean oldGen;
+	
+	private long inFlight;
+	private int nbInFlight;
+	
+	/**
+	 * @param budget Heap in bytes for the files in flight
+	 * @param oldGenLimit Occupancy of the old generation (0 to 1) above
+	 * which submissions wait, 1 to disable
+	 */
+	public MemoryGovernor (long budget, double oldGenLimit) {
+		this.budget = budget;
+		this.oldGenLimit = oldGenLimit;
+		this.oldGen = findOldGen();
+	}
+	
+	/**
+	 * Governor with half of the maximum heap for the files in flight,
+	 * waiting above 80% of old generation occupancy
+	 */
+	public MemoryGovernor () {
+		this(Runtime.getRuntime().maxMemory() / 2, 0.8);
+	}
+	
+	/**
+	 * Heap pool of the old generation (tenured objects), null if the
+	 * collector does not report its occupancy after collections
+	 * @return
+	 */
+	private static MemoryPoolMXBean findOldGen () {
+		for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+			String name = p.getName();
+			
+			if (p.getType() == MemoryType.HEAP && p.isCollectionUsageThresholdSupported()
+					&& (name.contains("Old") || name.contains("Tenured")))
+				return p;
+		}
+		return null;
+	}
+	
+	/**
+	 * Occupancy of the old generation after its last collection (dead
+	 * objects waiting for the next cycle do not count), or of the whole
+	 * heap when the old generation is unknown
+	 * @return
+	 */
+	public double oldGenOccupancy () {
+		if (oldGen != null) {
+			MemoryUsage u = oldGen.getCollectionUsage();
+			
+			if (u != null && u.getMax() > 0)
+				return (double) u.getUsed() / u.getMax();
+		}
+		Runtime rt = Runtime.getRuntime();
+		return (double) (rt.totalMemory() - rt.freeMemory()) / rt.maxMemory();
+	}
+	
+	/**
+	 * Heap needed to process a file
+	 * @param file
+	 * @return
+	 */
+	public long estimate (String file) {
+		try {
+			return BASE_COST + BYTES_PER_FILE_BYTE * Files.size(Paths.get(file));
+		} catch (IOException e) {
+			return BASE_COST;
+		}
+	}
+	
+	/**
+	 * Blocks until a file of the given cost can be admitted
+	 * @param cost
+	 * @throws InterruptedException
+	 */
+	public synchronized void acquire (long cost) throws InterruptedException {
+		boolean throttled = false;
+		
+		while (nbInFlight > 0 && (inFlight + cost > budget || oldGenOccupancy() > oldGenLimit)) {
+			throttled = true;
+			wait(POLL_MS);
+		}
+		if (throttled)
+			THROTTLED.increment();
+		inFlight += cost;
+		nbInFlight++;
+	}
+	
+	/**
+	 * Credits back a file that is done
+	 * @param cost
+	 */
+	public synchronized void release (long cost) {
+		inFlight -= cost;
+		nbInFlight--;
+		notifyAll();
+	}
+	
+	/**
+	 * Wraps a task so that its cost is released when it ends
+	 * @param r
+	 * @param cost
+	 * @return
+	 */
+	public Runnable releasing (final Runnable r, final long cost) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					r.run();
+				} finally {
+					release(cost);
+				}
+			}
+		};
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	public double getOldGenLimit() {
+		return oldGenLimit;
+	}
+
+	public synchronized long getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getNbInFlight() {
+		return nbInFlight;
+	}
+}
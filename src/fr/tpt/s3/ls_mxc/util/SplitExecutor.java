@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work of each input file as a sequence of steps: blocking I/O
+ * steps run on their own thread (a virtual thread when the JVM has them,
+ * a cached platform thread otherwise) and CPU steps are handed to a
+ * pool sized to the cores. The I/O thread of a file waits for its CPU
+ * steps, so a file owns all its subtasks until it is done.
+ * At most maxPending files are in flight: submit blocks the caller
+ * beyond that, so a campaign of any size runs in bounded memory.
+ * @author roberto
+ *
+ */
+public class SplitExecutor {
+	
+	/**
+	 * A step of the work of a file. Returning false stops the file.
+	 */
+	public static class Step {
+		private Callable<Boolean> work;
+		private boolean cpu;
+		
+		private Step (Callable<Boolean> work, boolean cpu) {
+			this.work = work;
+			this.cpu = cpu;
+		}
+	}
+	
+	public static Step io (Callable<Boolean> work) {
+		return new Step(work, false);
+	}
+	
+	public static Step cpu (Callable<Boolean> work) {
+		return new Step(work, true);
+	}
+	
+	private ExecutorService io;
+	private ExecutorService cpu;
+	private boolean virtual;
+	private Semaphore pending;
+	private int maxPending;
+	private AtomicInteger failures;
+	
+	public SplitExecutor (int cpuThreads) {
+		this(cpuThreads, 4 * cpuThreads);
+	}
+	
+	public SplitExecutor (int cpuThreads, int maxPending) {
+		io = virtualExecutor();
+		virtual = (io != null);
+		if (io == null) {
+			io = Executors.newCachedThreadPool(new ThreadFactory() {
+				private AtomicInteger nb = new AtomicInteger();
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "io-"+nb.getAndIncrement());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		cpu = Executors.newFixedThreadPool(cpuThreads);
+		this.maxPending = maxPending;
+		pending = new Semaphore(maxPending);
+		failures = new AtomicInteger();
+	}
+	
+	/**
+	 * Executor with one virtual thread per task, null if the JVM
+	 * does not provide them
+	 * @return
+	 */
+	private static ExecutorService virtualExecutor () {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException | SecurityException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Submits the steps of a file. They are run in order, a failing step
+	 * (false or exception) cancels the following ones. Blocks while
+	 * maxPending files are in flight.
+	 * @param name Name of the file, for the error messages
+	 * @param steps
+	 * @throws InterruptedException
+	 */
+	public void submit (final String name, final Step... steps) throws InterruptedException {
+		submit(name, null, steps);
+	}
+	
+	/**
+	 * Submits the steps of a file
+	 * @param name Name of the file, for the error messages
+	 * @param done Run once the file is done, whether its steps failed or not (can be null)
+	 * @param steps
+	 * @throws InterruptedException
+	 */
+	public void submit (final String name, final Runnable done, final Step... steps) throws InterruptedException {
+		pending.acquire();
+		io.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runSteps(name, steps);
+				} finally {
+					if (done != null)
+						done.run();
+					pending.release();
+				}
+			}
+		});
+	}
+	
+	private void runSteps (String name, Step steps[]) {
+		for (Step s : steps) {
+			Future<Boolean> f = null;
+			try {
+				boolean ok;
+				if (s.cpu) {
+					f = cpu.submit(s.work);
+					ok = f.get();
+				} else {
+					ok = s.work.call();
+				}
+				if (!ok) {
+					failures.incrementAndGet();
+					return;
+				}
+			} catch (InterruptedException ie) {
+				if (f != null)
+					f.cancel(true);
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException ee) {
+				failed(name, ee.getCause());
+				return;
+			} catch (Exception e) {
+				failed(name, e);
+				return;
+			}
+		}
+	}
+	
+	private void failed (String name, Throwable t) {
+		failures.incrementAndGet();
+		System.err.println("[ERROR "+Thread.currentThread().getName()+"] "+name+": "+t);
+		t.printStackTrace();
+	}
+	
+	/**
+	 * Waits for all the files and stops the executors
+	 * @return Number of files that did not go through all their steps
+	 * @throws InterruptedException
+	 */
+	public int awaitAll () throws InterruptedException {
+		pending.acquire(maxPending);
+		pending.release(maxPending);
+		io.shutdown();
+		cpu.shutdown();
+		io.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		cpu.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		return failures.get();
+	}
+	
+	/*
+	 * Getters & Setters
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Roberto Medina
+ * Written by Roberto Medina (rmedina@telecom-paristech.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package fr.tpt.s3.ls_mxc.util;
+
+/**
+ * Disjoint sets over the integers [0, n) with path halving and
+ * union by size.
+ * @author roberto
+ *
+ */
+public class UnionFind {
+
+	private int parent[];
+	private int size[];
+	private int nbSets;
+
+	public UnionFind (int n) {
+		parent = new int[n];
+		size = new int[n];
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+		nbSets = n;
+	}
+
+	/**
+	 * Returns the representative of the set containing x
+	 * @param x
+	 * @return
+	 */
+	public int find (int x) {
+		while (parent[x] != x) {
+			parent[x] = parent[parent[x]];
+			x = parent[x];
+		}
+		return x;
+	}
+
+	/**
+	 * Merges the sets containing x and y
+	 * @param x
+	 * @param y
+	 * @return true if the two elements were in different sets
+	 */
+	public boolean union (int x, int y) {
+		int rx = find(x);
+		int ry = find(y);
+
+		if (rx == ry)
+			return false;
+
+		if (size[rx] < size[ry]) {
+			int tmp = rx;
+			rx = ry;
+			ry = tmp;
+		}
+		parent[ry] = rx;
+		size[rx] += size[ry];
+		nbSets--;
+		return true;
+	}
+
+	public boolean connected (int x, int y) {
+		return find(x) == find(y);
+	}
+
+	public int getNbSets() {
+		return nbSets;
+	}
+}